@@ -8,6 +8,7 @@ import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
+import taro.spreadsheet.model.CellAddresses;
 
 import java.util.Date;
 import java.util.List;
@@ -40,7 +41,7 @@ public class SpreadsheetReader {
      * Throws an IllegalArgumentException if the cellId is malformed
      */
     public static int getColumnIndex(String cellId) {
-        return new CellReference(cellId).getCol();
+        return CellAddresses.getCol(CellAddresses.parse(cellId));
     }
 
     /**
@@ -51,7 +52,7 @@ public class SpreadsheetReader {
      * Throws an IllegalArgumentException if the cellId is malformed
      */
     public static int getRowIndex(String cellId) {
-        return new CellReference(cellId).getRow();
+        return CellAddresses.getRow(CellAddresses.parse(cellId));
     }
 
     public static String getCellAddress(int col, int row) {
@@ -186,10 +187,8 @@ public class SpreadsheetReader {
     }
 
     public Cell getCell(String cellId) {
-        int columnIndex = getColumnIndex(cellId);
-        int rowIndex = getRowIndex(cellId);
-
-        return getCell(columnIndex, rowIndex);
+        long address = CellAddresses.parse(cellId);
+        return getCell(CellAddresses.getCol(address), CellAddresses.getRow(address));
     }
 
     public Cell getCell(int columnIndex, int rowIndex) {
@@ -216,8 +215,9 @@ public class SpreadsheetReader {
 
     public List<String> readDownUntilBlank(String startingCell) {
         List<String> values = newArrayList();
-        int rowIndex = getRowIndex(startingCell);
-        int colIndex = getColumnIndex(startingCell);
+        long address = CellAddresses.parse(startingCell);
+        int rowIndex = CellAddresses.getRow(address);
+        int colIndex = CellAddresses.getCol(address);
         String value = getValue(colIndex, rowIndex);
         while (isNotBlank(value)) {
             values.add(value);
@@ -229,8 +229,9 @@ public class SpreadsheetReader {
 
     public String[] readDown(String startingCell, int num) {
         String[] values = new String[num];
-        int rowIndex = getRowIndex(startingCell);
-        int colIndex = getColumnIndex(startingCell);
+        long address = CellAddresses.parse(startingCell);
+        int rowIndex = CellAddresses.getRow(address);
+        int colIndex = CellAddresses.getCol(address);
         for (int i = 0; i < values.length; i++) {
             values[i] = getValue(colIndex, rowIndex+i);
         }
@@ -239,8 +240,9 @@ public class SpreadsheetReader {
 
     public double[] readDownNumeric(String startingCell, int num) {
         double[] values = new double[num];
-        int rowIndex = getRowIndex(startingCell);
-        int colIndex = getColumnIndex(startingCell);
+        long address = CellAddresses.parse(startingCell);
+        int rowIndex = CellAddresses.getRow(address);
+        int colIndex = CellAddresses.getCol(address);
         for (int i = 0; i < values.length; i++) {
             values[i] = getNumericValue(colIndex, rowIndex+i);
         }
@@ -249,8 +251,9 @@ public class SpreadsheetReader {
 
     public List<String> readAcrossUntilBlank(String startingCell) {
         List<String> values = newArrayList();
-        int rowIndex = getRowIndex(startingCell);
-        int colIndex = getColumnIndex(startingCell);
+        long address = CellAddresses.parse(startingCell);
+        int rowIndex = CellAddresses.getRow(address);
+        int colIndex = CellAddresses.getCol(address);
         String value = getValue(colIndex, rowIndex);
         while (isNotBlank(value)) {
             values.add(value);
@@ -262,8 +265,9 @@ public class SpreadsheetReader {
 
     public String[] readAcross(String startingCell, int num) {
         String[] values = new String[num];
-        int rowIndex = getRowIndex(startingCell);
-        int colIndex = getColumnIndex(startingCell);
+        long address = CellAddresses.parse(startingCell);
+        int rowIndex = CellAddresses.getRow(address);
+        int colIndex = CellAddresses.getCol(address);
         for (int i = 0; i < values.length; i++) {
             values[i] = getValue(colIndex+i, rowIndex);
         }
@@ -272,8 +276,9 @@ public class SpreadsheetReader {
 
     public double[] readAcrossNumeric(String startingCell, int num) {
         double[] values = new double[num];
-        int rowIndex = getRowIndex(startingCell);
-        int colIndex = getColumnIndex(startingCell);
+        long address = CellAddresses.parse(startingCell);
+        int rowIndex = CellAddresses.getRow(address);
+        int colIndex = CellAddresses.getCol(address);
         for (int i = 0; i < values.length; i++) {
             values[i] = getNumericValue(colIndex+i, rowIndex);
         }
@@ -0,0 +1,80 @@
+package taro.spreadsheet.model;
+
+/**
+ * Maps canonical styles or fonts to positive int ids by identity. Keys are stored with open addressing, so a
+ * lookup allocates nothing, and the table is sized by the keys it holds rather than by how many styles the
+ * process has interned. Each workbook, tab and row band keeps its own, so their ids stay dense.
+ */
+class CanonicalIds {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the id of the canonical instance, or 0 if it has none.
+     */
+    int get(Object canonical) {
+        int mask = keys.length - 1;
+        int index = hash(canonical) & mask;
+        Object key;
+        while ((key = keys[index]) != null) {
+            if (key == canonical) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return 0;
+    }
+
+    void put(Object canonical, int id) {
+        int mask = keys.length - 1;
+        int index = hash(canonical) & mask;
+        while (keys[index] != null) {
+            if (keys[index] == canonical) {
+                values[index] = id;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = canonical;
+        values[index] = id;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,97 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Parses cell addresses in A1 notation (such as B7 or $AR$1677) into a row and column packed into a long, without
+ * allocating. Recently parsed String addresses are kept in a small direct-mapped cache, so the literal addresses
+ * that templates use over and over are found with one array lookup. Addresses this parser does not handle itself,
+ * such as sheet-qualified ones, are parsed by POI's CellReference.
+ */
+public final class CellAddresses {
+
+    private static final int CACHE_SIZE = 1024;
+    private static final Entry[] CACHE = new Entry[CACHE_SIZE];
+
+    private static final class Entry {
+        final String address;
+        final long packed;
+
+        Entry(String address, long packed) {
+            this.address = address;
+            this.packed = packed;
+        }
+    }
+
+    private CellAddresses() {
+    }
+
+    /**
+     * Returns the 0-based row and column of the address packed into a long; unpack it with getRow and getCol.
+     * Throws an IllegalArgumentException if the address is malformed.
+     */
+    public static long parse(String address) {
+        int slot = address.hashCode() & (CACHE_SIZE - 1);
+        Entry entry = CACHE[slot];
+        if (entry != null && entry.address.equals(address)) {
+            return entry.packed;
+        }
+        long packed = parse((CharSequence) address);
+        CACHE[slot] = new Entry(address, packed);
+        return packed;
+    }
+
+    /**
+     * Like parse(String), without the cache.
+     */
+    public static long parse(CharSequence address) {
+        int length = address.length();
+        int index = 0;
+        if (index < length && address.charAt(index) == '$') index++;
+
+        int col = 0;
+        int letters = 0;
+        while (index < length && letters <= 3) {
+            char c = address.charAt(index);
+            if (c >= 'A' && c <= 'Z') {
+                col = col * 26 + (c - 'A' + 1);
+            } else if (c >= 'a' && c <= 'z') {
+                col = col * 26 + (c - 'a' + 1);
+            } else {
+                break;
+            }
+            letters++;
+            index++;
+        }
+        if (index < length && address.charAt(index) == '$') index++;
+
+        int row = 0;
+        int digits = 0;
+        while (index < length && digits <= 7) {
+            char c = address.charAt(index);
+            if (c < '0' || c > '9') break;
+            row = row * 10 + (c - '0');
+            digits++;
+            index++;
+        }
+
+        if (letters == 0 || letters > 3 || digits == 0 || digits > 7 || row == 0 || index != length) {
+            CellReference reference = new CellReference(address.toString());
+            return pack(reference.getRow(), reference.getCol());
+        }
+        return pack(row - 1, col - 1);
+    }
+
+    public static long pack(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    public static int getRow(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int getCol(long packed) {
+        return (int) packed;
+    }
+
+}
@@ -0,0 +1,603 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.RichTextString;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static java.lang.String.format;
+
+/**
+ * Compact store for the values and styles of a deferred tab. Each row keeps parallel primitive arrays of type
+ * tags, numbers, string pool ids and style ids, so a buffered cell costs a few bytes instead of a POI cell and
+ * its XML bean. The POI rows are only created when the tab is materialized.
+ * <p>
+ * Strings are pooled: equal strings share a ref, and a string that no cell refers to any more, because its cells
+ * were overwritten, is dropped and its ref reused, so rewriting the cells of a tab does not grow the pool. Rich
+ * texts are not pooled, but their refs are reused the same way. The strings and rich texts of rows that were
+ * written out by flushRowsThrough are never released, as a writer may still refer to them by their refs.
+ */
+class CellBuffer {
+
+    static final byte NONE = 0;
+    static final byte BLANK = 1;
+    static final byte NUMERIC = 2;
+    static final byte STRING = 3;
+    static final byte FORMULA = 4;
+    static final byte BOOLEAN = 5;
+    static final byte RICH_TEXT = 6;
+
+    /** Style id of a cell that has no style. */
+    static final int NO_STYLE = 0;
+
+    /** Row height of a row that uses the sheet default. */
+    static final short DEFAULT_HEIGHT = -1;
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int INITIAL_COLS = 8;
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final RichTextString[] NO_RICH_TEXTS = new RichTextString[0];
+
+    private final boolean date1904;
+    private BufferedRow[] rows = new BufferedRow[INITIAL_ROWS];
+    // true while the rows array is shared with the copies of this buffer, whose rows are then all frozen
+    private boolean rowsShared;
+    private int lastRow = -1;
+    private int flushedThroughRow = -1;
+
+    // the strings and rich texts this buffer was copied with, which are shared with the other copies and never
+    // change, followed by the ones added since, whose refs start where the shared ones end
+    private final String[] sharedStrings;
+    private final Map<String, Integer> sharedStringIds;
+    private final RichTextString[] sharedRichTexts;
+    private final List<String> strings = newArrayList();
+    private final Map<String, Integer> stringIds = newHashMap();
+    private final List<RichTextString> richTexts = newArrayList();
+    // how many cells of this buffer refer to each of its own strings, by their index in strings
+    private int[] stringRefCounts = new int[INITIAL_COLS];
+    // the refs of the strings and rich texts that were dropped, to reuse before adding to the lists
+    private int[] freeStringRefs = new int[INITIAL_COLS];
+    private int freeStringRefCount;
+    private int[] freeRichTextRefs = new int[INITIAL_COLS];
+    private int freeRichTextRefCount;
+    private final RangeStyles rangeStyles;
+
+    CellBuffer(boolean date1904) {
+        this.date1904 = date1904;
+        this.sharedStrings = NO_STRINGS;
+        this.sharedStringIds = Collections.emptyMap();
+        this.sharedRichTexts = NO_RICH_TEXTS;
+        this.rangeStyles = new RangeStyles();
+    }
+
+    private CellBuffer(CellBuffer buffer, String[] sharedStrings, Map<String, Integer> sharedStringIds,
+                       RichTextString[] sharedRichTexts) {
+        this.date1904 = buffer.date1904;
+        this.rows = buffer.rows;
+        this.rowsShared = true;
+        this.lastRow = buffer.lastRow;
+        this.flushedThroughRow = buffer.flushedThroughRow;
+        this.sharedStrings = sharedStrings;
+        this.sharedStringIds = sharedStringIds;
+        this.sharedRichTexts = sharedRichTexts;
+        this.rangeStyles = buffer.rangeStyles.copy();
+    }
+
+    /**
+     * Returns a copy of this buffer that shares its rows and strings until either of them modifies them. The rows
+     * are frozen, and a buffer copies a frozen row the first time it modifies it, so a copy costs memory only for
+     * the rows it changes. Copying a buffer that has not been modified since it was itself copied only reads it,
+     * so such a buffer can be copied from several threads at once.
+     */
+    CellBuffer copyOnWrite() {
+        if (!rowsShared) {
+            for (BufferedRow row : rows) {
+                if (row != null) {
+                    row.frozen = true;
+                }
+            }
+            rowsShared = true;
+        }
+        if (strings.isEmpty() && richTexts.isEmpty()) {
+            return new CellBuffer(this, sharedStrings, sharedStringIds, sharedRichTexts);
+        }
+        String[] allStrings = Arrays.copyOf(sharedStrings, sharedStrings.length + strings.size());
+        Map<String, Integer> allStringIds = newHashMap(sharedStringIds);
+        for (int i = 0; i < strings.size(); i++) {
+            allStrings[sharedStrings.length + i] = strings.get(i);
+            if (strings.get(i) != null) {
+                allStringIds.put(strings.get(i), sharedStrings.length + i);
+            }
+        }
+        RichTextString[] allRichTexts = Arrays.copyOf(sharedRichTexts, sharedRichTexts.length + richTexts.size());
+        for (int i = 0; i < richTexts.size(); i++) {
+            allRichTexts[sharedRichTexts.length + i] = richTexts.get(i);
+        }
+        return new CellBuffer(this, allStrings, Collections.unmodifiableMap(allStringIds), allRichTexts);
+    }
+
+    static class BufferedRow {
+        byte[] types = new byte[INITIAL_COLS];
+        double[] numbers = new double[INITIAL_COLS];
+        int[] refs = new int[INITIAL_COLS];
+        int[] styles = new int[INITIAL_COLS];
+        int lastCol = -1;
+        short height = DEFAULT_HEIGHT;
+        boolean dirty = true;
+        // a frozen row is shared by copies of the buffer and is never modified
+        boolean frozen;
+
+        private BufferedRow copy() {
+            BufferedRow copy = new BufferedRow();
+            copy.types = types.clone();
+            copy.numbers = numbers.clone();
+            copy.refs = refs.clone();
+            copy.styles = styles.clone();
+            copy.lastCol = lastCol;
+            copy.height = height;
+            return copy;
+        }
+
+        /**
+         * Returns true if the row may differ from its POI row, which is always assumed of a frozen row as the
+         * buffers sharing it materialize it into different sheets.
+         */
+        boolean isDirty() {
+            return dirty || frozen;
+        }
+
+        void markMaterialized() {
+            if (!frozen) {
+                dirty = false;
+            }
+        }
+
+        private void ensureCapacity(int col) {
+            if (col >= types.length) {
+                int length = Math.max(types.length * 2, col + 1);
+                types = Arrays.copyOf(types, length);
+                numbers = Arrays.copyOf(numbers, length);
+                refs = Arrays.copyOf(refs, length);
+                styles = Arrays.copyOf(styles, length);
+            }
+        }
+
+        /**
+         * Returns true if the cell was created by this call.
+         */
+        private boolean touch(int col) {
+            ensureCapacity(col);
+            if (col > lastCol) {
+                lastCol = col;
+            }
+            dirty = true;
+            if (types[col] == NONE) {
+                types[col] = BLANK;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    BufferedRow getRow(int row) {
+        if (row < 0 || row >= rows.length) return null;
+        return rows[row];
+    }
+
+    BufferedRow getOrCreateRow(int row) {
+        if (row < 0) {
+            throw new IllegalArgumentException("Invalid row index: " + row);
+        }
+        if (row <= flushedThroughRow) {
+            throw new TaroSpreadsheetException(format("Row %d has already been written to the output stream and can " +
+                    "no longer be modified.", row));
+        }
+        if (row >= rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(rows.length * 2, row + 1));
+            rowsShared = false;
+        }
+        BufferedRow bufferedRow = rows[row];
+        if (bufferedRow == null) {
+            bufferedRow = new BufferedRow();
+            getWritableRows()[row] = bufferedRow;
+            if (row > lastRow) {
+                lastRow = row;
+            }
+        } else if (bufferedRow.frozen) {
+            bufferedRow = bufferedRow.copy();
+            getWritableRows()[row] = bufferedRow;
+        }
+        return bufferedRow;
+    }
+
+    /**
+     * Returns the rows array, copying it first if it is shared with other buffers.
+     */
+    private BufferedRow[] getWritableRows() {
+        if (rowsShared) {
+            rows = rows.clone();
+            rowsShared = false;
+        }
+        return rows;
+    }
+
+    int getLastRow() {
+        return lastRow;
+    }
+
+    int getRowCapacity() {
+        return rows.length;
+    }
+
+    /**
+     * Returns the last row that has been written out and dropped, or -1 if there is none.
+     */
+    int getFlushedThroughRow() {
+        return flushedThroughRow;
+    }
+
+    /**
+     * Drops the rows through the given one, which have been written out, and refuses to create them again. The
+     * string pool is kept, as later rows refer to it.
+     */
+    void flushRowsThrough(int row) {
+        if (row <= flushedThroughRow) return;
+        Arrays.fill(getWritableRows(), Math.min(flushedThroughRow + 1, rows.length), Math.min(row + 1, rows.length), null);
+        flushedThroughRow = row;
+    }
+
+    /**
+     * Returns true if a cell has been created at the given coordinates or a range style covers them.
+     */
+    boolean exists(int row, int col) {
+        return getType(row, col) != NONE || rangeStyles.getStyleId(row, col) != NO_STYLE;
+    }
+
+    /**
+     * Creates a blank cell at the given coordinates if there is no cell there yet.
+     */
+    void touch(int row, int col) {
+        if (col < 0) {
+            throw new IllegalArgumentException("Invalid column index: " + col);
+        }
+        touch(getOrCreateRow(row), row, col);
+    }
+
+    /**
+     * A new cell takes the style of the newest range style covering it.
+     */
+    private void touch(BufferedRow bufferedRow, int row, int col) {
+        if (bufferedRow.touch(col) && !rangeStyles.isEmpty()) {
+            bufferedRow.styles[col] = rangeStyles.getStyleId(row, col);
+        }
+    }
+
+    byte getType(int row, int col) {
+        BufferedRow bufferedRow = getRow(row);
+        if (bufferedRow == null || col < 0 || col > bufferedRow.lastCol) return NONE;
+        return bufferedRow.types[col];
+    }
+
+    double getNumber(int row, int col) {
+        return rows[row].numbers[col];
+    }
+
+    /**
+     * Returns the string of a STRING, FORMULA or RICH_TEXT cell.
+     */
+    String getString(int row, int col) {
+        BufferedRow bufferedRow = rows[row];
+        if (bufferedRow.types[col] == RICH_TEXT) {
+            return getRichText(bufferedRow.refs[col]).getString();
+        }
+        return getString(bufferedRow.refs[col]);
+    }
+
+    RichTextString getRichText(int row, int col) {
+        return getRichText(rows[row].refs[col]);
+    }
+
+    private String getString(int ref) {
+        return ref < sharedStrings.length ? sharedStrings[ref] : strings.get(ref - sharedStrings.length);
+    }
+
+    private RichTextString getRichText(int ref) {
+        return ref < sharedRichTexts.length ? sharedRichTexts[ref] : richTexts.get(ref - sharedRichTexts.length);
+    }
+
+    /**
+     * Returns the number of string refs, which index the strings of STRING and FORMULA cells. Some of them may
+     * have been dropped and not reused yet.
+     */
+    int getStringCount() {
+        return sharedStrings.length + strings.size();
+    }
+
+    /**
+     * Returns the number of rich text refs, which the refs of RICH_TEXT cells index.
+     */
+    int getRichTextCount() {
+        return sharedRichTexts.length + richTexts.size();
+    }
+
+    /**
+     * Returns the style id of the cell, or of the range style covering the coordinates if there is no cell.
+     */
+    int getStyleId(int row, int col) {
+        if (getType(row, col) == NONE) {
+            return rangeStyles.getStyleId(row, col);
+        }
+        return rows[row].styles[col];
+    }
+
+    void setStyleId(int row, int col, int styleId) {
+        setStyleId(getOrCreateRow(row), row, col, styleId);
+    }
+
+    /**
+     * Like setStyleId(row, col, styleId), for callers that write many cells of a row they already looked up.
+     */
+    void setStyleId(BufferedRow bufferedRow, int row, int col, int styleId) {
+        touch(bufferedRow, row, col);
+        bufferedRow.styles[col] = styleId;
+    }
+
+    /**
+     * Styles the cells of the range that already exist and records the range, so that empty cells in it take the
+     * style when they are created or written, without creating a cell for every coordinate. A range cannot start
+     * on a row that has already been written to the output stream, as its cells would silently keep their style.
+     */
+    void setRangeStyleId(int firstRow, int lastRow, int firstCol, int lastCol, int styleId) {
+        if (firstRow <= flushedThroughRow) {
+            throw new TaroSpreadsheetException(format("Row %d has already been written to the output stream and can " +
+                    "no longer be styled.", firstRow));
+        }
+        rangeStyles.add(firstRow, lastRow, firstCol, lastCol, styleId);
+        for (int row = firstRow; row <= Math.min(lastRow, this.lastRow); row++) {
+            BufferedRow bufferedRow = rows[row];
+            if (bufferedRow == null) continue;
+            for (int col = firstCol; col <= Math.min(lastCol, bufferedRow.lastCol); col++) {
+                if (bufferedRow.types[col] != NONE) {
+                    if (bufferedRow.frozen) {
+                        bufferedRow = getOrCreateRow(row);
+                    }
+                    bufferedRow.styles[col] = styleId;
+                    bufferedRow.dirty = true;
+                }
+            }
+        }
+    }
+
+    RangeStyles getRangeStyles() {
+        return rangeStyles;
+    }
+
+    short getHeight(int row) {
+        BufferedRow bufferedRow = getRow(row);
+        return bufferedRow != null ? bufferedRow.height : DEFAULT_HEIGHT;
+    }
+
+    void setHeight(int row, short height) {
+        BufferedRow bufferedRow = getOrCreateRow(row);
+        bufferedRow.height = height;
+        bufferedRow.dirty = true;
+    }
+
+    /**
+     * Stores the value using the same conversions as SpreadsheetCell.setValue applies to a POI cell.
+     */
+    void setValue(int row, int col, Object value) {
+        setValue(getOrCreateRow(row), row, col, value);
+    }
+
+    /**
+     * Like setValue(row, col, value), for callers that write many cells of a row they already looked up.
+     */
+    void setValue(BufferedRow bufferedRow, int row, int col, Object value) {
+        if (col < 0) {
+            throw new IllegalArgumentException("Invalid column index: " + col);
+        }
+        if (value == null || value instanceof CharSequence) {
+            setValue(bufferedRow, row, col, (CharSequence) value);
+        } else if (value instanceof Number) {
+            setValue(bufferedRow, row, col, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            setValue(bufferedRow, row, col, ((Boolean) value).booleanValue());
+        } else {
+            setObject(bufferedRow, row, col, value);
+        }
+    }
+
+    private void setObject(BufferedRow bufferedRow, int row, int col, Object value) {
+        touch(bufferedRow, row, col);
+        if (value instanceof Date) {
+            setNumber(bufferedRow, col, DateUtil.getExcelDate((Date) value, date1904));
+        } else if (value instanceof Calendar) {
+            setNumber(bufferedRow, col, DateUtil.getExcelDate((Calendar) value, date1904));
+        } else if (value instanceof LocalDateTime) {
+            setNumber(bufferedRow, col, DateUtil.getExcelDate((LocalDateTime) value, date1904));
+        } else if (value instanceof LocalDate) {
+            setNumber(bufferedRow, col, DateUtil.getExcelDate((LocalDate) value, date1904));
+        } else if (value instanceof RichTextString) {
+            setRichText(bufferedRow, col, (RichTextString) value);
+        } else {
+            throw new TaroSpreadsheetException(format("Cannot set a %s [%s] as the spreadsheet cell content.",
+                    value.getClass().getSimpleName(), value.toString()));
+        }
+    }
+
+    /**
+     * Stores a number without boxing it, converting NaN and infinity to an empty string like setValue does.
+     */
+    void setValue(BufferedRow bufferedRow, int row, int col, double value) {
+        if (col < 0) {
+            throw new IllegalArgumentException("Invalid column index: " + col);
+        }
+        touch(bufferedRow, row, col);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            setString(bufferedRow, col, STRING, "");
+        } else {
+            setNumber(bufferedRow, col, value);
+        }
+    }
+
+    void setValue(BufferedRow bufferedRow, int row, int col, boolean value) {
+        if (col < 0) {
+            throw new IllegalArgumentException("Invalid column index: " + col);
+        }
+        touch(bufferedRow, row, col);
+        release(bufferedRow, col);
+        bufferedRow.types[col] = BOOLEAN;
+        bufferedRow.numbers[col] = value ? 1 : 0;
+    }
+
+    /**
+     * Stores text, or a formula if it starts with '='. A null value makes the cell blank.
+     */
+    void setValue(BufferedRow bufferedRow, int row, int col, CharSequence value) {
+        if (col < 0) {
+            throw new IllegalArgumentException("Invalid column index: " + col);
+        }
+        touch(bufferedRow, row, col);
+        if (value == null) {
+            release(bufferedRow, col);
+            bufferedRow.types[col] = BLANK;
+            return;
+        }
+        String string = value.toString();
+        if (string.startsWith("=")) {
+            setString(bufferedRow, col, FORMULA, string.substring(1));
+        } else {
+            setString(bufferedRow, col, STRING, string);
+        }
+    }
+
+    /**
+     * Copies the rows of a RowBand's buffer, whose row 0 is row firstRow of this one, into this one. The band's
+     * style ids are translated through styleIds,
+     * which is indexed by the band's ids; cells the band did not style are created like any other cell, with the
+     * range style covering them. The range styles added from index rangeStylesFrom on were set on the tab while
+     * the band was being filled, so like on the tab's own cells, they override the styles the band set.
+     */
+    void addRows(CellBuffer band, int firstRow, int[] styleIds, int rangeStylesFrom) {
+        for (int bandRowNum = 0; bandRowNum <= band.lastRow; bandRowNum++) {
+            BufferedRow bandRow = band.rows[bandRowNum];
+            if (bandRow == null) continue;
+            int row = firstRow + bandRowNum;
+            BufferedRow bufferedRow = getOrCreateRow(row);
+            bufferedRow.dirty = true;
+            if (bandRow.height != DEFAULT_HEIGHT) {
+                bufferedRow.height = bandRow.height;
+            }
+            for (int col = 0; col <= bandRow.lastCol; col++) {
+                byte type = bandRow.types[col];
+                if (type == NONE) continue;
+
+                touch(bufferedRow, row, col);
+                if (bandRow.styles[col] != NO_STYLE) {
+                    int rangeStyleId = rangeStyles.getStyleIdSince(rangeStylesFrom, row, col);
+                    bufferedRow.styles[col] = rangeStyleId != NO_STYLE ? rangeStyleId : styleIds[bandRow.styles[col]];
+                }
+                switch (type) {
+                    case STRING:
+                    case FORMULA:
+                        setString(bufferedRow, col, type, band.getString(bandRow.refs[col]));
+                        break;
+                    case RICH_TEXT:
+                        setRichText(bufferedRow, col, band.getRichText(bandRow.refs[col]));
+                        break;
+                    default:
+                        release(bufferedRow, col);
+                        bufferedRow.types[col] = type;
+                        bufferedRow.numbers[col] = bandRow.numbers[col];
+                }
+            }
+        }
+    }
+
+    private void setNumber(BufferedRow bufferedRow, int col, double value) {
+        release(bufferedRow, col);
+        bufferedRow.types[col] = NUMERIC;
+        bufferedRow.numbers[col] = value;
+    }
+
+    private void setString(BufferedRow bufferedRow, int col, byte type, String value) {
+        Integer id = sharedStringIds.isEmpty() ? null : sharedStringIds.get(value);
+        if (id == null) {
+            id = stringIds.get(value);
+        }
+        if (id == null) {
+            if (freeStringRefCount > 0) {
+                id = freeStringRefs[--freeStringRefCount];
+                strings.set(id - sharedStrings.length, value);
+            } else {
+                id = getStringCount();
+                strings.add(value);
+            }
+            stringIds.put(value, id);
+        }
+        if (id >= sharedStrings.length) {
+            int index = id - sharedStrings.length;
+            if (index >= stringRefCounts.length) {
+                stringRefCounts = Arrays.copyOf(stringRefCounts, Math.max(stringRefCounts.length * 2, index + 1));
+            }
+            stringRefCounts[index]++;
+        }
+        // the new string is counted first, so rewriting a cell with its own string keeps it
+        release(bufferedRow, col);
+        bufferedRow.types[col] = type;
+        bufferedRow.refs[col] = id;
+    }
+
+    private void setRichText(BufferedRow bufferedRow, int col, RichTextString value) {
+        release(bufferedRow, col);
+        int ref;
+        if (freeRichTextRefCount > 0) {
+            ref = freeRichTextRefs[--freeRichTextRefCount];
+            richTexts.set(ref - sharedRichTexts.length, value);
+        } else {
+            ref = getRichTextCount();
+            richTexts.add(value);
+        }
+        bufferedRow.types[col] = RICH_TEXT;
+        bufferedRow.refs[col] = ref;
+    }
+
+    /**
+     * Drops the string or rich text of the cell, before the cell is overwritten, if it is one of this buffer's
+     * own and no other cell refers to it.
+     */
+    private void release(BufferedRow bufferedRow, int col) {
+        byte type = bufferedRow.types[col];
+        int ref = bufferedRow.refs[col];
+        if ((type == STRING || type == FORMULA) && ref >= sharedStrings.length) {
+            int index = ref - sharedStrings.length;
+            if (--stringRefCounts[index] == 0) {
+                stringIds.remove(strings.get(index));
+                strings.set(index, null);
+                if (freeStringRefCount == freeStringRefs.length) {
+                    freeStringRefs = Arrays.copyOf(freeStringRefs, freeStringRefCount * 2);
+                }
+                freeStringRefs[freeStringRefCount++] = ref;
+            }
+        } else if (type == RICH_TEXT && ref >= sharedRichTexts.length) {
+            richTexts.set(ref - sharedRichTexts.length, null);
+            if (freeRichTextRefCount == freeRichTextRefs.length) {
+                freeRichTextRefs = Arrays.copyOf(freeRichTextRefs, freeRichTextRefCount * 2);
+            }
+            freeRichTextRefs[freeRichTextRefCount++] = ref;
+        }
+    }
+
+}
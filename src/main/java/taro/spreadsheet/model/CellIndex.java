@@ -0,0 +1,86 @@
+package taro.spreadsheet.model;
+
+/**
+ * Index of the style ids of the cells of a regular tab, laid out as an array of rows, each holding an array of
+ * workbook style ids by column. SpreadsheetCell is only a view over a POI cell, so this is the one place a tab
+ * remembers the style it set on each cell. Lookups are two array reads and never allocate.
+ */
+class CellIndex {
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int INITIAL_COLS = 8;
+
+    private int[][] rows = new int[INITIAL_ROWS][];
+    private int firstLiveRow = 0;
+    private int size = 0;
+
+    /**
+     * Returns the style id of the cell, or NO_STYLE if none was set.
+     */
+    int get(int row, int col) {
+        if (row < 0 || row >= rows.length) return CellBuffer.NO_STYLE;
+        int[] cols = rows[row];
+        if (cols == null || col < 0 || col >= cols.length) return CellBuffer.NO_STYLE;
+        return cols[col];
+    }
+
+    void put(int row, int col, int styleId) {
+        if (row < 0 || col < 0) {
+            throw new IllegalArgumentException("Invalid cell coordinates: row " + row + ", col " + col);
+        }
+        if (row >= rows.length) {
+            rows = grow(rows, row);
+        }
+        int[] cols = rows[row];
+        if (cols == null) {
+            cols = new int[Math.max(INITIAL_COLS, col + 1)];
+            rows[row] = cols;
+        } else if (col >= cols.length) {
+            cols = grow(cols, col);
+            rows[row] = cols;
+        }
+        if (cols[col] == CellBuffer.NO_STYLE && styleId != CellBuffer.NO_STYLE) {
+            size++;
+        } else if (cols[col] != CellBuffer.NO_STYLE && styleId == CellBuffer.NO_STYLE) {
+            size--;
+        }
+        cols[col] = styleId;
+    }
+
+    /**
+     * Removes the style ids of every cell in the rows up to and including lastRow.
+     */
+    void clearRowsThrough(int lastRow) {
+        int end = Math.min(lastRow, rows.length - 1);
+        for (int row = firstLiveRow; row <= end; row++) {
+            int[] cols = rows[row];
+            if (cols != null) {
+                for (int styleId : cols) {
+                    if (styleId != CellBuffer.NO_STYLE) size--;
+                }
+                rows[row] = null;
+            }
+        }
+        firstLiveRow = Math.max(firstLiveRow, lastRow + 1);
+    }
+
+    /**
+     * Returns the number of cells that have a style id.
+     */
+    int size() {
+        return size;
+    }
+
+    private static int[][] grow(int[][] array, int index) {
+        int[][] grown = new int[Math.max(array.length * 2, index + 1)][];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array, int index) {
+        int[] grown = new int[Math.max(array.length * 2, index + 1)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+}
@@ -0,0 +1,136 @@
+package taro.spreadsheet.model;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An immutable rectangle of cells, given by its 0-based first and last rows and columns (inclusive). Can be
+ * parsed once from A1 notation and reused, for instance as a constant of a report template.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class CellRange {
+
+    private final int firstRow;
+    private final int lastRow;
+    private final int firstCol;
+    private final int lastCol;
+
+    public CellRange(int firstRow, int lastRow, int firstCol, int lastCol) {
+        if (firstRow < 0 || firstCol < 0 || lastRow < firstRow || lastCol < firstCol) {
+            throw new IllegalArgumentException(String.format("Invalid range: rows %d to %d, columns %d to %d",
+                    firstRow, lastRow, firstCol, lastCol));
+        }
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.firstCol = firstCol;
+        this.lastCol = lastCol;
+    }
+
+    /**
+     * Returns the range between two cells in A1 notation, such as of("A1", "C3").
+     */
+    public static CellRange of(String firstCell, String lastCell) {
+        long first = CellAddresses.parse(firstCell);
+        long last = CellAddresses.parse(lastCell);
+        return new CellRange(CellAddresses.getRow(first), CellAddresses.getRow(last),
+                CellAddresses.getCol(first), CellAddresses.getCol(last));
+    }
+
+    /**
+     * Parses a range such as "A1:C3", or a single cell such as "B2".
+     */
+    public static CellRange parse(String range) {
+        int colon = range.indexOf(':');
+        if (colon < 0) {
+            return of(range, range);
+        }
+        return of(range.substring(0, colon), range.substring(colon + 1));
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    public int getFirstCol() {
+        return firstCol;
+    }
+
+    public int getLastCol() {
+        return lastCol;
+    }
+
+    public int getNumRows() {
+        return lastRow - firstRow + 1;
+    }
+
+    public int getNumCols() {
+        return lastCol - firstCol + 1;
+    }
+
+    public long size() {
+        return (long) getNumRows() * getNumCols();
+    }
+
+    public boolean contains(int row, int col) {
+        return firstRow <= row && row <= lastRow && firstCol <= col && col <= lastCol;
+    }
+
+    /**
+     * Iterates over the cells of the range row by row, as addresses packed like CellAddresses.parse returns them.
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int row = firstRow;
+            private int col = firstCol;
+
+            @Override
+            public boolean hasNext() {
+                return row <= lastRow;
+            }
+
+            @Override
+            public long nextLong() {
+                if (row > lastRow) {
+                    throw new NoSuchElementException();
+                }
+                long packed = CellAddresses.pack(row, col);
+                if (++col > lastCol) {
+                    col = firstCol;
+                    row++;
+                }
+                return packed;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CellRange)) return false;
+
+        CellRange that = (CellRange) o;
+        return firstRow == that.firstRow && lastRow == that.lastRow && firstCol == that.firstCol && lastCol == that.lastCol;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = firstRow;
+        result = 31 * result + lastRow;
+        result = 31 * result + firstCol;
+        result = 31 * result + lastCol;
+        return result;
+    }
+
+    /**
+     * Returns the range in A1 notation, such as A1:C3.
+     */
+    @Override
+    public String toString() {
+        return SpreadsheetTab.getCellAddress(firstRow, firstCol) + ":" + SpreadsheetTab.getCellAddress(lastRow, lastCol);
+    }
+
+}
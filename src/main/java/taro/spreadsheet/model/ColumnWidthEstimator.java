@@ -0,0 +1,306 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Computes the widths autosizeCols gives the columns of a tab without laying out any text with AWT. The width of
+ * a text is the sum of the advance widths of its characters, taken from a table of the glyph widths of the cell's
+ * font that is built once per SpreadsheetFont, so measuring a cell costs a table lookup per character.
+ * <p>
+ * Like POI's autoSizeColumn, a column is as wide as its widest cell, measured in widths of the '0' of the default
+ * 11 point font: a string's longest line, or a number, date or boolean as it is formatted, plus one '0' of the
+ * cell's font and the cell's indentation. A merged cell spanning several columns counts for each of them with
+ * its width divided by the number of columns. The glyph widths are those of Arial (Helvetica), which Calibri
+ * and the other proportional sans-serif fonts follow closely, and fixed widths for fonts whose name contains
+ * "Courier" or "Mono". For text in those fonts, the widths are within 10% or one character of those of POI,
+ * whichever is larger; other fonts are measured as Arial.
+ */
+class ColumnWidthEstimator {
+
+    // advance widths of the characters ' ' to '~', in thousandths of an em, from the Helvetica AFM metrics
+    private static final short[] REGULAR = {
+            278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584, 278, 333, 278, 278,
+            556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556,
+            1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778,
+            667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 278, 278, 278, 469, 556,
+            333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833, 556, 556,
+            556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584};
+    private static final short[] BOLD = {
+            278, 333, 474, 556, 556, 889, 722, 238, 333, 333, 389, 584, 278, 333, 278, 278,
+            556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 333, 333, 584, 584, 584, 611,
+            975, 722, 722, 722, 722, 667, 611, 778, 722, 278, 556, 722, 611, 833, 722, 778,
+            667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 333, 278, 333, 584, 556,
+            333, 556, 611, 556, 611, 556, 333, 611, 611, 278, 278, 556, 278, 889, 611, 611,
+            611, 611, 389, 556, 333, 611, 556, 778, 556, 556, 500, 389, 280, 389, 584};
+    private static final int FIXED_WIDTH = 600;
+    // East Asian ideographs and full-width forms take a full em
+    private static final int WIDE_WIDTH = 1000;
+    private static final int ZERO = '0' - ' ';
+    private static final int DEFAULT_FONT_SIZE = 11;
+    private static final int MAX_WIDTH = 255 * 256;
+    // POI divides by the '0' of the default font rounded down to whole points, 5 of the 5.58 of Calibri 11,
+    // which widens its columns by this factor; kept so that the columns are as wide as POI made them
+    private static final double POI_PADDING = 5.58 / 5;
+
+    private static final GlyphWidths DEFAULT_WIDTHS = new GlyphWidths(null);
+    private static final Map<SpreadsheetFont, GlyphWidths> GLYPH_WIDTHS = new ConcurrentHashMap<SpreadsheetFont, GlyphWidths>();
+
+    private final SpreadsheetWorkbook workbook;
+    private final DataFormatter formatter = new DataFormatter();
+    // the workbook's styles by id, looked up without the workbook's lock after their first use
+    private SpreadsheetCellStyle[] styles = new SpreadsheetCellStyle[64];
+
+    ColumnWidthEstimator(SpreadsheetWorkbook workbook) {
+        this.workbook = workbook;
+    }
+
+    /**
+     * Returns the widths of the columns of the tab through lastCol, in 1/256ths of a character width, or -1 for a
+     * column without any cells. A tab of a deferred workbook is measured from its buffer.
+     */
+    int[] estimate(SpreadsheetTab tab, int lastCol) {
+        double[] widths = new double[lastCol + 1];
+        Arrays.fill(widths, -1);
+        Map<Long, CellRangeAddress> mergedRegions = getMergedRegions(tab.getSheet());
+        CellBuffer buffer = tab.getBuffer();
+        if (buffer != null) {
+            measureBuffer(buffer, widths, mergedRegions);
+        } else {
+            measureSheet(tab, widths, mergedRegions);
+        }
+
+        int[] result = new int[widths.length];
+        for (int col = 0; col < widths.length; col++) {
+            result[col] = widths[col] < 0 ? -1 : (int) Math.min(widths[col] * POI_PADDING * 256, MAX_WIDTH);
+        }
+        return result;
+    }
+
+    private void measureBuffer(CellBuffer buffer, double[] widths, Map<Long, CellRangeAddress> mergedRegions) {
+        for (int rowNum = buffer.getFlushedThroughRow() + 1; rowNum <= buffer.getLastRow(); rowNum++) {
+            CellBuffer.BufferedRow row = buffer.getRow(rowNum);
+            if (row == null) continue;
+            for (int col = 0; col <= row.lastCol; col++) {
+                String text;
+                switch (row.types[col]) {
+                    case CellBuffer.STRING:
+                        text = buffer.getString(rowNum, col);
+                        break;
+                    case CellBuffer.RICH_TEXT:
+                        text = buffer.getRichText(rowNum, col).getString();
+                        break;
+                    case CellBuffer.NUMERIC:
+                        text = formatNumber(row.numbers[col], getStyle(row.styles[col]));
+                        break;
+                    case CellBuffer.FORMULA:
+                        // a formula that has not been evaluated shows its cached result, 0
+                        text = formatNumber(0, getStyle(row.styles[col]));
+                        break;
+                    case CellBuffer.BOOLEAN:
+                        text = row.numbers[col] != 0 ? "TRUE" : "FALSE";
+                        break;
+                    default:
+                        continue;
+                }
+                measure(widths, rowNum, col, text, getStyle(row.styles[col]), mergedRegions);
+            }
+        }
+    }
+
+    private void measureSheet(SpreadsheetTab tab, double[] widths, Map<Long, CellRangeAddress> mergedRegions) {
+        for (Row row : tab.getSheet()) {
+            for (Cell cell : row) {
+                int col = cell.getColumnIndex();
+                if (col >= widths.length) continue;
+                CellType type = cell.getCellType() == CellType.FORMULA ? cell.getCachedFormulaResultType() : cell.getCellType();
+                String text;
+                switch (type) {
+                    case STRING:
+                        text = cell.getRichStringCellValue().getString();
+                        break;
+                    case NUMERIC:
+                        text = cell.getCellType() == CellType.FORMULA
+                                ? formatter.formatRawCellContents(cell.getNumericCellValue(), cell.getCellStyle().getDataFormat(), cell.getCellStyle().getDataFormatString())
+                                : formatter.formatCellValue(cell);
+                        break;
+                    case BOOLEAN:
+                        text = String.valueOf(cell.getBooleanCellValue()).toUpperCase(Locale.ROOT);
+                        break;
+                    default:
+                        continue;
+                }
+                SpreadsheetCellStyle style = getStyle(tab.getCellStyleId(row.getRowNum(), col));
+                measure(widths, row.getRowNum(), col, text, style, mergedRegions);
+            }
+        }
+    }
+
+    private SpreadsheetCellStyle getStyle(int styleId) {
+        if (styleId == CellBuffer.NO_STYLE) return null;
+        if (styleId >= styles.length) {
+            styles = Arrays.copyOf(styles, Math.max(styles.length * 2, styleId + 1));
+        }
+        SpreadsheetCellStyle style = styles[styleId];
+        if (style == null) {
+            style = workbook.getStyleById(styleId);
+            styles[styleId] = style;
+        }
+        return style;
+    }
+
+    private String formatNumber(double value, SpreadsheetCellStyle style) {
+        String format = style != null && style.getDataFormatString() != null ? style.getDataFormatString() : "General";
+        return formatter.formatRawCellContents(value, BuiltinFormats.getBuiltinFormat(format), format);
+    }
+
+    private static void measure(double[] widths, int row, int col, String text, SpreadsheetCellStyle style,
+                                Map<Long, CellRangeAddress> mergedRegions) {
+        SpreadsheetFont font = style != null ? style.getFont() : null;
+        double width = getTextWidth(text, font) + getTextWidth("0", font);
+        if (style != null && style.getIndention() != null) {
+            width += style.getIndention();
+        }
+
+        int firstCol = col;
+        int lastCol = col;
+        if (!mergedRegions.isEmpty()) {
+            CellRangeAddress region = mergedRegions.get(CellAddresses.pack(row, col));
+            if (region != null) {
+                lastCol = region.getLastColumn();
+                width /= lastCol - firstCol + 1;
+            }
+        }
+        for (int i = firstCol; i <= Math.min(lastCol, widths.length - 1); i++) {
+            widths[i] = Math.max(widths[i], width);
+        }
+    }
+
+    /**
+     * Returns the width of the widest line of the text in the font, in widths of the '0' of the default font.
+     */
+    static double getTextWidth(CharSequence text, SpreadsheetFont font) {
+        GlyphWidths glyphWidths = getGlyphWidths(font);
+        double widest = 0;
+        double width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                widest = Math.max(widest, width);
+                width = 0;
+            } else {
+                width += glyphWidths.get(c);
+            }
+        }
+        return Math.max(widest, width);
+    }
+
+    /**
+     * Returns the number of lines the text takes when it is wrapped at the given width, in widths of the '0' of
+     * the default font. Lines are broken between words, and inside a word that is wider than the width.
+     */
+    static int countWrappedLines(CharSequence text, SpreadsheetFont font, double width) {
+        GlyphWidths glyphWidths = getGlyphWidths(font);
+        double space = glyphWidths.get(' ');
+        int lines = 1;
+        double lineWidth = 0;
+        double wordWidth = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '\n';
+            if (c != ' ' && c != '\n') {
+                wordWidth += glyphWidths.get(c);
+                continue;
+            }
+            if (wordWidth > 0) {
+                double needed = lineWidth > 0 ? lineWidth + space + wordWidth : wordWidth;
+                if (needed <= width) {
+                    lineWidth = needed;
+                } else {
+                    if (lineWidth > 0) {
+                        lines++;
+                    }
+                    // a word wider than the column is broken over as many lines as it fills
+                    int wordLines = width > 0 ? (int) Math.ceil(wordWidth / width) : 1;
+                    lines += wordLines - 1;
+                    lineWidth = wordWidth - (wordLines - 1) * width;
+                }
+                wordWidth = 0;
+            }
+            if (c == '\n' && i < text.length()) {
+                lines++;
+                lineWidth = 0;
+            }
+        }
+        return lines;
+    }
+
+    private static GlyphWidths getGlyphWidths(SpreadsheetFont font) {
+        if (font == null) {
+            return DEFAULT_WIDTHS;
+        }
+        font = font.intern();
+        GlyphWidths widths = GLYPH_WIDTHS.get(font);
+        if (widths == null) {
+            widths = new GlyphWidths(font);
+            GLYPH_WIDTHS.put(font, widths);
+        }
+        return widths;
+    }
+
+    /**
+     * Keys the merged regions that span several columns by the address of their first cell.
+     */
+    private static Map<Long, CellRangeAddress> getMergedRegions(Sheet sheet) {
+        Map<Long, CellRangeAddress> regions = newHashMap();
+        for (CellRangeAddress region : sheet.getMergedRegions()) {
+            if (region.getLastColumn() > region.getFirstColumn()) {
+                regions.put(CellAddresses.pack(region.getFirstRow(), region.getFirstColumn()), region);
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * The advance widths of the characters of one font, in widths of the '0' of the default font.
+     */
+    private static class GlyphWidths {
+        private final float[] ascii = new float[128];
+        private final float other;
+        private final float wide;
+
+        GlyphWidths(SpreadsheetFont font) {
+            String name = font != null && font.getFontName() != null ? font.getFontName().toLowerCase(Locale.ROOT) : "";
+            boolean fixed = name.contains("courier") || name.contains("mono");
+            short[] widths = font != null && Boolean.TRUE.equals(font.getBold()) ? BOLD : REGULAR;
+            int size = font != null && font.getFontSizeInPoints() != null ? font.getFontSizeInPoints() : DEFAULT_FONT_SIZE;
+            float scale = (float) size / DEFAULT_FONT_SIZE / REGULAR[ZERO];
+
+            for (int c = ' '; c <= '~'; c++) {
+                ascii[c] = (fixed ? FIXED_WIDTH : widths[c - ' ']) * scale;
+            }
+            ascii['\t'] = ascii[' '];
+            // other characters are as wide as an average lowercase letter
+            other = (fixed ? FIXED_WIDTH : widths['n' - ' ']) * scale;
+            wide = WIDE_WIDTH * scale;
+        }
+
+        float get(char c) {
+            if (c < 128) return ascii[c];
+            return c >= '\u2E80' && c < '\uA000' || c >= '\uAC00' && c < '\uD7A4' || c >= '\uFF00' && c < '\uFF61'
+                    ? wide : other;
+        }
+    }
+
+}
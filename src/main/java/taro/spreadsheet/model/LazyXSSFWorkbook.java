@@ -0,0 +1,97 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheet;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An XSSFWorkbook that reads the names and order of its sheets from workbook.xml when it is opened, but only
+ * parses the XML of a sheet when parseSheet is called for it. The parts a sheet refers to, such as its drawings
+ * and comments, are still read when the workbook is opened. Writing the workbook parses the sheets that were not
+ * parsed yet, since POI writes every sheet; nothing else in POI should be used on an unparsed sheet.
+ */
+class LazyXSSFWorkbook extends XSSFWorkbook {
+
+    // XSSFWorkbook.parseSheet adds each sheet to the private list of sheets, after giving it its entry of
+    // workbook.xml and parsing it with the protected XSSFSheet.onDocumentRead; these do the same in two steps
+    private static final Field SHEETS = getField(XSSFWorkbook.class, "sheets");
+    private static final Field SHEET_ENTRY = getField(XSSFSheet.class, "sheet");
+    private static final Method READ_SHEET = getReadSheetMethod();
+
+    LazyXSSFWorkbook(OPCPackage poiPackage) throws IOException {
+        super(poiPackage);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void parseSheet(Map<String, XSSFSheet> sheetsById, CTSheet entry) {
+        XSSFSheet sheet = sheetsById.get(entry.getId());
+        if (sheet == null) {
+            // like XSSFWorkbook, skips the sheets that are named in workbook.xml but missing from the package
+            return;
+        }
+        try {
+            SHEET_ENTRY.set(sheet, entry);
+            ((List<XSSFSheet>) SHEETS.get(this)).add(sheet);
+        } catch (IllegalAccessException ex) {
+            throw new TaroSpreadsheetException("Failed to open sheet " + entry.getName(), ex);
+        }
+    }
+
+    boolean isParsed(XSSFSheet sheet) {
+        return sheet.getCTWorksheet() != null;
+    }
+
+    void parseSheet(XSSFSheet sheet) {
+        if (isParsed(sheet)) return;
+        try {
+            READ_SHEET.invoke(sheet);
+        } catch (IllegalAccessException ex) {
+            throw new TaroSpreadsheetException("Failed to parse sheet " + sheet.getSheetName(), ex);
+        } catch (InvocationTargetException ex) {
+            throw new TaroSpreadsheetException("Failed to parse sheet " + sheet.getSheetName(), ex.getCause());
+        }
+    }
+
+    void parseAllSheets() {
+        for (int index = 0; index < getNumberOfSheets(); index++) {
+            parseSheet(getSheetAt(index));
+        }
+    }
+
+    @Override
+    protected void commit() throws IOException {
+        parseAllSheets();
+        super.commit();
+    }
+
+    private static Field getField(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException(type.getSimpleName() + "." + name + " is missing from this version of POI.", ex);
+        }
+    }
+
+    private static Method getReadSheetMethod() {
+        try {
+            Method method = XSSFSheet.class.getDeclaredMethod("onDocumentRead");
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("XSSFSheet.onDocumentRead() is missing from this version of POI.", ex);
+        }
+    }
+
+}
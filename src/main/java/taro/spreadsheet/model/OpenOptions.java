@@ -0,0 +1,54 @@
+package taro.spreadsheet.model;
+
+/**
+ * Options for opening an existing workbook with the File, Path, FileChannel and InputStream constructors of
+ * SpreadsheetWorkbook. Like WriteOptions, options are immutable and each withX method returns a modified copy.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class OpenOptions {
+
+    public static final OpenOptions DEFAULT = new OpenOptions();
+    public static final OpenOptions READ_ONLY = DEFAULT.withReadOnly(true);
+
+    private boolean readOnly;
+    private boolean spillToTempFile;
+
+    public OpenOptions copy() {
+        OpenOptions copy = new OpenOptions();
+        copy.readOnly = readOnly;
+        copy.spillToTempFile = spillToTempFile;
+        return copy;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Opens the package for reading only: the workbook can still be modified in memory, but write() throws a
+     * TaroSpreadsheetException. The default is false. The file a workbook was opened from is never written to
+     * either way; write() only writes to the stream it is given.
+     */
+    public OpenOptions withReadOnly(boolean readOnly) {
+        OpenOptions copy = this.copy();
+        copy.readOnly = readOnly;
+        return copy;
+    }
+
+    public boolean isSpillToTempFile() {
+        return spillToTempFile;
+    }
+
+    /**
+     * Makes the InputStream constructor copy the stream to a temporary file and open the workbook from that file,
+     * so that its sheets are parsed as the tabs are used and it can be written with WriteOptions.withPassthrough.
+     * dispose() deletes the file. The default is false: the stream is read whole by XSSFWorkbook and nothing is
+     * kept of it.
+     */
+    public OpenOptions withSpillToTempFile(boolean spillToTempFile) {
+        OpenOptions copy = this.copy();
+        copy.spillToTempFile = spillToTempFile;
+        return copy;
+    }
+
+}
@@ -0,0 +1,136 @@
+package taro.spreadsheet.model;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.model.CalculationChain;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Writes a workbook that was opened from a file by copying the entries of that file it did not modify as they
+ * were compressed, in the order they appear in it. The sheets of the modified tabs are serialized by POI, as are
+ * the shared strings and styles if strings or styles were added, and the calculation chain if any tab was
+ * modified, since POI drops the cells it no longer holds formulas for.
+ */
+class PassthroughWriter {
+
+    private static final Method WRITE_SHEET = getWriteSheetMethod();
+
+    private final XSSFWorkbook workbook;
+    private final List<SpreadsheetTab> tabs;
+    private final SourcePackage source;
+    private final WriteOptions options;
+
+    PassthroughWriter(XSSFWorkbook workbook, List<SpreadsheetTab> tabs, SourcePackage source, WriteOptions options) {
+        this.workbook = workbook;
+        this.tabs = tabs;
+        this.source = source;
+        this.options = options;
+    }
+
+    /**
+     * Returns whether the workbook can be written from the source: it has no part the source does not have, and
+     * no part gained relationships, which POI writes in parts of their own.
+     */
+    boolean canWrite(ZipFile zipFile) {
+        for (PackagePart part : SourcePackage.getParts(workbook)) {
+            if (part.isRelationshipPart()) continue;
+            if (zipFile.getEntry(getEntryName(part)) == null || source.isRelationshipsChanged(part)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void write(ZipFile zipFile, OutputStream out) throws IOException {
+        Map<String, Object> rewritten = newHashMap();
+        boolean anyTabModified = false;
+        for (SpreadsheetTab tab : tabs) {
+            if (tab.isModified()) {
+                XSSFSheet sheet = (XSSFSheet) tab.getSheet();
+                rewritten.put(getEntryName(sheet.getPackagePart()), sheet);
+                anyTabModified = true;
+            }
+        }
+        if (source.isSharedStringsChanged(workbook.getSharedStringSource())) {
+            rewritten.put(getEntryName(workbook.getSharedStringSource().getPackagePart()), workbook.getSharedStringSource());
+        }
+        if (source.isStylesChanged(workbook.getStylesSource())) {
+            rewritten.put(getEntryName(workbook.getStylesSource().getPackagePart()), workbook.getStylesSource());
+        }
+        CalculationChain calculationChain = workbook.getCalculationChain();
+        if (calculationChain != null && anyTabModified) {
+            rewritten.put(getEntryName(calculationChain.getPackagePart()), calculationChain);
+        }
+
+        ZipPartWriter zip = new ZipPartWriter(out, options, null);
+        Set<String> written = newHashSet();
+        Enumeration<ZipArchiveEntry> entries = zipFile.getEntriesInPhysicalOrder();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            if (!written.add(entry.getName())) continue;
+            Object part = rewritten.get(entry.getName());
+            if (part == null) {
+                zip.copyRawEntry(zipFile, entry);
+                continue;
+            }
+            OutputStream partStream = zip.openPartStream(entry.getName());
+            writePart(part, partStream);
+            partStream.close();
+        }
+        zip.finish();
+        out.flush();
+    }
+
+    private static void writePart(Object part, OutputStream out) throws IOException {
+        if (part instanceof XSSFSheet) {
+            try {
+                WRITE_SHEET.invoke(part, out);
+            } catch (IllegalAccessException ex) {
+                throw new TaroSpreadsheetException("Failed to write sheet " + ((XSSFSheet) part).getSheetName(), ex);
+            } catch (InvocationTargetException ex) {
+                if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                throw new TaroSpreadsheetException("Failed to write sheet " + ((XSSFSheet) part).getSheetName(), ex.getCause());
+            }
+        } else if (part instanceof CalculationChain) {
+            ((CalculationChain) part).writeTo(out);
+        } else if (part instanceof SharedStringsTable) {
+            ((SharedStringsTable) part).writeTo(out);
+        } else {
+            ((StylesTable) part).writeTo(out);
+        }
+    }
+
+    private static String getEntryName(PackagePart part) {
+        return part.getPartName().getName().substring(1);
+    }
+
+    // XSSFSheet only writes itself into its package part, through the protected write(OutputStream) that
+    // XSSFWorkbook.write calls on every sheet
+    private static Method getWriteSheetMethod() {
+        try {
+            Method method = XSSFSheet.class.getDeclaredMethod("write", OutputStream.class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("XSSFSheet.write(OutputStream) is missing from this version of POI.", ex);
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+package taro.spreadsheet.model;
+
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes a pipelined workbook to its output stream while it is being filled. The rows of the tab being filled are
+ * serialized on the producer's thread as they leave the window, since that thread owns the tab's buffer, and the
+ * XML is handed in chunks through a bounded queue to a background thread that compresses it and writes it to
+ * the stream. When the background thread falls behind, the producer blocks on the full queue.
+ * <p>
+ * The sheets are written first, in the order the tabs are created, followed by the shared strings, the styles
+ * and the workbook parts once finish() is called.
+ * <p>
+ * The background thread is started by the constructor and only stops in finish() or abort(), so the workbook
+ * must abort the writer in dispose(), which callers call in a finally block.
+ */
+class PipelinedWriter {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int QUEUE_CAPACITY = 16;
+
+    private final SpreadsheetMLWriter mlWriter;
+    private final int windowSize;
+    private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUE_CAPACITY);
+    private final BlockingQueue<byte[]> freeChunks = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY + 2);
+    private final ExecutorService executor;
+    private final Future<Void> consumer;
+    private volatile Exception failure;
+
+    private final ChunkStream chunks = new ChunkStream();
+    private final Writer writer = ZipPartWriter.newWriter(chunks);
+    private SpreadsheetTab tab;
+    private int tabIndex = -1;
+    private boolean sheetStarted;
+    private boolean finished;
+
+    PipelinedWriter(SpreadsheetWorkbook workbook, OutputStream out, int windowSize, WriteOptions options) {
+        this.mlWriter = new SpreadsheetMLWriter(workbook, options);
+        this.windowSize = windowSize;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "taro-pipelined-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.consumer = executor.submit(new Consumer(out, options));
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Completes the sheet of the previous tab, if any, and makes the new tab the one being written.
+     */
+    void startTab(SpreadsheetTab newTab) {
+        checkNotFinished();
+        try {
+            completeSheet();
+        } catch (IOException ex) {
+            throw failed(ex);
+        }
+        tab = newTab;
+        tabIndex = mlWriter.addTab(newTab);
+        sheetStarted = false;
+    }
+
+    /**
+     * Writes the rows of the tab through the given one and drops them from its buffer.
+     */
+    void flushRows(SpreadsheetTab flushed, int throughRow) {
+        if (flushed != tab) return;
+        try {
+            writeRows(throughRow);
+        } catch (IOException ex) {
+            throw failed(ex);
+        }
+    }
+
+    /**
+     * Writes the remaining rows and parts, and waits until the background thread has written them to the stream.
+     */
+    void finish() throws IOException {
+        checkNotFinished();
+        completeSheet();
+        writePart("xl/sharedStrings.xml", Part.SHARED_STRINGS);
+        writePart("xl/styles.xml", Part.STYLES);
+        writePart("xl/workbook.xml", Part.WORKBOOK);
+        writePart("xl/_rels/workbook.xml.rels", Part.WORKBOOK_RELATIONSHIPS);
+        writePart("_rels/.rels", Part.RELATIONSHIPS);
+        writePart("[Content_Types].xml", Part.CONTENT_TYPES);
+        finished = true;
+        put(Chunk.FINISH);
+        try {
+            ZipPartWriter.get(consumer);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure != null) {
+            throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+        }
+    }
+
+    /**
+     * Stops the background thread without completing the output, for a workbook that will not be finished.
+     */
+    void abort() {
+        finished = true;
+        executor.shutdownNow();
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new TaroSpreadsheetException("The pipelined workbook has already been finished.");
+        }
+    }
+
+    private void writeRows(int throughRow) throws IOException {
+        CellBuffer buffer = tab.getBuffer();
+        int firstRow = buffer.getFlushedThroughRow() + 1;
+        if (throughRow < firstRow) return;
+        if (!sheetStarted) {
+            put(Chunk.open(SpreadsheetMLWriter.getSheetPartName(tabIndex)));
+            mlWriter.writeSheetStart(writer, tabIndex, false);
+            sheetStarted = true;
+        }
+        mlWriter.numberSharedStrings(tabIndex, firstRow, throughRow);
+        mlWriter.writeRows(writer, tabIndex, firstRow, throughRow);
+        buffer.flushRowsThrough(throughRow);
+    }
+
+    private void completeSheet() throws IOException {
+        if (tab == null) return;
+        CellBuffer buffer = tab.getBuffer();
+        writeRows(Math.max(buffer.getLastRow(), buffer.getRangeStyles().getLastRow()));
+        if (!sheetStarted) {
+            writeRows(0);
+        }
+        buffer.flushRowsThrough(Integer.MAX_VALUE - 1);
+        mlWriter.writeSheetEnd(writer, tabIndex);
+        closePart();
+        tab = null;
+    }
+
+    private enum Part { SHARED_STRINGS, STYLES, WORKBOOK, WORKBOOK_RELATIONSHIPS, RELATIONSHIPS, CONTENT_TYPES }
+
+    private void writePart(String name, Part part) throws IOException {
+        put(Chunk.open(name));
+        switch (part) {
+            case SHARED_STRINGS: mlWriter.writeSharedStrings(writer); break;
+            case STYLES: mlWriter.writeStyles(writer); break;
+            case WORKBOOK: mlWriter.writeWorkbook(writer); break;
+            case WORKBOOK_RELATIONSHIPS: mlWriter.writeWorkbookRelationships(writer); break;
+            case RELATIONSHIPS: mlWriter.writeRelationships(writer); break;
+            case CONTENT_TYPES: mlWriter.writeContentTypes(writer); break;
+        }
+        closePart();
+    }
+
+    private void closePart() throws IOException {
+        writer.flush();
+        chunks.sendChunk();
+        put(Chunk.CLOSE);
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        if (failure != null && chunk != Chunk.FINISH) {
+            throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+        }
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TaroSpreadsheetException("Interrupted while writing the pipelined workbook.", ex);
+        }
+    }
+
+    private TaroSpreadsheetException failed(IOException ex) {
+        return new TaroSpreadsheetException("Failed to write the pipelined workbook.", ex);
+    }
+
+    /**
+     * Cuts the serialized XML into chunks, reusing the chunks the background thread is done with.
+     */
+    private class ChunkStream extends OutputStream {
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int length;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) {
+                sendChunk();
+            }
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chunk.length) {
+                    sendChunk();
+                }
+                int count = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, count);
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        void sendChunk() throws IOException {
+            if (length == 0) return;
+            put(Chunk.data(chunk, length));
+            byte[] free = freeChunks.poll();
+            chunk = free != null ? free : new byte[CHUNK_SIZE];
+            length = 0;
+        }
+    }
+
+    private static class Chunk {
+        static final Chunk CLOSE = new Chunk(null, null, 0);
+        static final Chunk FINISH = new Chunk(null, null, 0);
+
+        final String openPart;
+        final byte[] data;
+        final int length;
+
+        private Chunk(String openPart, byte[] data, int length) {
+            this.openPart = openPart;
+            this.data = data;
+            this.length = length;
+        }
+
+        static Chunk open(String name) {
+            return new Chunk(name, null, 0);
+        }
+
+        static Chunk data(byte[] data, int length) {
+            return new Chunk(null, data, length);
+        }
+    }
+
+    /**
+     * Compresses the chunks and writes them to the stream. After a failure, it keeps taking the chunks so that
+     * the producer does not block, and the failure is reported to the producer instead.
+     */
+    private class Consumer implements Callable<Void> {
+        private final OutputStream out;
+        private final WriteOptions options;
+
+        Consumer(OutputStream out, WriteOptions options) {
+            this.out = out;
+            this.options = options;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            ZipPartWriter zip = new ZipPartWriter(out, options, null);
+            OutputStream part = null;
+            while (true) {
+                Chunk chunk = queue.take();
+                if (failure == null) {
+                    try {
+                        if (chunk == Chunk.FINISH) {
+                            zip.finish();
+                            out.flush();
+                        } else if (chunk == Chunk.CLOSE) {
+                            part.close();
+                            part = null;
+                            out.flush();
+                        } else if (chunk.openPart != null) {
+                            part = zip.openPartStream(chunk.openPart);
+                        } else {
+                            part.write(chunk.data, 0, chunk.length);
+                        }
+                    } catch (Exception ex) {
+                        failure = ex;
+                    }
+                }
+                if (chunk.data != null) {
+                    freeChunks.offer(chunk.data);
+                }
+                if (chunk == Chunk.FINISH) {
+                    return null;
+                }
+            }
+        }
+    }
+
+}
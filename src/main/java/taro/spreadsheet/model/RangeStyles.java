@@ -0,0 +1,235 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The rectangles styled by SpreadsheetTab.setStyle on a range of a deferred tab. Instead of creating a cell for
+ * every coordinate, each range is recorded once and the style of an empty cell is resolved from the newest
+ * rectangle covering it. Rectangles are indexed by blocks of rows; rectangles that span every row are kept apart
+ * as column bands, and rectangles that span every column are row bands, so they can be written as the default
+ * style of the column or row instead of as cells.
+ */
+class RangeStyles {
+
+    static final int LAST_ROW = SpreadsheetVersion.EXCEL2007.getLastRowIndex();
+    static final int LAST_COL = SpreadsheetVersion.EXCEL2007.getLastColumnIndex();
+
+    private static final int BLOCK_SHIFT = 8;
+
+    private int[] firstRows = new int[8];
+    private int[] lastRows = new int[8];
+    private int[] firstCols = new int[8];
+    private int[] lastCols = new int[8];
+    private int[] styleIds = new int[8];
+    private int size;
+
+    // indexes of the rectangles that are not column bands, by block of rows, in the order they were added
+    private int[][] blocks = new int[0][];
+    private int[] blockSizes = new int[0];
+    private int[] columnBands = new int[4];
+    private int columnBandCount;
+    private int lastRow = -1;
+
+    void add(int firstRow, int lastRow, int firstCol, int lastCol, int styleId) {
+        if (firstRow < 0 || firstCol < 0 || lastRow < firstRow || lastCol < firstCol) {
+            throw new IllegalArgumentException(String.format("Invalid range: rows %d to %d, columns %d to %d",
+                    firstRow, lastRow, firstCol, lastCol));
+        }
+        if (size == styleIds.length) {
+            int length = size * 2;
+            firstRows = Arrays.copyOf(firstRows, length);
+            lastRows = Arrays.copyOf(lastRows, length);
+            firstCols = Arrays.copyOf(firstCols, length);
+            lastCols = Arrays.copyOf(lastCols, length);
+            styleIds = Arrays.copyOf(styleIds, length);
+        }
+        int index = size++;
+        firstRows[index] = firstRow;
+        lastRows[index] = Math.min(lastRow, LAST_ROW);
+        firstCols[index] = firstCol;
+        lastCols[index] = Math.min(lastCol, LAST_COL);
+        styleIds[index] = styleId;
+
+        if (isColumnBand(index)) {
+            if (columnBandCount == columnBands.length) {
+                columnBands = Arrays.copyOf(columnBands, columnBandCount * 2);
+            }
+            columnBands[columnBandCount++] = index;
+            return;
+        }
+        int lastBlock = lastRows[index] >> BLOCK_SHIFT;
+        if (lastBlock >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, lastBlock + 1);
+            blockSizes = Arrays.copyOf(blockSizes, lastBlock + 1);
+        }
+        for (int block = firstRow >> BLOCK_SHIFT; block <= lastBlock; block++) {
+            if (blocks[block] == null) {
+                blocks[block] = new int[4];
+            } else if (blockSizes[block] == blocks[block].length) {
+                blocks[block] = Arrays.copyOf(blocks[block], blockSizes[block] * 2);
+            }
+            blocks[block][blockSizes[block]++] = index;
+        }
+        this.lastRow = Math.max(this.lastRow, lastRows[index]);
+    }
+
+    /**
+     * Returns a copy that can be added to without changing this one.
+     */
+    RangeStyles copy() {
+        RangeStyles copy = new RangeStyles();
+        copy.firstRows = firstRows.clone();
+        copy.lastRows = lastRows.clone();
+        copy.firstCols = firstCols.clone();
+        copy.lastCols = lastCols.clone();
+        copy.styleIds = styleIds.clone();
+        copy.size = size;
+        copy.blocks = new int[blocks.length][];
+        for (int block = 0; block < blocks.length; block++) {
+            copy.blocks[block] = blocks[block] != null ? blocks[block].clone() : null;
+        }
+        copy.blockSizes = blockSizes.clone();
+        copy.columnBands = columnBands.clone();
+        copy.columnBandCount = columnBandCount;
+        copy.lastRow = lastRow;
+        return copy;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of rectangles added so far, which changes whenever the resolved styles may have changed.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the last row covered by a rectangle that is not a column band, or -1 if there is none.
+     */
+    int getLastRow() {
+        return lastRow;
+    }
+
+    /**
+     * Returns the style id of the newest rectangle covering the cell, or NO_STYLE if there is none.
+     */
+    int getStyleId(int row, int col) {
+        return getStyleIdSince(0, row, col);
+    }
+
+    /**
+     * Like getStyleId, only considering the rectangles added once size() was since.
+     */
+    int getStyleIdSince(int since, int row, int col) {
+        int newest = -1;
+        int block = row >> BLOCK_SHIFT;
+        if (block < blocks.length) {
+            for (int i = blockSizes[block] - 1; i >= 0 && blocks[block][i] >= since; i--) {
+                int index = blocks[block][i];
+                if (contains(index, row, col)) {
+                    newest = index;
+                    break;
+                }
+            }
+        }
+        for (int i = columnBandCount - 1; i >= 0 && columnBands[i] > newest && columnBands[i] >= since; i--) {
+            if (firstCols[columnBands[i]] <= col && col <= lastCols[columnBands[i]]) {
+                newest = columnBands[i];
+                break;
+            }
+        }
+        return newest < 0 ? CellBuffer.NO_STYLE : styleIds[newest];
+    }
+
+    /**
+     * Returns the style id of the newest row band covering the row, or NO_STYLE if there is none.
+     */
+    int getRowStyleId(int row) {
+        int block = row >> BLOCK_SHIFT;
+        if (block >= blocks.length) return CellBuffer.NO_STYLE;
+        for (int i = blockSizes[block] - 1; i >= 0; i--) {
+            int index = blocks[block][i];
+            if (isRowBand(index) && firstRows[index] <= row && row <= lastRows[index]) {
+                return styleIds[index];
+            }
+        }
+        return CellBuffer.NO_STYLE;
+    }
+
+    /**
+     * Returns the style id of the newest column band covering the column, or NO_STYLE if there is none.
+     */
+    int getColumnStyleId(int col) {
+        for (int i = columnBandCount - 1; i >= 0; i--) {
+            int index = columnBands[i];
+            if (firstCols[index] <= col && col <= lastCols[index]) {
+                return styleIds[index];
+            }
+        }
+        return CellBuffer.NO_STYLE;
+    }
+
+    /**
+     * Returns the style id of every column up to the last one covered by a column band.
+     */
+    int[] getColumnStyleIds() {
+        int lastCol = -1;
+        for (int i = 0; i < columnBandCount; i++) {
+            lastCol = Math.max(lastCol, lastCols[columnBands[i]]);
+        }
+        int[] columnStyleIds = new int[lastCol + 1];
+        for (int i = 0; i < columnBandCount; i++) {
+            int index = columnBands[i];
+            Arrays.fill(columnStyleIds, firstCols[index], lastCols[index] + 1, styleIds[index]);
+        }
+        return columnStyleIds;
+    }
+
+    /**
+     * Sets in columns the empty cells of the row that need to be written with their own style, because the style
+     * resolved from the rectangles differs from the default style of their row or column.
+     */
+    void getExplicitColumns(int row, BitSet columns) {
+        columns.clear();
+        int rowStyleId = getRowStyleId(row);
+        int block = row >> BLOCK_SHIFT;
+        if (block < blocks.length) {
+            for (int i = 0; i < blockSizes[block]; i++) {
+                int index = blocks[block][i];
+                if (!isRowBand(index) && firstRows[index] <= row && row <= lastRows[index]) {
+                    columns.set(firstCols[index], lastCols[index] + 1);
+                }
+            }
+        }
+        if (rowStyleId != CellBuffer.NO_STYLE) {
+            for (int i = 0; i < columnBandCount; i++) {
+                columns.set(firstCols[columnBands[i]], lastCols[columnBands[i]] + 1);
+            }
+        }
+        for (int col = columns.nextSetBit(0); col >= 0; col = columns.nextSetBit(col + 1)) {
+            int impliedStyleId = rowStyleId != CellBuffer.NO_STYLE ? rowStyleId : getColumnStyleId(col);
+            if (getStyleId(row, col) == impliedStyleId) {
+                columns.clear(col);
+            }
+        }
+    }
+
+    private boolean contains(int index, int row, int col) {
+        return firstRows[index] <= row && row <= lastRows[index] && firstCols[index] <= col && col <= lastCols[index];
+    }
+
+    private boolean isColumnBand(int index) {
+        return firstRows[index] == 0 && lastRows[index] == LAST_ROW;
+    }
+
+    private boolean isRowBand(int index) {
+        return firstCols[index] == 0 && lastCols[index] == LAST_COL;
+    }
+
+}
@@ -0,0 +1,183 @@
+package taro.spreadsheet.model;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * A band of rows of a deferred tab that can be filled from its own thread, while other threads fill the other
+ * bands of the same tab. A band buffers its cells in its own CellBuffer and numbers the styles it uses itself,
+ * so filling it takes no lock. When the workbook is written, the bands are merged into the tab in row order and
+ * their styles are registered with the workbook in the order each band first used them, so the output is the
+ * same as if the rows had been written one band after the other on a single thread.
+ * <p>
+ * Create the bands with SpreadsheetTab.rowBand before starting the threads, and write the workbook once they
+ * are done. Cells of a band are not visible through the tab (getCell, autosizeRows) until it has been merged.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class RowBand {
+
+    private final SpreadsheetTab tab;
+    private final int firstRow;
+    private final int lastRow;
+    // indexed by the row within the band, so that it only holds the rows of the band
+    private final CellBuffer buffer;
+    // the number of range styles of the tab when the band was created; the ones added later override the band's
+    private final int rangeStylesFrom;
+
+    // the styles used by this band, in the order they were first used; the band's style id is the index + 1
+    private final List<SpreadsheetCellStyle> styles = newArrayList();
+    private final CanonicalIds styleIds = new CanonicalIds();
+
+    private int highestModifiedRow = -1;
+    private int highestModifiedCol = -1;
+    private boolean merged;
+
+    RowBand(SpreadsheetTab tab, int firstRow, int lastRow) {
+        this.tab = tab;
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.buffer = new CellBuffer(tab.getWorkbook().getXSSFWorkbook().isDate1904());
+        this.rangeStylesFrom = tab.getBuffer().getRangeStyles().size();
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    public void setValue(int row, int col, Object content) {
+        setValue(row, col, content, null);
+    }
+
+    /**
+     * Like SpreadsheetTab.setValue, for a row of this band. Throws an IllegalArgumentException for a row outside
+     * the band.
+     */
+    public void setValue(int row, int col, Object content, SpreadsheetCellStyle style) {
+        CellBuffer.BufferedRow bufferedRow = getRow(row);
+        buffer.setValue(bufferedRow, row - firstRow, col, content);
+        setStyle(bufferedRow, row, col, style);
+        recordCellModified(row, col);
+    }
+
+    public void setValue(int row, int col, CharSequence content) {
+        setValue(row, col, content, null);
+    }
+
+    public void setValue(int row, int col, CharSequence content, SpreadsheetCellStyle style) {
+        CellBuffer.BufferedRow bufferedRow = getRow(row);
+        buffer.setValue(bufferedRow, row - firstRow, col, content);
+        setStyle(bufferedRow, row, col, style);
+        recordCellModified(row, col);
+    }
+
+    public void setValue(int row, int col, double content) {
+        setValue(row, col, content, null);
+    }
+
+    public void setValue(int row, int col, double content, SpreadsheetCellStyle style) {
+        CellBuffer.BufferedRow bufferedRow = getRow(row);
+        buffer.setValue(bufferedRow, row - firstRow, col, content);
+        setStyle(bufferedRow, row, col, style);
+        recordCellModified(row, col);
+    }
+
+    public void setValue(int row, int col, long content) {
+        setValue(row, col, (double) content, null);
+    }
+
+    public void setValue(int row, int col, long content, SpreadsheetCellStyle style) {
+        setValue(row, col, (double) content, style);
+    }
+
+    public void setValue(int row, int col, boolean content) {
+        setValue(row, col, content, null);
+    }
+
+    public void setValue(int row, int col, boolean content, SpreadsheetCellStyle style) {
+        CellBuffer.BufferedRow bufferedRow = getRow(row);
+        buffer.setValue(bufferedRow, row - firstRow, col, content);
+        setStyle(bufferedRow, row, col, style);
+        recordCellModified(row, col);
+    }
+
+    public void setStyle(int row, int col, SpreadsheetCellStyle style) {
+        if (style == null) {
+            throw new IllegalArgumentException("Style must not be null");
+        }
+        setStyle(getRow(row), row, col, style);
+    }
+
+    /**
+     * In twips (1/20th of a point)
+     */
+    public void setRowHeight(int row, int twips) {
+        checkRow(row);
+        buffer.setHeight(row - firstRow, (short) twips);
+    }
+
+    private CellBuffer.BufferedRow getRow(int row) {
+        checkRow(row);
+        return buffer.getOrCreateRow(row - firstRow);
+    }
+
+    private void checkRow(int row) {
+        if (merged) {
+            throw new IllegalStateException("This row band has already been merged into its tab.");
+        }
+        if (row < firstRow || row > lastRow) {
+            throw new IllegalArgumentException(String.format("Row %d is outside of the row band %d to %d.",
+                    row, firstRow, lastRow));
+        }
+    }
+
+    private void setStyle(CellBuffer.BufferedRow bufferedRow, int row, int col, SpreadsheetCellStyle style) {
+        if (style != null) {
+            buffer.setStyleId(bufferedRow, row - firstRow, col, getStyleId(style));
+        }
+    }
+
+    private void recordCellModified(int row, int col) {
+        if (row > highestModifiedRow) {
+            highestModifiedRow = row;
+        }
+        if (col > highestModifiedCol) {
+            highestModifiedCol = col;
+        }
+    }
+
+    int getBufferRowCapacity() {
+        return buffer.getRowCapacity();
+    }
+
+    private int getStyleId(SpreadsheetCellStyle style) {
+        SpreadsheetCellStyle canonical = style.intern();
+        int id = styleIds.get(canonical);
+        if (id == CellBuffer.NO_STYLE) {
+            styles.add(canonical);
+            id = styles.size();
+            styleIds.put(canonical, id);
+        }
+        return id;
+    }
+
+    /**
+     * Registers the band's styles with the workbook and moves its rows into the tab's buffer.
+     */
+    void mergeInto(CellBuffer tabBuffer) {
+        int[] workbookStyleIds = new int[styles.size() + 1];
+        for (int i = 0; i < styles.size(); i++) {
+            workbookStyleIds[i + 1] = tab.getStyleId(styles.get(i));
+        }
+        tabBuffer.addRows(buffer, firstRow, workbookStyleIds, rangeStylesFrom);
+        if (highestModifiedRow >= 0) {
+            tab.recordCellModified(highestModifiedRow, highestModifiedCol);
+        }
+        merged = true;
+    }
+
+}
@@ -0,0 +1,144 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.RichTextString;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * The shared string table of a workbook written as SpreadsheetML. The strings are kept back to back in one char
+ * array and found through an open-addressing hash table of their ids, so a string costs its characters and a few
+ * ints rather than a String, a map entry and a boxed id. Rich texts, which are not deduplicated, take ids in the
+ * same sequence.
+ */
+class SharedStringTable {
+
+    private static final int NONE = -1;
+
+    private char[] chars = new char[1 << 12];
+    private int charCount;
+    // the start of each entry's characters; an entry ends where the next one starts
+    private int[] starts = new int[64];
+    private int[] hashes = new int[64];
+    private int size;
+
+    // id + 1 of the string in each slot, or 0 for an empty slot
+    private int[] slots = new int[128];
+    private final Map<Integer, RichTextString> richTexts = newHashMap();
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id of the string, or -1 if the table does not have it.
+     */
+    int find(String value) {
+        int hash = hash(value);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && equals(id, value)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the id of the string, adding it to the table if it does not have it yet.
+     */
+    int getId(String value) {
+        int id = find(value);
+        return id != NONE ? id : add(value, hash(value), null);
+    }
+
+    /**
+     * Adds a rich text, which always takes a new id.
+     */
+    int addRichText(RichTextString value) {
+        return add("", 0, value);
+    }
+
+    /**
+     * Returns the rich text with the given id, or null if it is a plain string.
+     */
+    RichTextString getRichText(int id) {
+        return richTexts.isEmpty() ? null : richTexts.get(id);
+    }
+
+    /**
+     * Returns a view of the characters of the plain string with the given id.
+     */
+    CharSequence getString(int id) {
+        int end = id + 1 < size ? starts[id + 1] : charCount;
+        return CharBuffer.wrap(chars, starts[id], end - starts[id]);
+    }
+
+    private int add(String value, int hash, RichTextString richText) {
+        if (size + 1 >= starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        int length = value.length();
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        value.getChars(0, length, chars, charCount);
+
+        int id = size++;
+        starts[id] = charCount;
+        hashes[id] = hash;
+        charCount += length;
+        if (richText != null) {
+            richTexts.put(id, richText);
+        }
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else if (richText == null) {
+            insert(id);
+        }
+        return id;
+    }
+
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private void rehash(int length) {
+        slots = new int[length];
+        for (int id = 0; id < size; id++) {
+            if (richTexts.isEmpty() || !richTexts.containsKey(id)) {
+                insert(id);
+            }
+        }
+    }
+
+    private boolean equals(int id, String value) {
+        int start = starts[id];
+        int end = id + 1 < size ? starts[id + 1] : charCount;
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (chars[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String value) {
+        int hash = value.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+}
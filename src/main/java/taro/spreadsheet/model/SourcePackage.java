@@ -0,0 +1,244 @@
+package taro.spreadsheet.model;
+
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.ZipPackage;
+import org.apache.poi.openxml4j.util.ZipEntrySource;
+import org.apache.poi.openxml4j.util.ZipFileZipEntrySource;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * The file a workbook was opened from, along with what the workbook looked like when it was opened: the counts of
+ * its shared strings and styles, and the relationships of its parts, which tell whether those parts need to be
+ * written again. The file is a ZIP on disk or behind a FileChannel; POI and WriteOptions.withPassthrough read its
+ * entries by their offsets, so it is never loaded whole.
+ */
+class SourcePackage {
+
+    private static final Constructor<ZipPackage> NEW_ZIP_PACKAGE = getZipPackageConstructor();
+
+    private final File file;
+    private final boolean temporary;
+    private final SeekableByteChannel channel;
+    private int sharedStringCount;
+    private int uniqueSharedStringCount;
+    private int[] styleCounts;
+    private Map<String, Integer> relationshipCounts = newHashMap();
+
+    private SourcePackage(File file, boolean temporary, SeekableByteChannel channel) {
+        this.file = file;
+        this.temporary = temporary;
+        this.channel = channel;
+    }
+
+    static SourcePackage ofFile(File file) {
+        return new SourcePackage(file, false, null);
+    }
+
+    /**
+     * Reads the package from the channel, which stays open when the workbook is disposed.
+     */
+    static SourcePackage ofChannel(FileChannel channel) {
+        return new SourcePackage(null, false, new UnclosableChannel(channel));
+    }
+
+    /**
+     * Copies the stream to a temporary file, which close() deletes.
+     */
+    static SourcePackage spill(InputStream in) throws IOException {
+        File file = File.createTempFile("taro-source", ".xlsx");
+        try {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            file.delete();
+            throw ex;
+        }
+        return new SourcePackage(file, true, null);
+    }
+
+    /**
+     * Opens the POI workbook and records its state. A package that is not read-only can be saved to a stream,
+     * but never into the source itself.
+     */
+    XSSFWorkbook openPoiWorkbook(boolean readOnly) throws IOException {
+        OPCPackage poiPackage = null;
+        try {
+            poiPackage = openPoiPackage(readOnly ? PackageAccess.READ : PackageAccess.READ_WRITE);
+            XSSFWorkbook workbook = new LazyXSSFWorkbook(poiPackage);
+            SharedStringsTable sharedStrings = workbook.getSharedStringSource();
+            sharedStringCount = sharedStrings.getCount();
+            uniqueSharedStringCount = sharedStrings.getUniqueCount();
+            styleCounts = getStyleCounts(workbook.getStylesSource());
+            for (PackagePart part : getParts(workbook)) {
+                if (!part.isRelationshipPart()) {
+                    relationshipCounts.put(part.getPartName().getName(), getRelationshipCount(part));
+                }
+            }
+            return workbook;
+        } catch (IOException | RuntimeException ex) {
+            if (poiPackage != null) {
+                poiPackage.revert();
+            }
+            close();
+            throw ex;
+        }
+    }
+
+    private OPCPackage openPoiPackage(PackageAccess access) throws IOException {
+        try {
+            if (file != null) {
+                return OPCPackage.open(file, access);
+            }
+            // OPCPackage.open only opens a ZipEntrySource for reading
+            ZipEntrySource entries = new ZipFileZipEntrySource(new ZipFile(channel));
+            return NEW_ZIP_PACKAGE.newInstance(entries, access);
+        } catch (InvalidFormatException | ReflectiveOperationException ex) {
+            throw new TaroSpreadsheetException("Failed to open the workbook package.", ex);
+        }
+    }
+
+    /**
+     * Opens the entries of the file. The caller closes the returned ZIP.
+     */
+    ZipFile open() throws IOException {
+        return file != null ? new ZipFile(file) : new ZipFile(channel);
+    }
+
+    /**
+     * Deletes the file the package was spilled to, if any.
+     */
+    void close() {
+        if (temporary) {
+            file.delete();
+        }
+    }
+
+    boolean isSharedStringsChanged(SharedStringsTable sharedStrings) {
+        return sharedStrings.getCount() != sharedStringCount || sharedStrings.getUniqueCount() != uniqueSharedStringCount;
+    }
+
+    boolean isStylesChanged(StylesTable styles) {
+        return !Arrays.equals(getStyleCounts(styles), styleCounts);
+    }
+
+    /**
+     * Returns whether the part is new, or has relationships it did not have when the workbook was opened.
+     */
+    boolean isRelationshipsChanged(PackagePart part) {
+        Integer count = relationshipCounts.get(part.getPartName().getName());
+        return count == null || count != getRelationshipCount(part);
+    }
+
+    static List<PackagePart> getParts(XSSFWorkbook workbook) {
+        try {
+            return workbook.getPackage().getParts();
+        } catch (InvalidFormatException ex) {
+            throw new TaroSpreadsheetException("Failed to read the parts of the workbook.", ex);
+        }
+    }
+
+    private static int[] getStyleCounts(StylesTable styles) {
+        return new int[]{
+                styles.getNumberFormats().size(),
+                styles.getFonts().size(),
+                styles.getFills().size(),
+                styles.getBorders().size(),
+                styles.getNumCellStyles(),
+                styles._getDXfsSize()
+        };
+    }
+
+    private static Constructor<ZipPackage> getZipPackageConstructor() {
+        try {
+            Constructor<ZipPackage> constructor = ZipPackage.class.getDeclaredConstructor(ZipEntrySource.class, PackageAccess.class);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("ZipPackage(ZipEntrySource, PackageAccess) is missing from this version of POI.", ex);
+        }
+    }
+
+    private static int getRelationshipCount(PackagePart part) {
+        try {
+            return part.getRelationships().size();
+        } catch (InvalidFormatException ex) {
+            throw new TaroSpreadsheetException("Failed to read the relationships of part " + part.getPartName(), ex);
+        }
+    }
+
+    /**
+     * A channel that commons-compress can close without closing the FileChannel it reads from. POI and the
+     * passthrough writer each open a ZipFile on the same instance, which they synchronize on to read from it.
+     */
+    private static class UnclosableChannel implements SeekableByteChannel {
+
+        private final FileChannel channel;
+
+        UnclosableChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
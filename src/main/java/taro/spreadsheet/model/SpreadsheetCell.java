@@ -1,35 +1,66 @@
 package taro.spreadsheet.model;
 
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.RichTextString;
 import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.apache.poi.xssf.usermodel.XSSFFont;
 import taro.spreadsheet.TaroSpreadsheetException;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Calendar;
 import java.util.Date;
 
 import static java.lang.String.format;
 
 
+/**
+ * A lightweight view of one cell of a tab. The tab keeps no wrapper per cell: views are created on demand by
+ * getCell and getOrCreateCell, the cell's style is kept by the tab as a workbook style id, and values are
+ * formatted with the workbook's shared DataFormatter, so a view can be dropped as soon as it has been used.
+ */
 @SuppressWarnings("UnusedDeclaration")
 public class SpreadsheetCell {
 
-    private DataFormatter dataFormatter = new DataFormatter();
-    private SpreadsheetTab tab;
-    private XSSFCell cell;
-    private SpreadsheetCellStyle style;
+    private final SpreadsheetTab tab;
+    private final Cell cell;
+    private final int row;
+    private final int col;
 
-    SpreadsheetCell(SpreadsheetTab tab, XSSFCell cell) {
+    SpreadsheetCell(SpreadsheetTab tab, Cell cell) {
         this.tab = tab;
         this.cell = cell;
+        this.row = cell.getRowIndex();
+        this.col = cell.getColumnIndex();
+    }
+
+    /**
+     * Creates a view of a cell buffered by a deferred tab, which has no POI cell until the workbook is written.
+     */
+    SpreadsheetCell(SpreadsheetTab tab, int row, int col) {
+        this.tab = tab;
+        this.cell = null;
+        this.row = row;
+        this.col = col;
     }
 
     public SpreadsheetCell setStyle(SpreadsheetCellStyle style) {
-        CellStyle cellStyle = tab.registerStyle(style);
+        if (isBuffered()) {
+            tab.getBuffer().setStyleId(row, col, tab.getStyleId(style));
+            return this;
+        }
+        return setStyle(style, tab.registerStyle(style));
+    }
+
+    /**
+     * Sets the style of a cell that has a POI cell, for callers that already registered the style.
+     */
+    SpreadsheetCell setStyle(SpreadsheetCellStyle style, CellStyle cellStyle) {
+        tab.markModified();
         cell.setCellStyle(cellStyle);
-        this.style = style;
+        tab.setCellStyleId(row, col, tab.getStyleId(style));
         return this;
     }
 
@@ -41,37 +72,36 @@ public class SpreadsheetCell {
      * change the color to red and add the red border, but leave all other stylings (such as alignment, font, etc.) alone.
      */
     public SpreadsheetCell applyStyle(SpreadsheetCellStyle toApply) {
+        SpreadsheetCellStyle style = getStyle();
         if (style == null) {
             setStyle(toApply);
         } else {
-            SpreadsheetCellStyle newStyle = style.apply(toApply);
-            setStyle(newStyle);
+            setStyle(tab.getWorkbook().composeStyle(style, toApply));
         }
         return this;
     }
 
     public SpreadsheetCell setValue(Object value) {
-        if (value == null) {
-            cell.setCellValue((String)null);
-        } else if (value instanceof String) {
-            if (((String) value).startsWith("=")) {
-                cell.setCellFormula(((String) value).substring(1));
-            } else {
-                cell.setCellValue((String)value);
-            }
+        if (value == null || value instanceof CharSequence) {
+            return setValue((CharSequence) value);
         } else if (value instanceof Number) {
-            Double num = ((Number)value).doubleValue();
-            if (num.isNaN() || num.isInfinite()) {
-                cell.setCellValue("");
-            } else {
-                cell.setCellValue(num);
-            }
-        } else if (value instanceof Date) {
+            return setValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return setValue(((Boolean) value).booleanValue());
+        }
+        if (isBuffered()) {
+            tab.getBuffer().setValue(row, col, value);
+            return this;
+        }
+        tab.markModified();
+        if (value instanceof Date) {
             cell.setCellValue((Date)value);
         } else if (value instanceof Calendar) {
             cell.setCellValue((Calendar)value);
-        } else if (value instanceof Boolean) {
-            cell.setCellValue((Boolean)value);
+        } else if (value instanceof LocalDateTime) {
+            cell.setCellValue((LocalDateTime)value);
+        } else if (value instanceof LocalDate) {
+            cell.setCellValue((LocalDate)value);
         } else if (value instanceof RichTextString) {
             cell.setCellValue((RichTextString)value);
         } else {
@@ -81,16 +111,151 @@ public class SpreadsheetCell {
         return this;
     }
 
+    /**
+     * Sets the text, or a formula if it starts with '='. A null value makes the cell blank.
+     */
+    public SpreadsheetCell setValue(CharSequence value) {
+        if (isBuffered()) {
+            CellBuffer buffer = tab.getBuffer();
+            buffer.setValue(buffer.getOrCreateRow(row), row, col, value);
+            return this;
+        }
+        tab.markModified();
+        if (value == null) {
+            cell.setCellValue((String)null);
+            return this;
+        }
+        String string = value.toString();
+        if (string.startsWith("=")) {
+            cell.setCellFormula(string.substring(1));
+        } else {
+            cell.setCellValue(string);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number without boxing it. NaN and infinity make the cell an empty string.
+     */
+    public SpreadsheetCell setValue(double value) {
+        if (isBuffered()) {
+            CellBuffer buffer = tab.getBuffer();
+            buffer.setValue(buffer.getOrCreateRow(row), row, col, value);
+            return this;
+        }
+        tab.markModified();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            cell.setCellValue("");
+        } else {
+            cell.setCellValue(value);
+        }
+        return this;
+    }
+
+    public SpreadsheetCell setValue(long value) {
+        return setValue((double) value);
+    }
+
+    public SpreadsheetCell setValue(boolean value) {
+        if (isBuffered()) {
+            CellBuffer buffer = tab.getBuffer();
+            buffer.setValue(buffer.getOrCreateRow(row), row, col, value);
+            return this;
+        }
+        tab.markModified();
+        cell.setCellValue(value);
+        return this;
+    }
+
     public String getValue() {
-        return dataFormatter.formatCellValue(cell);
+        if (isBuffered()) {
+            return getBufferedValue();
+        }
+        return tab.getWorkbook().formatCellValue(cell);
+    }
+
+    private String getBufferedValue() {
+        CellBuffer buffer = tab.getBuffer();
+        switch (buffer.getType(row, col)) {
+            case CellBuffer.NUMERIC:
+                SpreadsheetCellStyle style = getStyle();
+                if (style == null) {
+                    return tab.getWorkbook().formatRawCellContents(buffer.getNumber(row, col), 0, "General");
+                }
+                CellStyle cellStyle = tab.registerStyle(style);
+                return tab.getWorkbook().formatRawCellContents(buffer.getNumber(row, col),
+                        cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+            case CellBuffer.BOOLEAN:
+                return buffer.getNumber(row, col) != 0 ? "TRUE" : "FALSE";
+            case CellBuffer.STRING:
+            case CellBuffer.FORMULA:
+            case CellBuffer.RICH_TEXT:
+                return buffer.getString(row, col);
+            default:
+                return "";
+        }
     }
 
+    /**
+     * Returns the POI cell. Throws a TaroSpreadsheetException for a cell of a deferred tab that has changed
+     * since the workbook was last written, as its POI cell is only updated by write(), and for a cell of a
+     * streaming workbook, which is an SXSSFCell; use getPoiCellInterface for those.
+     */
     public XSSFCell getPoiCell() {
+        Cell poiCell = getPoiCellInterface();
+        if (!(poiCell instanceof XSSFCell)) {
+            throw new TaroSpreadsheetException(format("Cell %s of tab '%s' belongs to a streaming workbook and has " +
+                    "no XSSFCell; use getPoiCellInterface() instead.", SpreadsheetTab.getCellAddress(row, col),
+                    tab.getTitle()));
+        }
+        return (XSSFCell) poiCell;
+    }
+
+    /**
+     * Like getPoiCell, returning the cell as the POI interface, which is an SXSSFCell when the workbook is
+     * streaming. As the cell can be changed through it, the tab counts as modified, see
+     * WriteOptions.withPassthrough.
+     */
+    public Cell getPoiCellInterface() {
+        tab.markModified();
+        if (isBuffered()) {
+            Cell materializedCell = tab.getMaterializedPoiCell(row, col);
+            if (materializedCell != null) {
+                return materializedCell;
+            }
+            throw new TaroSpreadsheetException(format("Cell %s of tab '%s' is deferred and has no up to date POI " +
+                    "cell until the workbook is written.", SpreadsheetTab.getCellAddress(row, col), tab.getTitle()));
+        }
         return cell;
     }
 
+    CellType getCellType() {
+        if (!isBuffered()) {
+            return cell.getCellType();
+        }
+        switch (tab.getBuffer().getType(row, col)) {
+            case CellBuffer.NUMERIC: return CellType.NUMERIC;
+            case CellBuffer.STRING: return CellType.STRING;
+            case CellBuffer.RICH_TEXT: return CellType.STRING;
+            case CellBuffer.FORMULA: return CellType.FORMULA;
+            case CellBuffer.BOOLEAN: return CellType.BOOLEAN;
+            default: return CellType.BLANK;
+        }
+    }
+
+    String getStringValue() {
+        return isBuffered() ? tab.getBuffer().getString(row, col) : cell.getStringCellValue();
+    }
+
     public SpreadsheetCellStyle getStyle() {
-        return style;
+        if (isBuffered()) {
+            return tab.getWorkbook().getStyleById(tab.getBuffer().getStyleId(row, col));
+        }
+        return tab.getWorkbook().getStyleById(tab.getCellStyleId(row, col));
+    }
+
+    private boolean isBuffered() {
+        return cell == null;
     }
 
     public SpreadsheetTab getTab() {
@@ -99,6 +264,7 @@ public class SpreadsheetCell {
 
 
     public int getFontSizeInPoints() {
+        SpreadsheetCellStyle style = getStyle();
         if (style != null) {
             SpreadsheetFont font = style.getFont();
             if (font != null) {
@@ -6,10 +6,23 @@ import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
 
 import java.awt.*;
-
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable cell style. Equal styles are interned into a global table the first time they are registered with
+ * a workbook, and every style remembers its canonical instance, so registering a style that has been registered
+ * before is an identity lookup instead of a hash and a field-by-field equals. Copies share the canonical instance
+ * of the style they were copied from. The table holds its styles weakly: a canonical instance is dropped once no
+ * style, workbook or tab refers to it, and the ids of the styles are given by each workbook (see CanonicalIds).
+ */
 @SuppressWarnings("UnusedDeclaration")
 public class SpreadsheetCellStyle {
 
+    private static final Map<SpreadsheetCellStyle, WeakReference<SpreadsheetCellStyle>> CANONICAL_STYLES =
+            new WeakHashMap<SpreadsheetCellStyle, WeakReference<SpreadsheetCellStyle>>();
+
     // Colors from the excel 'styles' box on the toolbar
     public static final Color COLOR_BAD = new Color(255, 199, 206);
     public static final Color COLOR_GOOD = new Color(198, 239, 206);
@@ -46,6 +59,9 @@ public class SpreadsheetCellStyle {
     private Integer indention;
     private Integer rotation;
 
+    private int hash;
+    private volatile SpreadsheetCellStyle canonical;
+
 
     /**
      * Returns a new style that applies the given style to this one, ignoring all null fields.
@@ -54,7 +70,7 @@ public class SpreadsheetCellStyle {
      * change the color to red and add the red border, but leave all other stylings (such as alignment, font, etc.) alone.
      */
     public SpreadsheetCellStyle apply(SpreadsheetCellStyle other) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         apply(other, copy);
         return copy;
     }
@@ -86,17 +102,56 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle copy() {
+        SpreadsheetCellStyle copy = mutableCopy();
+        copy.hash = hash;
+        copy.canonical = canonical;
+        return copy;
+    }
+
+    /**
+     * Returns a copy without the cached hash and canonical instance, for the withX methods to modify.
+     */
+    private SpreadsheetCellStyle mutableCopy() {
         SpreadsheetCellStyle copy = new SpreadsheetCellStyle();
         apply(this, copy);
         return copy;
     }
 
+    /**
+     * Returns the canonical instance of this style: the first registered style equal to it. The canonical instance
+     * is the same for all equal styles, so it can be compared by identity.
+     */
+    public SpreadsheetCellStyle intern() {
+        SpreadsheetCellStyle result = canonical;
+        if (result == null) {
+            result = internStyle(this);
+            canonical = result;
+        }
+        return result;
+    }
+
+    private static synchronized SpreadsheetCellStyle internStyle(SpreadsheetCellStyle style) {
+        WeakReference<SpreadsheetCellStyle> reference = CANONICAL_STYLES.get(style);
+        SpreadsheetCellStyle result = reference != null ? reference.get() : null;
+        if (result == null) {
+            result = new SpreadsheetCellStyle();
+            result.apply(style, result);
+            if (result.font != null) {
+                result.font = result.font.intern();
+            }
+            result.hash = style.hashCode();
+            result.canonical = result;
+            CANONICAL_STYLES.put(result, new WeakReference<SpreadsheetCellStyle>(result));
+        }
+        return result;
+    }
+
     public SpreadsheetFont getFont() {
         return font;
     }
 
     public SpreadsheetCellStyle withFont(SpreadsheetFont font) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = font;
         return copy;
     }
@@ -112,7 +167,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withAlign(HorizontalAlignment align) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.align = align;
         return copy;
     }
@@ -122,7 +177,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withBackgroundColor(Color backgroundColor) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.backgroundColor = backgroundColor;
         return copy;
     }
@@ -133,7 +188,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withBold(Boolean bold) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withBold(bold);
         return copy;
     }
@@ -143,7 +198,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withBottomBorder(BorderStyle bottomBorder) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.bottomBorder = bottomBorder;
         return copy;
     }
@@ -153,7 +208,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withBottomBorderColor(Color bottomBorderColor) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.bottomBorderColor = bottomBorderColor;
         return copy;
     }
@@ -163,7 +218,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withDataFormatString(String dataFormatString) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.dataFormatString = dataFormatString;
         return copy;
     }
@@ -174,7 +229,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withFontName(String fontName) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withFontName(fontName);
         return copy;
     }
@@ -185,7 +240,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withFontOffset(Integer fontOffset) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withFontOffset(fontOffset);
         return copy;
     }
@@ -196,7 +251,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withFontSizeInPoints(Integer fontSizeInPoints) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withFontSizeInPoints(fontSizeInPoints);
         return copy;
     }
@@ -206,7 +261,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withHidden(Boolean hidden) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.hidden = hidden;
         return copy;
     }
@@ -217,7 +272,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withItalic(Boolean italic) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withItalic(italic);
         return copy;
     }
@@ -227,7 +282,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withLeftBorder(BorderStyle leftBorder) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.leftBorder = leftBorder;
         return copy;
     }
@@ -237,7 +292,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withLeftBorderColor(Color leftBorderColor) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.leftBorderColor = leftBorderColor;
         return copy;
     }
@@ -251,7 +306,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withLocked(Boolean locked) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.locked = locked;
         return copy;
     }
@@ -261,7 +316,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withRightBorder(BorderStyle rightBorder) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.rightBorder = rightBorder;
         return copy;
     }
@@ -271,7 +326,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withRightBorderColor(Color rightBorderColor) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.rightBorderColor = rightBorderColor;
         return copy;
     }
@@ -282,7 +337,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withStrikeout(Boolean strikeout) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withStrikeout(strikeout);
         return copy;
     }
@@ -292,7 +347,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withTopBorder(BorderStyle topBorder) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.topBorder = topBorder;
         return copy;
     }
@@ -302,7 +357,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withTopBorderColor(Color topBorderColor) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.topBorderColor = topBorderColor;
         return copy;
     }
@@ -313,7 +368,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withUnderline(boolean underline) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withUnderline(underline);
         return copy;
     }
@@ -324,7 +379,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withDoubleUnderline(boolean doubleUnderline) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.font = getOrCreateFont().withDoubleUnderline(doubleUnderline);
         return copy;
     }
@@ -334,7 +389,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withVerticalAlign(VerticalAlignment verticalAlign) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.verticalAlign = verticalAlign;
         return copy;
     }
@@ -344,7 +399,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withWrapText(Boolean wrapText) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.wrapText = wrapText;
         return copy;
     }
@@ -354,7 +409,7 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withIndention(Integer indention) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.indention = indention;
         return copy;
     }
@@ -364,13 +419,13 @@ public class SpreadsheetCellStyle {
     }
 
     public SpreadsheetCellStyle withRotation(Integer rotation) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         copy.rotation = rotation;
         return copy;
     }
 
     public SpreadsheetCellStyle withNumDecimals(int numDecimals) {
-        SpreadsheetCellStyle copy = this.copy();
+        SpreadsheetCellStyle copy = this.mutableCopy();
         String dataFormat;
         if (numDecimals < 1) {
             dataFormat = "0";
@@ -388,6 +443,9 @@ public class SpreadsheetCellStyle {
 
         SpreadsheetCellStyle that = (SpreadsheetCellStyle) o;
 
+        if (canonical != null && that.canonical != null) return canonical == that.canonical;
+        if (hashCode() != that.hashCode()) return false;
+
         if (align != null ? !align.equals(that.align) : that.align != null) return false;
         if (backgroundColor != null ? !backgroundColor.equals(that.backgroundColor) : that.backgroundColor != null)
             return false;
@@ -419,6 +477,7 @@ public class SpreadsheetCellStyle {
 
     @Override
     public int hashCode() {
+        if (hash != 0) return hash;
         int result = font != null ? font.hashCode() : 0;
         result = 31 * result + (align != null ? align.hashCode() : 0);
         result = 31 * result + (verticalAlign != null ? verticalAlign.hashCode() : 0);
@@ -437,6 +496,7 @@ public class SpreadsheetCellStyle {
         result = 31 * result + (wrapText != null ? wrapText.hashCode() : 0);
         result = 31 * result + (indention != null ? indention.hashCode() : 0);
         result = 31 * result + (rotation != null ? rotation.hashCode() : 0);
+        hash = result;
         return result;
     }
 
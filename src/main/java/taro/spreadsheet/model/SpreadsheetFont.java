@@ -1,7 +1,18 @@
 package taro.spreadsheet.model;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable font. Like SpreadsheetCellStyle, equal fonts are interned into a global table that holds them
+ * weakly when they are first registered with a workbook.
+ */
 public class SpreadsheetFont {
 
+    private static final Map<SpreadsheetFont, WeakReference<SpreadsheetFont>> CANONICAL_FONTS =
+            new WeakHashMap<SpreadsheetFont, WeakReference<SpreadsheetFont>>();
+
     private String fontName;
     private Integer fontOffset;
     private Boolean bold;
@@ -11,14 +22,52 @@ public class SpreadsheetFont {
     private Boolean strikeout;
     private Integer sizeInPoints;
 
+    private int hash;
+    private volatile SpreadsheetFont canonical;
+
     public SpreadsheetFont copy() {
+        SpreadsheetFont copy = mutableCopy();
+        copy.hash = hash;
+        copy.canonical = canonical;
+        return copy;
+    }
+
+    /**
+     * Returns a copy without the cached hash and canonical instance, for the withX methods to modify.
+     */
+    private SpreadsheetFont mutableCopy() {
         SpreadsheetFont copy = new SpreadsheetFont();
         apply(this, copy);
         return copy;
     }
 
+    /**
+     * Returns the canonical instance of this font: the first registered font equal to it.
+     */
+    public SpreadsheetFont intern() {
+        SpreadsheetFont result = canonical;
+        if (result == null) {
+            result = internFont(this);
+            canonical = result;
+        }
+        return result;
+    }
+
+    private static synchronized SpreadsheetFont internFont(SpreadsheetFont font) {
+        WeakReference<SpreadsheetFont> reference = CANONICAL_FONTS.get(font);
+        SpreadsheetFont result = reference != null ? reference.get() : null;
+        if (result == null) {
+            result = new SpreadsheetFont();
+            result.apply(font, result);
+            result.hash = font.hashCode();
+            result.canonical = result;
+            CANONICAL_FONTS.put(result, new WeakReference<SpreadsheetFont>(result));
+        }
+        return result;
+    }
+
     public SpreadsheetFont apply(SpreadsheetFont other) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         if (other != null) {
             apply(other, copy);
         }
@@ -41,7 +90,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withFontName(String fontName) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.fontName = fontName;
         return copy;
     }
@@ -51,7 +100,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withFontOffset(Integer fontOffset) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.fontOffset = fontOffset;
         return copy;
     }
@@ -61,7 +110,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withBold(Boolean bold) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.bold = bold;
         return copy;
     }
@@ -71,7 +120,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withDoubleUnderline(Boolean doubleUnderline) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.doubleUnderline = doubleUnderline;
         copy.underline = null;
         return copy;
@@ -82,7 +131,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withFontSizeInPoints(Integer heightInPoints) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.sizeInPoints = heightInPoints;
         return copy;
     }
@@ -92,7 +141,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withItalic(Boolean italic) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.italic = italic;
         return copy;
     }
@@ -102,7 +151,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withStrikeout(Boolean strikeout) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.strikeout = strikeout;
         return copy;
     }
@@ -112,7 +161,7 @@ public class SpreadsheetFont {
     }
 
     public SpreadsheetFont withUnderline(boolean underline) {
-        SpreadsheetFont copy = this.copy();
+        SpreadsheetFont copy = this.mutableCopy();
         copy.underline = underline;
         copy.doubleUnderline = null;
         return copy;
@@ -125,6 +174,9 @@ public class SpreadsheetFont {
 
         SpreadsheetFont that = (SpreadsheetFont) o;
 
+        if (canonical != null && that.canonical != null) return canonical == that.canonical;
+        if (hashCode() != that.hashCode()) return false;
+
         if (bold != null ? !bold.equals(that.bold) : that.bold != null) return false;
         if (doubleUnderline != null ? !doubleUnderline.equals(that.doubleUnderline) : that.doubleUnderline != null)
             return false;
@@ -140,6 +192,7 @@ public class SpreadsheetFont {
 
     @Override
     public int hashCode() {
+        if (hash != 0) return hash;
         int result = fontName != null ? fontName.hashCode() : 0;
         result = 31 * result + (fontOffset != null ? fontOffset.hashCode() : 0);
         result = 31 * result + (bold != null ? bold.hashCode() : 0);
@@ -148,6 +201,7 @@ public class SpreadsheetFont {
         result = 31 * result + (doubleUnderline != null ? doubleUnderline.hashCode() : 0);
         result = 31 * result + (strikeout != null ? strikeout.hashCode() : 0);
         result = 31 * result + (sizeInPoints != null ? sizeInPoints.hashCode() : 0);
+        hash = result;
         return result;
     }
 
@@ -0,0 +1,895 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCol;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCols;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheetFormatPr;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheetView;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheetViews;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import javax.xml.namespace.QName;
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.lang.String.format;
+
+/**
+ * Writes a deferred workbook straight to SpreadsheetML, streaming the XML of each part into a ZIP entry
+ * without building POI's XSSF object model. Cell values and styles come from the tabs' CellBuffers, styles
+ * and fonts from the workbook's registered SpreadsheetCellStyles, and merged regions, column widths and the
+ * default row height from the (row-less) POI sheets.
+ * <p>
+ * The shared strings are numbered in a first pass over the tabs, so that the sheets can then be written
+ * independently of each other: with a parallelism above 1, each sheet is serialized and deflated on a worker
+ * thread, and the finished entries are copied into the output in order. With a deflate block size as well, the
+ * sheets are serialized in order and their blocks are deflated on the workers instead (see ZipPartWriter).
+ */
+class SpreadsheetMLWriter {
+
+    static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String DEFAULT_FONT_NAME = "Calibri";
+    private static final int DEFAULT_FONT_SIZE = 11;
+    private static final int FIRST_CUSTOM_NUM_FMT = 164;
+    private static volatile String[] COL_NAMES = new String[0];
+
+    private final SpreadsheetWorkbook workbook;
+    private final WriteOptions options;
+    private final List<SpreadsheetTab> tabs = newArrayList();
+
+    private final SharedStringTable sharedStrings = new SharedStringTable();
+    private int sharedStringCount;
+    private final List<TabStrings> tabStrings = newArrayList();
+
+    SpreadsheetMLWriter(SpreadsheetWorkbook workbook, WriteOptions options) {
+        this.workbook = workbook;
+        this.options = options;
+        for (int index = 0; index < workbook.getXSSFWorkbook().getNumberOfSheets(); index++) {
+            SpreadsheetTab tab = workbook.getTab(index);
+            if (tab == null || !tab.isDeferred()) {
+                throw new TaroSpreadsheetException(format("Sheet %d is not a deferred tab; only deferred workbooks " +
+                        "can be written as SpreadsheetML.", index));
+            }
+            addTab(tab);
+        }
+    }
+
+    /**
+     * Adds the next sheet of the workbook, and returns its index.
+     */
+    int addTab(SpreadsheetTab tab) {
+        if (tab.hasPictures()) {
+            throw new TaroSpreadsheetException(format("Tab '%s' has pictures, which the SpreadsheetML engine " +
+                    "does not support.", tab.getTitle()));
+        }
+        tabs.add(tab);
+        tabStrings.add(new TabStrings(options.getSharedStrings()));
+        return tabs.size() - 1;
+    }
+
+    void write(OutputStream out) throws IOException {
+        numberSharedStrings();
+        ExecutorService executor = null;
+        List<Future<ZipPartWriter.Part>> sheets = newArrayList();
+        int parallelism = options.getParallelism();
+        if (parallelism > 1 && options.getDeflateBlockSize() > 0) {
+            executor = Executors.newFixedThreadPool(parallelism);
+        } else if (parallelism > 1 && tabs.size() > 1) {
+            executor = Executors.newFixedThreadPool(Math.min(parallelism, tabs.size()));
+            for (int index = 0; index < tabs.size(); index++) {
+                sheets.add(executor.submit(new SheetTask(index)));
+            }
+        }
+        try {
+            write(new ZipPartWriter(out, options, executor), sheets);
+            out.flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void write(ZipPartWriter zip, List<Future<ZipPartWriter.Part>> sheets) throws IOException {
+        Writer writer = zip.openPart("[Content_Types].xml");
+        writeContentTypes(writer);
+        writer.close();
+
+        writer = zip.openPart("_rels/.rels");
+        writeRelationships(writer);
+        writer.close();
+
+        writer = zip.openPart("xl/workbook.xml");
+        writeWorkbook(writer);
+        writer.close();
+
+        writer = zip.openPart("xl/_rels/workbook.xml.rels");
+        writeWorkbookRelationships(writer);
+        writer.close();
+
+        for (int index = 0; index < tabs.size(); index++) {
+            if (sheets.isEmpty()) {
+                writer = zip.openPart(getSheetPartName(index));
+                writeSheet(writer, index);
+                writer.close();
+            } else {
+                zip.addPart(ZipPartWriter.get(sheets.get(index)));
+            }
+        }
+
+        writer = zip.openPart("xl/sharedStrings.xml");
+        writeSharedStrings(writer);
+        writer.close();
+
+        writer = zip.openPart("xl/styles.xml");
+        writeStyles(writer);
+        writer.close();
+
+        zip.finish();
+    }
+
+    static String getSheetPartName(int index) {
+        return "xl/worksheets/sheet" + (index + 1) + ".xml";
+    }
+
+    /**
+     * Serializes and compresses one sheet in memory, on a worker thread.
+     */
+    private class SheetTask implements Callable<ZipPartWriter.Part> {
+        private final int index;
+
+        SheetTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public ZipPartWriter.Part call() throws IOException {
+            ZipPartWriter.Part part = ZipPartWriter.newDetachedPart(getSheetPartName(index), options);
+            Writer writer = ZipPartWriter.newWriter(part);
+            writeSheet(writer, index);
+            writer.close();
+            return part;
+        }
+    }
+
+    void writeContentTypes(Writer writer) throws IOException {
+        writer.write(XML_HEADER);
+        writer.write("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        for (int index = 0; index < tabs.size(); index++) {
+            writer.write("<Override PartName=\"/xl/worksheets/sheet" + (index + 1)
+                    + ".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        writer.write("</Types>");
+    }
+
+    void writeRelationships(Writer writer) throws IOException {
+        writer.write(XML_HEADER);
+        writer.write("<Relationships xmlns=\"" + PACKAGE_REL_NS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + REL_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+    }
+
+    void writeWorkbook(Writer writer) throws IOException {
+        writer.write(XML_HEADER);
+        writer.write("<workbook xmlns=\"" + MAIN_NS + "\" xmlns:r=\"" + REL_NS + "\">");
+        writer.write("<bookViews><workbookView activeTab=\"0\"/></bookViews><sheets>");
+        for (int index = 0; index < tabs.size(); index++) {
+            writer.write("<sheet name=\"");
+            writeEscaped(writer, tabs.get(index).getTitle(), true);
+            writer.write("\" sheetId=\"" + (index + 1) + "\" r:id=\"rId" + (index + 3) + "\"/>");
+        }
+        writer.write("</sheets></workbook>");
+    }
+
+    void writeWorkbookRelationships(Writer writer) throws IOException {
+        writer.write(XML_HEADER);
+        writer.write("<Relationships xmlns=\"" + PACKAGE_REL_NS + "\">");
+        writer.write("<Relationship Id=\"rId1\" Type=\"" + REL_NS + "/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+        writer.write("<Relationship Id=\"rId2\" Type=\"" + REL_NS + "/styles\" Target=\"styles.xml\"/>");
+        for (int index = 0; index < tabs.size(); index++) {
+            writer.write("<Relationship Id=\"rId" + (index + 3) + "\" Type=\"" + REL_NS
+                    + "/worksheet\" Target=\"worksheets/sheet" + (index + 1) + ".xml\"/>");
+        }
+        writer.write("</Relationships>");
+    }
+
+    /**
+     * Gives each string and rich text of the tabs its shared string id, in the order the sheets use them, so that
+     * the sheets can be written in any order, or at the same time.
+     */
+    private void numberSharedStrings() {
+        for (int index = 0; index < tabs.size(); index++) {
+            numberSharedStrings(index, 0, tabs.get(index).getBuffer().getLastRow());
+        }
+    }
+
+    /**
+     * Gives the strings and rich texts of the given rows of a tab that are new to the package their shared
+     * string ids, unless they are written inline. The rows of a tab must be numbered in order.
+     */
+    void numberSharedStrings(int index, int firstRow, int lastRow) {
+        CellBuffer buffer = tabs.get(index).getBuffer();
+        TabStrings strings = tabStrings.get(index);
+        strings.ensureCapacity(buffer.getStringCount(), buffer.getRichTextCount());
+        int[] stringIds = strings.stringIds;
+        int maxSharedStrings = options.getMaxSharedStrings();
+        for (int rowNum = firstRow; rowNum <= lastRow; rowNum++) {
+            CellBuffer.BufferedRow row = buffer.getRow(rowNum);
+            if (row == null) continue;
+            for (int col = 0; col <= row.lastCol; col++) {
+                if (row.types[col] == CellBuffer.STRING) {
+                    if (strings.isInline(rowNum, col)) continue;
+                    int ref = row.refs[col];
+                    boolean isNew = stringIds[ref] == -1;
+                    if (isNew) {
+                        String value = buffer.getString(rowNum, col);
+                        if (maxSharedStrings == 0 || sharedStrings.size() < maxSharedStrings) {
+                            stringIds[ref] = sharedStrings.getId(value);
+                        } else {
+                            stringIds[ref] = sharedStrings.find(value);
+                        }
+                    }
+                    if (stringIds[ref] != -1) {
+                        sharedStringCount++;
+                    }
+                    strings.sample(rowNum, col, isNew);
+                } else if (row.types[col] == CellBuffer.RICH_TEXT) {
+                    sharedStringCount++;
+                    strings.richTextIds[row.refs[col]] = sharedStrings.addRichText(buffer.getRichText(rowNum, col));
+                }
+            }
+        }
+    }
+
+    /**
+     * How the strings of a tab are written: the shared string id of each string and rich text of the tab's
+     * buffer, by its ref (-1 for a string written inline), and the row from which each column is written inline.
+     */
+    private static class TabStrings {
+        // strings sampled per column before deciding, and how many of them must be new to switch to inline
+        private static final int SAMPLE_SIZE = 256;
+        private static final int INLINE_THRESHOLD = SAMPLE_SIZE / 2;
+
+        private final WriteOptions.SharedStrings policy;
+        int[] stringIds = new int[0];
+        int[] richTextIds = new int[0];
+        private int[] inlineFromRow = new int[0];
+        private int[] sampled = new int[0];
+        private int[] sampledNew = new int[0];
+
+        TabStrings(WriteOptions.SharedStrings policy) {
+            this.policy = policy;
+        }
+
+        void ensureCapacity(int stringCount, int richTextCount) {
+            if (stringIds.length < stringCount) {
+                int length = stringIds.length;
+                stringIds = Arrays.copyOf(stringIds, Math.max(length * 2, stringCount));
+                Arrays.fill(stringIds, length, stringIds.length, -1);
+            }
+            if (richTextIds.length < richTextCount) {
+                richTextIds = Arrays.copyOf(richTextIds, Math.max(richTextIds.length * 2, richTextCount));
+            }
+        }
+
+        boolean isInline(int row, int col) {
+            if (policy == WriteOptions.SharedStrings.INLINE) return true;
+            return col < inlineFromRow.length && row >= inlineFromRow[col];
+        }
+
+        /**
+         * Records a string of the column that was shared; with the AUTO policy, once enough strings of the column
+         * have been seen, the following rows are written inline if most of them were new.
+         */
+        void sample(int row, int col, boolean isNew) {
+            if (policy != WriteOptions.SharedStrings.AUTO) return;
+            if (col >= sampled.length) {
+                int length = Math.max(sampled.length * 2, col + 1);
+                sampled = Arrays.copyOf(sampled, length);
+                sampledNew = Arrays.copyOf(sampledNew, length);
+                int previous = inlineFromRow.length;
+                inlineFromRow = Arrays.copyOf(inlineFromRow, length);
+                Arrays.fill(inlineFromRow, previous, length, Integer.MAX_VALUE);
+            }
+            if (sampled[col] == SAMPLE_SIZE) return;
+            sampled[col]++;
+            if (isNew) {
+                sampledNew[col]++;
+            }
+            if (sampled[col] == SAMPLE_SIZE && sampledNew[col] > INLINE_THRESHOLD) {
+                inlineFromRow[col] = row + 1;
+            }
+        }
+    }
+
+    private void writeSheet(Writer writer, int index) throws IOException {
+        writeSheetStart(writer, index, true);
+        CellBuffer buffer = tabs.get(index).getBuffer();
+        writeRows(writer, index, 0, Math.max(buffer.getLastRow(), buffer.getRangeStyles().getLastRow()));
+        writeSheetEnd(writer, index);
+    }
+
+    /**
+     * Writes the part of a sheet that comes before its rows. The column widths and styles are taken as they are
+     * now. The dimension (the range of the used cells) is optional, and can only be given once all the rows of
+     * the sheet are known.
+     */
+    void writeSheetStart(Writer writer, int index, boolean withDimension) throws IOException {
+        SpreadsheetTab tab = tabs.get(index);
+        XSSFSheet sheet = (XSSFSheet) tab.getSheet();
+        CellBuffer buffer = tab.getBuffer();
+        boolean selected = index == 0;
+
+        writer.write(XML_HEADER);
+        writer.write("<worksheet xmlns=\"" + MAIN_NS + "\" xmlns:r=\"" + REL_NS + "\">");
+        if (withDimension) {
+            writer.write("<dimension ref=\"" + getDimension(buffer) + "\"/>");
+        }
+        writeSheetViews(writer, sheet, selected);
+        writeSheetFormat(writer, sheet);
+        writeCols(writer, sheet, buffer.getRangeStyles());
+        writer.write("<sheetData>");
+    }
+
+    /**
+     * Writes the rows from firstRow to lastRow of a sheet, whose shared strings must have been numbered.
+     */
+    void writeRows(Writer writer, int index, int firstRow, int lastRow) throws IOException {
+        CellBuffer buffer = tabs.get(index).getBuffer();
+        TabStrings strings = tabStrings.get(index);
+        RangeStyles rangeStyles = buffer.getRangeStyles();
+        BitSet rangeColumns = new BitSet();
+        String[] colNames = new String[0];
+        for (int rowNum = firstRow; rowNum <= lastRow; rowNum++) {
+            CellBuffer.BufferedRow row = buffer.getRow(rowNum);
+            int rowStyleId = rangeStyles.getRowStyleId(rowNum);
+            rangeStyles.getExplicitColumns(rowNum, rangeColumns);
+            if (row == null && rowStyleId == CellBuffer.NO_STYLE && rangeColumns.isEmpty()) continue;
+
+            int lastCol = Math.max(row != null ? row.lastCol : -1, rangeColumns.length() - 1);
+            if (lastCol >= colNames.length) {
+                colNames = getColNames(lastCol + 1);
+            }
+            writeRow(writer, buffer, row, rowNum, rowStyleId, rangeColumns, lastCol, colNames, strings);
+        }
+    }
+
+    /**
+     * Writes the part of a sheet that comes after its rows.
+     */
+    void writeSheetEnd(Writer writer, int index) throws IOException {
+        XSSFSheet sheet = (XSSFSheet) tabs.get(index).getSheet();
+        writer.write("</sheetData>");
+
+        List<CellRangeAddress> mergedRegions = sheet.getMergedRegions();
+        if (!mergedRegions.isEmpty()) {
+            writer.write("<mergeCells count=\"" + mergedRegions.size() + "\">");
+            for (CellRangeAddress region : mergedRegions) {
+                writer.write("<mergeCell ref=\"" + region.formatAsString() + "\"/>");
+            }
+            writer.write("</mergeCells>");
+        }
+        writer.write("<pageMargins left=\"0.7\" right=\"0.7\" top=\"0.75\" bottom=\"0.75\" header=\"0.3\" footer=\"0.3\"/>");
+        writer.write("</worksheet>");
+    }
+
+    /**
+     * Writes the buffered cells of the row, which may be null, and the empty cells in rangeColumns with the style
+     * of the range covering them. Strings are written as the shared string ids given to their refs, or inline.
+     */
+    private void writeRow(Writer writer, CellBuffer buffer, CellBuffer.BufferedRow row, int rowNum, int rowStyleId,
+                          BitSet rangeColumns, int lastCol, String[] colNames, TabStrings strings)
+            throws IOException {
+        String rowRef = Integer.toString(rowNum + 1);
+        writer.write("<row r=\"");
+        writer.write(rowRef);
+        if (row != null && row.height != CellBuffer.DEFAULT_HEIGHT) {
+            writer.write("\" ht=\"" + (row.height / 20d) + "\" customHeight=\"1");
+        }
+        if (rowStyleId != CellBuffer.NO_STYLE) {
+            writer.write("\" s=\"" + rowStyleId + "\" customFormat=\"1");
+        }
+        writer.write("\">");
+        for (int col = 0; col <= lastCol; col++) {
+            byte type = row != null && col <= row.lastCol ? row.types[col] : CellBuffer.NONE;
+            if (type == CellBuffer.NONE) {
+                if (rangeColumns.get(col)) {
+                    writer.write("<c r=\"");
+                    writer.write(colNames[col]);
+                    writer.write(rowRef);
+                    writer.write("\" s=\"");
+                    writer.write(Integer.toString(buffer.getRangeStyles().getStyleId(rowNum, col)));
+                    writer.write("\"/>");
+                }
+                continue;
+            }
+
+            writer.write("<c r=\"");
+            writer.write(colNames[col]);
+            writer.write(rowRef);
+            writer.write('"');
+            if (row.styles[col] != CellBuffer.NO_STYLE) {
+                writer.write(" s=\"");
+                writer.write(Integer.toString(row.styles[col]));
+                writer.write('"');
+            }
+            switch (type) {
+                case CellBuffer.NUMERIC:
+                    writer.write("><v>");
+                    writer.write(String.valueOf(row.numbers[col]));
+                    writer.write("</v></c>");
+                    break;
+                case CellBuffer.STRING:
+                    int stringId = strings.isInline(rowNum, col) ? -1 : strings.stringIds[row.refs[col]];
+                    if (stringId == -1) {
+                        writer.write(" t=\"inlineStr\"><is>");
+                        writeText(writer, buffer.getString(rowNum, col));
+                        writer.write("</is></c>");
+                    } else {
+                        writer.write(" t=\"s\"><v>");
+                        writer.write(Integer.toString(stringId));
+                        writer.write("</v></c>");
+                    }
+                    break;
+                case CellBuffer.RICH_TEXT:
+                    writer.write(" t=\"s\"><v>");
+                    writer.write(Integer.toString(strings.richTextIds[row.refs[col]]));
+                    writer.write("</v></c>");
+                    break;
+                case CellBuffer.FORMULA:
+                    writer.write("><f>");
+                    writeEscaped(writer, buffer.getString(rowNum, col), false);
+                    writer.write("</f></c>");
+                    break;
+                case CellBuffer.BOOLEAN:
+                    writer.write(" t=\"b\"><v>");
+                    writer.write(row.numbers[col] != 0 ? "1" : "0");
+                    writer.write("</v></c>");
+                    break;
+                default:
+                    writer.write("/>");
+            }
+        }
+        writer.write("</row>");
+    }
+
+    private String getDimension(CellBuffer buffer) {
+        int firstRow = -1;
+        int firstCol = Integer.MAX_VALUE;
+        int lastCol = -1;
+        for (int rowNum = 0; rowNum <= buffer.getLastRow(); rowNum++) {
+            CellBuffer.BufferedRow row = buffer.getRow(rowNum);
+            if (row == null || row.lastCol < 0) continue;
+            if (firstRow == -1) firstRow = rowNum;
+            lastCol = Math.max(lastCol, row.lastCol);
+            for (int col = 0; col < firstCol && col <= row.lastCol; col++) {
+                if (row.types[col] != CellBuffer.NONE) {
+                    firstCol = col;
+                    break;
+                }
+            }
+        }
+        if (firstRow == -1) {
+            return "A1";
+        }
+        return new CellRangeAddress(firstRow, buffer.getLastRow(), firstCol, lastCol).formatAsString();
+    }
+
+    private void writeSheetFormat(Writer writer, XSSFSheet sheet) throws IOException {
+        CTSheetFormatPr format = sheet.getCTWorksheet().getSheetFormatPr();
+        writer.write("<sheetFormatPr");
+        if (format != null && format.isSetBaseColWidth()) {
+            writer.write(" baseColWidth=\"" + format.getBaseColWidth() + "\"");
+        }
+        if (format != null && format.isSetDefaultColWidth()) {
+            writer.write(" defaultColWidth=\"" + format.getDefaultColWidth() + "\"");
+        }
+        writer.write(" defaultRowHeight=\"" + (double) sheet.getDefaultRowHeightInPoints() + "\"/>");
+    }
+
+    /**
+     * Writes the column widths of the POI sheet together with the column styles of the range styles. The style
+     * of a POI column is ignored, as it refers to the POI style table rather than to the registered style ids.
+     */
+    private void writeCols(Writer writer, XSSFSheet sheet, RangeStyles rangeStyles) throws IOException {
+        List<CTCol> ctCols = newArrayList();
+        for (CTCols cols : sheet.getCTWorksheet().getColsList()) {
+            ctCols.addAll(cols.getColList());
+        }
+        int[] columnStyleIds = rangeStyles.getColumnStyleIds();
+
+        StringBuilder cols = new StringBuilder();
+        if (columnStyleIds.length == 0) {
+            for (CTCol col : ctCols) {
+                appendCol(cols, col, col.getMin(), col.getMax(), CellBuffer.NO_STYLE);
+            }
+        } else {
+            // split the POI columns wherever the column style changes
+            CTCol[] ctColsByIndex = new CTCol[columnStyleIds.length];
+            int lastCol = columnStyleIds.length;
+            for (CTCol col : ctCols) {
+                lastCol = (int) Math.max(lastCol, col.getMax());
+                for (long index = col.getMin(); index <= Math.min(col.getMax(), columnStyleIds.length); index++) {
+                    ctColsByIndex[(int) index - 1] = col;
+                }
+            }
+            int runStart = 1;
+            CTCol runCol = getCtCol(ctColsByIndex, ctCols, 1);
+            int runStyleId = getColumnStyleId(columnStyleIds, 1);
+            for (int index = 2; index <= lastCol + 1; index++) {
+                CTCol col = index <= lastCol ? getCtCol(ctColsByIndex, ctCols, index) : null;
+                int styleId = getColumnStyleId(columnStyleIds, index);
+                if (index <= lastCol && col == runCol && styleId == runStyleId) continue;
+
+                if (runCol != null || runStyleId != CellBuffer.NO_STYLE) {
+                    appendCol(cols, runCol, runStart, index - 1, runStyleId);
+                }
+                runStart = index;
+                runCol = col;
+                runStyleId = styleId;
+            }
+        }
+        if (cols.length() > 0) {
+            writer.write("<cols>");
+            writer.write(cols.toString());
+            writer.write("</cols>");
+        }
+    }
+
+    private static void appendCol(StringBuilder cols, CTCol col, long min, long max, int styleId) {
+        cols.append("<col min=\"").append(min).append("\" max=\"").append(max).append('"');
+        if (col != null && col.isSetWidth()) cols.append(" width=\"").append(col.getWidth()).append('"');
+        if (styleId != CellBuffer.NO_STYLE) cols.append(" style=\"").append(styleId).append('"');
+        if (col != null && col.isSetHidden() && col.getHidden()) cols.append(" hidden=\"1\"");
+        if (col != null && col.isSetBestFit() && col.getBestFit()) cols.append(" bestFit=\"1\"");
+        if (col != null && col.isSetCustomWidth() && col.getCustomWidth()) cols.append(" customWidth=\"1\"");
+        cols.append("/>");
+    }
+
+    /**
+     * Returns the POI column covering the 1-based column index, or null.
+     */
+    private static CTCol getCtCol(CTCol[] ctColsByIndex, List<CTCol> ctCols, int index) {
+        if (index <= ctColsByIndex.length) {
+            return ctColsByIndex[index - 1];
+        }
+        for (CTCol col : ctCols) {
+            if (col.getMin() <= index && index <= col.getMax()) {
+                return col;
+            }
+        }
+        return null;
+    }
+
+    private static int getColumnStyleId(int[] columnStyleIds, int index) {
+        return index <= columnStyleIds.length ? columnStyleIds[index - 1] : CellBuffer.NO_STYLE;
+    }
+
+    /**
+     * Returns the names of at least the first numCols columns. The names are shared by all writers and only
+     * computed again when more columns are needed.
+     */
+    private static String[] getColNames(int numCols) {
+        String[] colNames = COL_NAMES;
+        if (colNames.length >= numCols) {
+            return colNames;
+        }
+        colNames = new String[Math.max(numCols, colNames.length * 2)];
+        for (int col = 0; col < colNames.length; col++) {
+            colNames[col] = CellReference.convertNumToColString(col);
+        }
+        COL_NAMES = colNames;
+        return colNames;
+    }
+
+    void writeSharedStrings(Writer writer) throws IOException {
+        writer.write(XML_HEADER);
+        writer.write("<sst xmlns=\"" + MAIN_NS + "\" count=\"" + sharedStringCount
+                + "\" uniqueCount=\"" + sharedStrings.size() + "\">");
+        for (int id = 0; id < sharedStrings.size(); id++) {
+            RichTextString richText = sharedStrings.getRichText(id);
+            if (richText instanceof XSSFRichTextString) {
+                writer.write(getRichTextXml((XSSFRichTextString) richText));
+            } else {
+                writer.write("<si>");
+                writeText(writer, richText != null ? richText.getString() : sharedStrings.getString(id));
+                writer.write("</si>");
+            }
+        }
+        writer.write("</sst>");
+    }
+
+    /**
+     * Writes the views of the POI sheet, with their panes, zoom and selections, as XSSF would; only the first tab
+     * is marked as selected, since the workbook view opens on it.
+     */
+    private static void writeSheetViews(Writer writer, XSSFSheet sheet, boolean selected) throws IOException {
+        CTWorksheet worksheet = sheet.getCTWorksheet();
+        if (!worksheet.isSetSheetViews() || worksheet.getSheetViews().sizeOfSheetViewArray() == 0) {
+            writer.write("<sheetViews><sheetView workbookViewId=\"0\"" + (selected ? " tabSelected=\"1\"" : "") + "/></sheetViews>");
+            return;
+        }
+        CTSheetViews views = (CTSheetViews) worksheet.getSheetViews().copy();
+        for (int i = 0; i < views.sizeOfSheetViewArray(); i++) {
+            CTSheetView view = views.getSheetViewArray(i);
+            if (selected && i == 0) {
+                view.setTabSelected(true);
+            } else if (view.isSetTabSelected()) {
+                view.unsetTabSelected();
+            }
+        }
+        XmlOptions options = new XmlOptions();
+        options.setSaveSyntheticDocumentElement(new QName(MAIN_NS, "sheetViews"));
+        Map<String, String> namespaces = newHashMap();
+        namespaces.put("", MAIN_NS);
+        options.setSaveImplicitNamespaces(namespaces);
+        writer.write(views.xmlText(options));
+    }
+
+    private static String getRichTextXml(XSSFRichTextString value) {
+        XmlOptions options = new XmlOptions();
+        options.setSaveSyntheticDocumentElement(new QName(MAIN_NS, "si"));
+        Map<String, String> namespaces = newHashMap();
+        namespaces.put("", MAIN_NS);
+        options.setSaveImplicitNamespaces(namespaces);
+        return value.getCTRst().xmlText(options);
+    }
+
+    private static void writeText(Writer writer, CharSequence text) throws IOException {
+        boolean preserve = text.length() > 0
+                && (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1)));
+        writer.write(preserve ? "<t xml:space=\"preserve\">" : "<t>");
+        writeEscaped(writer, text, false);
+        writer.write("</t>");
+    }
+
+    static void writeEscaped(Appendable writer, CharSequence text, boolean attribute) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': writer.append("&lt;"); break;
+                case '>': writer.append("&gt;"); break;
+                case '&': writer.append("&amp;"); break;
+                case '"':
+                    if (attribute) writer.append("&quot;"); else writer.append(c);
+                    break;
+                case '\n':
+                case '\r':
+                case '\t':
+                    if (attribute) writer.append("&#").append(Integer.toString(c)).append(';'); else writer.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c == 0xFFFE || c == 0xFFFF) {
+                        // not allowed in XML; encoded the way Excel (and POI, when reading) expects
+                        writer.append(format("_x%04X_", (int) c));
+                    } else {
+                        writer.append(c);
+                    }
+            }
+        }
+    }
+
+    void writeStyles(Writer writer) throws IOException {
+        List<SpreadsheetCellStyle> styles = workbook.getRegisteredStyles();
+
+        Map<String, Integer> numFmts = newLinkedHashMap();
+        Map<String, Integer> fonts = newLinkedHashMap();
+        Map<String, Integer> fills = newLinkedHashMap();
+        Map<String, Integer> borders = newLinkedHashMap();
+        fonts.put(getFontXml(null), 0);
+        fills.put("<fill><patternFill patternType=\"none\"/></fill>", 0);
+        fills.put("<fill><patternFill patternType=\"gray125\"/></fill>", 1);
+        borders.put(getBorderXml(SpreadsheetCellStyle.DEFAULT), 0);
+
+        StringBuilder xfs = new StringBuilder();
+        xfs.append("<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");
+        for (SpreadsheetCellStyle style : styles) {
+            int numFmtId = 0;
+            if (style.getDataFormatString() != null) {
+                numFmtId = BuiltinFormats.getBuiltinFormat(style.getDataFormatString());
+                if (numFmtId == -1) {
+                    numFmtId = getIndex(numFmts, style.getDataFormatString(), FIRST_CUSTOM_NUM_FMT);
+                }
+            }
+            int fontId = style.getFont() != null ? getIndex(fonts, getFontXml(style.getFont()), 0) : 0;
+            int fillId = 0;
+            if (style.getBackgroundColor() != null) {
+                fillId = getIndex(fills, "<fill><patternFill patternType=\"solid\"><fgColor rgb=\""
+                        + getRgb(style.getBackgroundColor()) + "\"/></patternFill></fill>", 0);
+            }
+            int borderId = getIndex(borders, getBorderXml(style), 0);
+
+            xfs.append("<xf numFmtId=\"").append(numFmtId).append("\" fontId=\"").append(fontId)
+                    .append("\" fillId=\"").append(fillId).append("\" borderId=\"").append(borderId).append("\" xfId=\"0\"");
+            if (numFmtId != 0) xfs.append(" applyNumberFormat=\"1\"");
+            if (fontId != 0) xfs.append(" applyFont=\"1\"");
+            if (fillId != 0) xfs.append(" applyFill=\"1\"");
+            if (borderId != 0) xfs.append(" applyBorder=\"1\"");
+            String alignment = getAlignmentXml(style);
+            String protection = getProtectionXml(style);
+            if (alignment != null) xfs.append(" applyAlignment=\"1\"");
+            if (protection != null) xfs.append(" applyProtection=\"1\"");
+            if (alignment == null && protection == null) {
+                xfs.append("/>");
+            } else {
+                xfs.append('>');
+                if (alignment != null) xfs.append(alignment);
+                if (protection != null) xfs.append(protection);
+                xfs.append("</xf>");
+            }
+        }
+
+        writer.write(XML_HEADER);
+        writer.write("<styleSheet xmlns=\"" + MAIN_NS + "\">");
+        if (!numFmts.isEmpty()) {
+            writer.write("<numFmts count=\"" + numFmts.size() + "\">");
+            for (Map.Entry<String, Integer> numFmt : numFmts.entrySet()) {
+                writer.write("<numFmt numFmtId=\"" + numFmt.getValue() + "\" formatCode=\"");
+                writeEscaped(writer, numFmt.getKey(), true);
+                writer.write("\"/>");
+            }
+            writer.write("</numFmts>");
+        }
+        writeList(writer, "fonts", fonts);
+        writeList(writer, "fills", fills);
+        writeList(writer, "borders", borders);
+        writer.write("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>");
+        writer.write("<cellXfs count=\"" + (styles.size() + 1) + "\">");
+        writer.write(xfs.toString());
+        writer.write("</cellXfs>");
+        writer.write("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>");
+        writer.write("</styleSheet>");
+    }
+
+    private static void writeList(Writer writer, String name, Map<String, Integer> items) throws IOException {
+        writer.write("<" + name + " count=\"" + items.size() + "\">");
+        for (String item : items.keySet()) {
+            writer.write(item);
+        }
+        writer.write("</" + name + ">");
+    }
+
+    private static int getIndex(Map<String, Integer> items, String key, int firstIndex) {
+        Integer index = items.get(key);
+        if (index == null) {
+            index = firstIndex + items.size();
+            items.put(key, index);
+        }
+        return index;
+    }
+
+    private static String getFontXml(SpreadsheetFont font) throws IOException {
+        StringBuilder xml = new StringBuilder("<font>");
+        if (font != null) {
+            if (Boolean.TRUE.equals(font.getBold())) xml.append("<b/>");
+            if (Boolean.TRUE.equals(font.getItalic())) xml.append("<i/>");
+            if (Boolean.TRUE.equals(font.getStrikeout())) xml.append("<strike/>");
+            if (Boolean.TRUE.equals(font.getUnderline())) xml.append("<u/>");
+            if (Boolean.TRUE.equals(font.getDoubleUnderline())) xml.append("<u val=\"double\"/>");
+            if (font.getFontOffset() != null && font.getFontOffset() != 0) {
+                xml.append("<vertAlign val=\"").append(font.getFontOffset() == 1 ? "superscript" : "subscript").append("\"/>");
+            }
+        }
+        Integer size = font != null ? font.getFontSizeInPoints() : null;
+        xml.append("<sz val=\"").append(size != null ? size : DEFAULT_FONT_SIZE).append("\"/>");
+        String name = font != null && font.getFontName() != null ? font.getFontName() : DEFAULT_FONT_NAME;
+        xml.append("<name val=\"");
+        writeEscaped(xml, name, true);
+        xml.append("\"/></font>");
+        return xml.toString();
+    }
+
+    private static String getBorderXml(SpreadsheetCellStyle style) {
+        StringBuilder xml = new StringBuilder("<border>");
+        appendBorderSide(xml, "left", style.getLeftBorder(), style.getLeftBorderColor());
+        appendBorderSide(xml, "right", style.getRightBorder(), style.getRightBorderColor());
+        appendBorderSide(xml, "top", style.getTopBorder(), style.getTopBorderColor());
+        appendBorderSide(xml, "bottom", style.getBottomBorder(), style.getBottomBorderColor());
+        xml.append("<diagonal/></border>");
+        return xml.toString();
+    }
+
+    private static void appendBorderSide(StringBuilder xml, String side, BorderStyle border,
+                                         Color color) {
+        xml.append('<').append(side);
+        if (border != null && border != BorderStyle.NONE) {
+            xml.append(" style=\"").append(toCamelCase(border.name())).append('"');
+        }
+        if (color != null) {
+            xml.append("><color rgb=\"").append(getRgb(color)).append("\"/></").append(side).append('>');
+        } else {
+            xml.append("/>");
+        }
+    }
+
+    private static String getAlignmentXml(SpreadsheetCellStyle style) {
+        StringBuilder xml = new StringBuilder();
+        if (style.getAlign() != null) {
+            String horizontal = style.getAlign() == HorizontalAlignment.CENTER_SELECTION
+                    ? "centerContinuous" : toCamelCase(style.getAlign().name());
+            xml.append(" horizontal=\"").append(horizontal).append('"');
+        }
+        if (style.getVerticalAlign() != null) {
+            xml.append(" vertical=\"").append(toCamelCase(style.getVerticalAlign().name())).append('"');
+        }
+        if (style.getRotation() != null) {
+            int rotation = style.getRotation();
+            if (rotation < 0 && rotation >= -90) {
+                rotation = 90 - rotation;
+            }
+            xml.append(" textRotation=\"").append(rotation).append('"');
+        }
+        if (style.getWrapText() != null) {
+            xml.append(" wrapText=\"").append(style.getWrapText() ? 1 : 0).append('"');
+        }
+        if (style.getIndention() != null) {
+            xml.append(" indent=\"").append(style.getIndention()).append('"');
+        }
+        return xml.length() == 0 ? null : "<alignment" + xml + "/>";
+    }
+
+    private static String getProtectionXml(SpreadsheetCellStyle style) {
+        StringBuilder xml = new StringBuilder();
+        if (style.getLocked() != null) {
+            xml.append(" locked=\"").append(style.getLocked() ? 1 : 0).append('"');
+        }
+        if (style.isHidden() != null) {
+            xml.append(" hidden=\"").append(style.isHidden() ? 1 : 0).append('"');
+        }
+        return xml.length() == 0 ? null : "<protection" + xml + "/>";
+    }
+
+    private static String getRgb(Color color) {
+        return format("FF%02X%02X%02X", color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    /**
+     * Converts a POI enum name such as MEDIUM_DASH_DOT to its SpreadsheetML value, mediumDashDot.
+     */
+    private static String toCamelCase(String name) {
+        StringBuilder camelCase = new StringBuilder(name.length());
+        boolean upper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_') {
+                upper = true;
+            } else {
+                camelCase.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return camelCase.toString();
+    }
+
+}
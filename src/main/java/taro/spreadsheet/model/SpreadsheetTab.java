@@ -1,38 +1,134 @@
 package taro.spreadsheet.model;
 
 import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.ClientAnchor;
 import org.apache.poi.ss.usermodel.Drawing;
 import org.apache.poi.ss.usermodel.Picture;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFDrawing;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFPicture;
+import org.apache.poi.xssf.usermodel.XSSFPictureData;
+import org.apache.poi.xssf.usermodel.XSSFShape;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCol;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCols;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+import taro.spreadsheet.TaroSpreadsheetException;
 
-import java.util.Map;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
-import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.lang.String.format;
 import static taro.spreadsheet.model.SpreadsheetCellStyle.DEFAULT;
 
 public class SpreadsheetTab {
 
     private SpreadsheetWorkbook workbook;
-    private XSSFSheet sheet;
-    private Map<String, SpreadsheetCell> cells = newHashMap();
+    private Sheet sheet;
+    private CellIndex cellStyleIds = new CellIndex();
+    private CellBuffer buffer;
+    private boolean autosizeColsPending;
+    // whether the POI sheet may differ from the one the tab was opened with
+    private boolean modified;
     private Drawing drawing;
+    private int evictedThroughRow = -1;
+    private int materializedRangeStyles;
 
+    // workbook style ids by canonical style, so the workbook's lock is only taken for new styles
+    private CanonicalIds styleIdCache = new CanonicalIds();
+    private List<RowBand> rowBands = newArrayList();
+    private PipelinedWriter pipeline;
     private int highestModifiedCol = -1;
     private int highestModifiedRow = -1;
 
     SpreadsheetTab(SpreadsheetWorkbook workbook, String title) {
         this.workbook = workbook;
-        this.sheet = workbook.getPoiWorkbook().createSheet(title);
+        this.sheet = workbook.createPoiSheet(title);
+        if (workbook.isDeferred()) {
+            this.buffer = new CellBuffer(workbook.getXSSFWorkbook().isDate1904());
+        }
+        this.pipeline = workbook.getPipeline();
     }
 
-    SpreadsheetTab(SpreadsheetWorkbook workbook, XSSFSheet sheet) {
+    /**
+     * Creates a deferred tab with the title, cells, merged regions, column widths, sheet view and pictures of
+     * the prototype tab. The cells are shared with the prototype until this tab modifies them, see
+     * CellBuffer.copyOnWrite. The prototype must not be modified while tabs are being copied from it.
+     */
+    SpreadsheetTab(SpreadsheetWorkbook workbook, SpreadsheetTab prototype) {
+        if (prototype.buffer == null) {
+            throw new TaroSpreadsheetException(format("Tab '%s' is not a deferred tab; only deferred tabs can be " +
+                    "copied.", prototype.sheet.getSheetName()));
+        }
+        this.workbook = workbook;
+        this.sheet = workbook.createPoiSheet(prototype.sheet.getSheetName());
+        this.buffer = prototype.buffer.copyOnWrite();
+        this.autosizeColsPending = prototype.autosizeColsPending;
+        this.highestModifiedRow = prototype.highestModifiedRow;
+        this.highestModifiedCol = prototype.highestModifiedCol;
+        copySheetSettings(((XSSFSheet) prototype.sheet).getCTWorksheet(), ((XSSFSheet) sheet).getCTWorksheet());
+        copyPictures((XSSFSheet) prototype.sheet);
+    }
+
+    /**
+     * Adds the pictures of the prototype's sheet again, reading their bytes back from its package, so that tabs
+     * keep no copy of the pictures they add.
+     */
+    private void copyPictures(XSSFSheet prototypeSheet) {
+        XSSFDrawing prototypeDrawing = prototypeSheet.getDrawingPatriarch();
+        if (prototypeDrawing == null) return;
+        for (XSSFShape shape : prototypeDrawing.getShapes()) {
+            if (shape instanceof XSSFPicture) {
+                XSSFPicture picture = (XSSFPicture) shape;
+                XSSFPictureData data = picture.getPictureData();
+                addPicture(picture.getClientAnchor().getRow1(), picture.getClientAnchor().getCol1(), data.getData(),
+                        data.getPictureType());
+            }
+        }
+    }
+
+    /**
+     * Copies the parts of a worksheet that are not kept in the buffer of a deferred tab. The styles of the
+     * columns are dropped, as they are indexes in the POI style table of the other workbook; a deferred tab
+     * keeps its column styles in its range styles, and sets them again when it is materialized.
+     */
+    private static void copySheetSettings(CTWorksheet from, CTWorksheet to) {
+        if (from.isSetSheetFormatPr()) {
+            to.setSheetFormatPr(from.getSheetFormatPr());
+        }
+        if (from.isSetSheetViews()) {
+            to.setSheetViews(from.getSheetViews());
+        }
+        while (to.sizeOfColsArray() > 0) {
+            to.removeCols(0);
+        }
+        for (CTCols fromCols : from.getColsList()) {
+            CTCols cols = to.addNewCols();
+            cols.set(fromCols);
+            for (CTCol col : cols.getColList()) {
+                if (col.isSetStyle()) {
+                    col.unsetStyle();
+                }
+            }
+        }
+        if (from.isSetMergeCells()) {
+            to.setMergeCells(from.getMergeCells());
+        }
+    }
+
+    SpreadsheetTab(SpreadsheetWorkbook workbook, Sheet sheet) {
         this.workbook = workbook;
         this.sheet = sheet;
     }
@@ -46,8 +142,8 @@ public class SpreadsheetTab {
     }
 
     public void setValue(String cellAddress, Object content, SpreadsheetCellStyle style) {
-        CellReference cellReference = new CellReference(cellAddress);
-        setValue(cellReference.getRow(), cellReference.getCol(), content, style);
+        long address = CellAddresses.parse(cellAddress);
+        setValue(CellAddresses.getRow(address), CellAddresses.getCol(address), content, style);
     }
 
     public void setValue(int row, int col, Object content) {
@@ -55,6 +151,14 @@ public class SpreadsheetTab {
     }
 
     public void setValue(int row, int col, Object content, SpreadsheetCellStyle style) {
+        if (buffer != null) {
+            buffer.setValue(row, col, content);
+            if (style != null) {
+                buffer.setStyleId(row, col, getStyleId(style));
+            }
+            recordCellModified(row, col);
+            return;
+        }
         SpreadsheetCell cell = getOrCreateCell(row, col);
         cell.setValue(content);
         if (style != null) {
@@ -63,89 +167,466 @@ public class SpreadsheetTab {
         recordCellModified(row, col);
     }
 
+    public void setValue(int row, int col, CharSequence content) {
+        setValue(row, col, content, null);
+    }
+
+    /**
+     * Like setValue(int, int, Object, SpreadsheetCellStyle), without the type dispatch. A null content makes the
+     * cell blank.
+     */
+    public void setValue(int row, int col, CharSequence content, SpreadsheetCellStyle style) {
+        if (buffer != null) {
+            CellBuffer.BufferedRow bufferedRow = buffer.getOrCreateRow(row);
+            buffer.setValue(bufferedRow, row, col, content);
+            setBufferedStyle(bufferedRow, row, col, style);
+        } else {
+            setStyle(getOrCreateCell(row, col).setValue(content), style);
+        }
+        recordCellModified(row, col);
+    }
+
+    public void setValue(int row, int col, double content) {
+        setValue(row, col, content, null);
+    }
+
+    /**
+     * Like setValue(int, int, Object, SpreadsheetCellStyle), without boxing the number.
+     */
+    public void setValue(int row, int col, double content, SpreadsheetCellStyle style) {
+        if (buffer != null) {
+            CellBuffer.BufferedRow bufferedRow = buffer.getOrCreateRow(row);
+            buffer.setValue(bufferedRow, row, col, content);
+            setBufferedStyle(bufferedRow, row, col, style);
+        } else {
+            setStyle(getOrCreateCell(row, col).setValue(content), style);
+        }
+        recordCellModified(row, col);
+    }
+
+    public void setValue(int row, int col, long content) {
+        setValue(row, col, (double) content, null);
+    }
+
+    public void setValue(int row, int col, long content, SpreadsheetCellStyle style) {
+        setValue(row, col, (double) content, style);
+    }
+
+    public void setValue(int row, int col, boolean content) {
+        setValue(row, col, content, null);
+    }
+
+    public void setValue(int row, int col, boolean content, SpreadsheetCellStyle style) {
+        if (buffer != null) {
+            CellBuffer.BufferedRow bufferedRow = buffer.getOrCreateRow(row);
+            buffer.setValue(bufferedRow, row, col, content);
+            setBufferedStyle(bufferedRow, row, col, style);
+        } else {
+            setStyle(getOrCreateCell(row, col).setValue(content), style);
+        }
+        recordCellModified(row, col);
+    }
+
+    private void setBufferedStyle(CellBuffer.BufferedRow bufferedRow, int row, int col, SpreadsheetCellStyle style) {
+        if (style != null) {
+            buffer.setStyleId(bufferedRow, row, col, getStyleId(style));
+        }
+    }
+
+    private static void setStyle(SpreadsheetCell cell, SpreadsheetCellStyle style) {
+        if (style != null) {
+            cell.setStyle(style);
+        }
+    }
+
+    /**
+     * Writes a block of values, one array per row, starting at the given cell. The style at index i of
+     * columnStyles is applied to column col + i; a null or missing style leaves the cells' styles unchanged.
+     * Each row and each column style is looked up once for the whole block.
+     * Returns the index of the next row after the last one written.
+     */
+    public int setValues(int row, int col, Object[][] values, SpreadsheetCellStyle... columnStyles) {
+        return setValues(row, col, Arrays.asList(values), columnStyles);
+    }
+
+    /**
+     * Like setValues(int, int, Object[][], SpreadsheetCellStyle...), for rows that come as a list.
+     */
+    public int setValues(int row, int col, List<Object[]> values, SpreadsheetCellStyle... columnStyles) {
+        int[] styleIds = buffer != null ? getStyleIds(columnStyles) : null;
+        CellStyle[] poiStyles = buffer == null ? getPoiStyles(columnStyles) : null;
+        for (int i = 0; i < values.size(); i++) {
+            Object[] rowValues = values.get(i);
+            if (rowValues != null) {
+                setBlockRow(row + i, col, rowValues, null, columnStyles, styleIds, poiStyles);
+            }
+        }
+        return row + values.size();
+    }
+
+    /**
+     * Like setValues(int, int, Object[][], SpreadsheetCellStyle...), for a block of numbers. A deferred tab stores
+     * the numbers without boxing them.
+     */
+    public int setValues(int row, int col, double[][] values, SpreadsheetCellStyle... columnStyles) {
+        int[] styleIds = buffer != null ? getStyleIds(columnStyles) : null;
+        CellStyle[] poiStyles = buffer == null ? getPoiStyles(columnStyles) : null;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                setBlockRow(row + i, col, null, values[i], columnStyles, styleIds, poiStyles);
+            }
+        }
+        return row + values.length;
+    }
+
+    /**
+     * Writes one row of a block, from either objects or numbers, with the column styles the block looked up once:
+     * the workbook style ids for a deferred tab, the POI styles otherwise. The row is recorded as modified before
+     * the next one is written, so streaming and pipelined tabs flush the rows that leave their window as the
+     * block goes.
+     */
+    private void setBlockRow(int row, int col, Object[] objects, double[] numbers, SpreadsheetCellStyle[] columnStyles,
+                             int[] styleIds, CellStyle[] poiStyles) {
+        int length = objects != null ? objects.length : numbers.length;
+        if (buffer != null) {
+            CellBuffer.BufferedRow bufferedRow = buffer.getOrCreateRow(row);
+            for (int j = 0; j < length; j++) {
+                if (objects != null) {
+                    buffer.setValue(bufferedRow, row, col + j, objects[j]);
+                } else {
+                    buffer.setValue(bufferedRow, row, col + j, numbers[j]);
+                }
+                if (j < styleIds.length && styleIds[j] != CellBuffer.NO_STYLE) {
+                    buffer.setStyleId(bufferedRow, row, col + j, styleIds[j]);
+                }
+            }
+        } else {
+            Row poiRow = getOrCreatePoiRowForBlock(row);
+            for (int j = 0; j < length; j++) {
+                SpreadsheetCell cell = getOrCreateCell(poiRow, col + j);
+                if (objects != null) {
+                    cell.setValue(objects[j]);
+                } else {
+                    cell.setValue(numbers[j]);
+                }
+                if (j < poiStyles.length && poiStyles[j] != null) {
+                    cell.setStyle(columnStyles[j], poiStyles[j]);
+                }
+            }
+        }
+        if (length > 0) {
+            recordCellModified(row, col + length - 1);
+        }
+    }
+
+    private int[] getStyleIds(SpreadsheetCellStyle[] columnStyles) {
+        int[] styleIds = new int[columnStyles.length];
+        for (int i = 0; i < columnStyles.length; i++) {
+            if (columnStyles[i] != null) {
+                styleIds[i] = getStyleId(columnStyles[i]);
+            }
+        }
+        return styleIds;
+    }
+
+    private CellStyle[] getPoiStyles(SpreadsheetCellStyle[] columnStyles) {
+        CellStyle[] poiStyles = new CellStyle[columnStyles.length];
+        for (int i = 0; i < columnStyles.length; i++) {
+            if (columnStyles[i] != null) {
+                poiStyles[i] = workbook.registerStyle(columnStyles[i]);
+            }
+        }
+        return poiStyles;
+    }
+
+    Row getOrCreatePoiRowForBlock(int rowNum) {
+        checkNotFlushed(rowNum);
+        return getOrCreatePoiRow(rowNum);
+    }
+
+    SpreadsheetCell getOrCreateCell(Row poiRow, int col) {
+        Cell poiCell = poiRow.getCell(col);
+        if (poiCell == null) {
+            poiCell = poiRow.createCell(col);
+        }
+        return new SpreadsheetCell(this, poiCell);
+    }
+
+    /**
+     * Creates a cell in a row that was just created by createPoiRow, so has no cells to look up.
+     */
+    SpreadsheetCell createCell(Row poiRow, int col) {
+        return new SpreadsheetCell(this, poiRow.createCell(col));
+    }
+
+    /**
+     * Returns a cursor that writes rows in ascending order, starting with the row after the last one modified.
+     */
+    public RowWriter rowWriter() {
+        return new RowWriter(this, highestModifiedRow + 1, 0);
+    }
+
+    /**
+     * Returns a cursor that writes rows in ascending order, starting at the given cell. Each row starts at col.
+     */
+    public RowWriter rowWriter(int row, int col) {
+        return new RowWriter(this, row, col);
+    }
+
+    /**
+     * Returns a band of rows of this deferred tab that can be filled from another thread, at the same time as the
+     * other bands of the tab. Bands must not overlap. The band is merged into the tab when the workbook is
+     * written; see RowBand.
+     */
+    public synchronized RowBand rowBand(int firstRow, int lastRow) {
+        if (buffer == null || pipeline != null) {
+            throw new TaroSpreadsheetException("Row bands are only available for tabs of a deferred workbook that " +
+                    "is not pipelined.");
+        }
+        if (firstRow < 0 || lastRow < firstRow) {
+            throw new IllegalArgumentException(format("Invalid row band: rows %d to %d", firstRow, lastRow));
+        }
+        for (RowBand band : rowBands) {
+            if (firstRow <= band.getLastRow() && band.getFirstRow() <= lastRow) {
+                throw new IllegalArgumentException(format("Rows %d to %d overlap the row band %d to %d.",
+                        firstRow, lastRow, band.getFirstRow(), band.getLastRow()));
+            }
+        }
+        RowBand band = new RowBand(this, firstRow, lastRow);
+        rowBands.add(band);
+        return band;
+    }
+
+    /**
+     * Merges the pending row bands into the buffer in row order. Called by SpreadsheetWorkbook.write.
+     */
+    synchronized void mergeRowBands() {
+        if (rowBands.isEmpty()) return;
+        Collections.sort(rowBands, new Comparator<RowBand>() {
+            @Override
+            public int compare(RowBand one, RowBand two) {
+                return Integer.compare(one.getFirstRow(), two.getFirstRow());
+            }
+        });
+        for (RowBand band : rowBands) {
+            band.mergeInto(buffer);
+        }
+        rowBands.clear();
+    }
+
     public void setStyle(String cellAddress, SpreadsheetCellStyle style) {
-        CellReference cellReference = new CellReference(cellAddress);
-        setStyle(cellReference.getRow(), cellReference.getCol(), style);
+        long address = CellAddresses.parse(cellAddress);
+        setStyle(CellAddresses.getRow(address), CellAddresses.getCol(address), style);
     }
 
     public void setStyle(String firstCell, String lastCell, SpreadsheetCellStyle style) {
-        CellReference firstReference = new CellReference(firstCell);
-        CellReference lastReference = new CellReference(lastCell);
-        setStyle(firstReference.getRow(), lastReference.getRow(), firstReference.getCol(), lastReference.getCol(), style);
+        long first = CellAddresses.parse(firstCell);
+        long last = CellAddresses.parse(lastCell);
+        setStyle(CellAddresses.getRow(first), CellAddresses.getRow(last), CellAddresses.getCol(first), CellAddresses.getCol(last), style);
     }
 
     public void setStyle(int row, int col, SpreadsheetCellStyle style) {
-        getOrCreateCell(row, col).setStyle(style);
+        if (buffer != null) {
+            buffer.setStyleId(row, col, getStyleId(style));
+        } else {
+            getOrCreateCell(row, col).setStyle(style);
+        }
+    }
+
+    public void setStyle(CellRange range, SpreadsheetCellStyle style) {
+        setStyle(range.getFirstRow(), range.getLastRow(), range.getFirstCol(), range.getLastCol(), style);
     }
 
+    /**
+     * For a tab in a deferred workbook, the range is recorded as a rectangle rather than by creating every cell
+     * in it. Empty cells take the style when they are created or written, and a range that spans every row or
+     * every column is written as the default style of those columns or rows.
+     */
     public void setStyle(int firstRow, int lastRow, int firstCol, int lastCol, SpreadsheetCellStyle style) {
+        if (buffer != null) {
+            if (lastRow < firstRow || lastCol < firstCol) return;
+            buffer.setRangeStyleId(firstRow, lastRow, firstCol, lastCol, getStyleId(style));
+            return;
+        }
         for (int row = firstRow; row <= lastRow; row++) {
             for (int col = firstCol; col <= lastCol; col++) {
-                getOrCreateCell(row, col).setStyle(style);
+                setStyle(row, col, style);
             }
         }
     }
 
+    /**
+     * Returns the underlying POI sheet. The rows of a tab in a deferred workbook are only created when the workbook
+     * is written. As the sheet can be changed through it, the tab counts as modified, see
+     * WriteOptions.withPassthrough. Throws a TaroSpreadsheetException when the workbook is streaming, as its sheets
+     * are SXSSFSheets; use getPoiSheetInterface for those.
+     */
     public XSSFSheet getPoiSheet() {
+        if (!(sheet instanceof XSSFSheet)) {
+            throw new TaroSpreadsheetException(format("Tab '%s' belongs to a streaming workbook and has no XSSFSheet; " +
+                    "use getPoiSheetInterface() instead.", sheet.getSheetName()));
+        }
+        modified = true;
+        return (XSSFSheet) sheet;
+    }
+
+    /**
+     * Like getPoiSheet, returning the sheet as the POI interface, which is an SXSSFSheet when the workbook is
+     * streaming.
+     */
+    public Sheet getPoiSheetInterface() {
+        modified = true;
+        return sheet;
+    }
+
+    /**
+     * Like getPoiSheet, for the code of this package that only reads the sheet, which leaves the tab unmodified.
+     */
+    Sheet getSheet() {
         return sheet;
     }
 
+    String getTitle() {
+        return sheet.getSheetName();
+    }
+
+    void markModified() {
+        modified = true;
+    }
+
+    /**
+     * Returns true if the tab may have changed its POI sheet since it was created or opened.
+     */
+    boolean isModified() {
+        return modified;
+    }
+
     public SpreadsheetCell getCell(String cellAddress) {
-        CellReference cellReference = new CellReference(cellAddress);
-        return getCell(cellReference.getRow(), cellReference.getCol());
+        long address = CellAddresses.parse(cellAddress);
+        return getCell(CellAddresses.getRow(address), CellAddresses.getCol(address));
     }
 
     public SpreadsheetCell getCell(int row, int col) {
-        String address = getCellAddress(row, col);
-        SpreadsheetCell cell = cells.get(address);
-        return cell;
+        if (buffer != null) {
+            return buffer.exists(row, col) ? new SpreadsheetCell(this, row, col) : null;
+        }
+        Row poiRow = getPoiRow(row);
+        Cell poiCell = poiRow != null ? poiRow.getCell(col) : null;
+        return poiCell != null ? new SpreadsheetCell(this, poiCell) : null;
     }
 
     public SpreadsheetCell getOrCreateCell(String cellAddress) {
-        CellReference cellReference = new CellReference(cellAddress);
-        return getOrCreateCell(cellReference.getRow(), cellReference.getCol());
+        long address = CellAddresses.parse(cellAddress);
+        return getOrCreateCell(CellAddresses.getRow(address), CellAddresses.getCol(address));
     }
 
     public SpreadsheetCell getOrCreateCell(int row, int col) {
-        SpreadsheetCell cell = getCell(row,col);
-        if (cell == null) {
-            cell = new SpreadsheetCell(this, getOrCreatePoiCell(row, col));
-            String address = getCellAddress(row, col);
-            cells.put(address, cell);
+        if (buffer != null) {
+            buffer.touch(row, col);
+            return new SpreadsheetCell(this, row, col);
         }
-        return cell;
+        checkNotFlushed(row);
+        return new SpreadsheetCell(this, getOrCreatePoiCell(row, col));
     }
 
-    private XSSFCell getOrCreatePoiCell(int rowNum, int col) {
-        XSSFRow row = getOrCreatePoiRow(rowNum);
-        XSSFCell cell = row.getCell(col);
+    /**
+     * Returns the workbook style id that was set on a cell of a regular tab, or NO_STYLE.
+     */
+    int getCellStyleId(int row, int col) {
+        return cellStyleIds.get(row, col);
+    }
+
+    void setCellStyleId(int row, int col, int styleId) {
+        cellStyleIds.put(row, col, styleId);
+    }
+
+    private Cell getOrCreatePoiCell(int rowNum, int col) {
+        Row row = getOrCreatePoiRow(rowNum);
+        Cell cell = row.getCell(col);
         if (cell == null) {
             cell = row.createCell(col);
         }
         return cell;
     }
 
-    private XSSFRow getOrCreatePoiRow(int rowNum) {
-        XSSFRow row = sheet.getRow(rowNum);
+    private Row getOrCreatePoiRow(int rowNum) {
+        Row row = sheet.getRow(rowNum);
         if (row == null) {
+            modified = true;
             row = sheet.createRow(rowNum);
+            evictFlushedRows();
         }
         return row;
     }
 
+    /**
+     * Returns true if the POI row exists. Rows past the last one are found without looking them up, which is
+     * the common case when appending.
+     */
+    boolean hasPoiRow(int rowNum) {
+        return sheet.getPhysicalNumberOfRows() > 0 && rowNum <= sheet.getLastRowNum() && sheet.getRow(rowNum) != null;
+    }
+
+    /**
+     * Creates a POI row that does not exist yet.
+     */
+    Row createPoiRow(int rowNum) {
+        checkNotFlushed(rowNum);
+        modified = true;
+        Row row = sheet.createRow(rowNum);
+        evictFlushedRows();
+        return row;
+    }
+
+    private Row getPoiRow(int rowNum) {
+        checkNotFlushed(rowNum);
+        return sheet.getRow(rowNum);
+    }
+
+    /**
+     * Returns the index of the last row that a streaming workbook has flushed to disk, or that a pipelined
+     * workbook has written to its stream, or -1 if no rows have been flushed (always the case for a regular
+     * workbook).
+     */
+    public int getLastFlushedRow() {
+        if (sheet instanceof SXSSFSheet) {
+            return ((SXSSFSheet) sheet).getLastFlushedRowNum();
+        }
+        if (pipeline != null) {
+            return buffer.getFlushedThroughRow();
+        }
+        return -1;
+    }
+
+    private void checkNotFlushed(int row) {
+        if (row <= getLastFlushedRow()) {
+            throw new TaroSpreadsheetException(format("Row %d of tab '%s' has already been written out " +
+                    "and can no longer be read or modified.", row, sheet.getSheetName()));
+        }
+    }
+
+    private void evictFlushedRows() {
+        int lastFlushedRow = getLastFlushedRow();
+        if (lastFlushedRow > evictedThroughRow) {
+            cellStyleIds.clearRowsThrough(lastFlushedRow);
+            evictedThroughRow = lastFlushedRow;
+        }
+    }
+
     public void mergeCells(String firstCell, String lastCell, Object content, SpreadsheetCellStyle style) {
-        CellReference firstReference = new CellReference(firstCell);
-        CellReference lastReference = new CellReference(lastCell);
-        mergeCells(firstReference.getRow(), lastReference.getRow(), firstReference.getCol(), lastReference.getCol(), content, style);
+        long first = CellAddresses.parse(firstCell);
+        long last = CellAddresses.parse(lastCell);
+        mergeCells(CellAddresses.getRow(first), CellAddresses.getRow(last), CellAddresses.getCol(first), CellAddresses.getCol(last), content, style);
+    }
+
+    public void mergeCells(CellRange range, Object content, SpreadsheetCellStyle style) {
+        mergeCells(range.getFirstRow(), range.getLastRow(), range.getFirstCol(), range.getLastCol(), content, style);
     }
 
     public void mergeCells(int firstRow, int lastRow, int firstCol, int lastCol, Object content, SpreadsheetCellStyle style) {
         setValue(firstRow, firstCol, content);
-        for (int col = firstCol; col <= lastCol; col++) {
-            for (int row = firstRow; row <= lastRow; row++) {
-                setStyle(row, col, style);
-            }
-        }
+        setStyle(firstRow, lastRow, firstCol, lastCol, style);
+        modified = true;
         sheet.addMergedRegion(new CellRangeAddress(firstRow, lastRow, firstCol, lastCol));
     }
 
@@ -153,14 +634,23 @@ public class SpreadsheetTab {
      * In twips (1/20th of a point)
      */
     public int getRowHeight(int row) {
-        return sheet.getRow(row).getHeight();
+        if (buffer != null) {
+            short height = buffer.getHeight(row);
+            return height != CellBuffer.DEFAULT_HEIGHT ? height : sheet.getDefaultRowHeight();
+        }
+        return getPoiRow(row).getHeight();
     }
 
     /**
      * In twips (1/20th of a point)
      */
     public void setRowHeight(int row, int twips) {
-        sheet.getRow(row).setHeight((short)twips);
+        if (buffer != null) {
+            buffer.setHeight(row, (short)twips);
+        } else {
+            modified = true;
+            getPoiRow(row).setHeight((short)twips);
+        }
     }
 
     /**
@@ -174,6 +664,7 @@ public class SpreadsheetTab {
      * In (1/256th of a character width)
      */
     public void setColWidth(int col, int twips) {
+        modified = true;
         sheet.setColumnWidth(col, twips);
     }
 
@@ -182,33 +673,93 @@ public class SpreadsheetTab {
         autosizeRows();
     }
 
+    /**
+     * For a streaming workbook, only the rows that have not yet been flushed are resized. Only the cells that have
+     * been written are measured, so autosizing takes time in proportion to them and creates no cells.
+     */
     public void autosizeRows() {
-        for (int row = 0; row <= highestModifiedRow; row++) {
-            autoSizeRow(row);
+        int[] colWidths = newColWidths();
+        for (int row = getLastFlushedRow() + 1; row <= highestModifiedRow; row++) {
+            autoSizeRow(row, colWidths);
         }
     }
 
+    /**
+     * Sets the width of each column to fit its widest cell, as estimated by ColumnWidthEstimator from tables of
+     * glyph widths rather than by laying out the text with AWT. For a tab in a deferred workbook, the columns are
+     * resized when the workbook is written. A streaming workbook sizes them with POI, which also accounts for the
+     * rows it has flushed.
+     */
     public void autosizeCols() {
-        for (int col = 0; col <= highestModifiedCol; col++) {
-            sheet.autoSizeColumn(col, true);
+        if (buffer != null) {
+            autosizeColsPending = true;
+            return;
         }
+        if (sheet instanceof SXSSFSheet) {
+            modified = true;
+            for (int col = 0; col <= highestModifiedCol; col++) {
+                sheet.autoSizeColumn(col, true);
+            }
+            return;
+        }
+        setColWidths(estimateColWidths(new ColumnWidthEstimator(workbook)));
+    }
+
+    boolean isAutosizeColsPending() {
+        return autosizeColsPending;
     }
 
+    /**
+     * Returns the estimated widths of the columns through the highest one modified, or -1 for the columns without
+     * cells. Only reads the tab, so the tabs of a workbook can be measured on separate threads.
+     */
+    int[] estimateColWidths(ColumnWidthEstimator estimator) {
+        return estimator.estimate(this, highestModifiedCol);
+    }
+
+    /**
+     * Sets the widths returned by estimateColWidths, leaving the columns without cells unchanged.
+     */
+    void setColWidths(int[] widths) {
+        autosizeColsPending = false;
+        modified = true;
+        for (int col = 0; col < widths.length; col++) {
+            if (widths[col] >= 0) {
+                sheet.setColumnWidth(col, widths[col]);
+            }
+        }
+    }
+
+    /**
+     * Sets the height of the row to fit its tallest string, counting its lines and, for a cell that wraps its
+     * text, the lines it wraps into at the width of its column.
+     */
     public void autoSizeRow(int row) {
+        autoSizeRow(row, newColWidths());
+    }
+
+    private void autoSizeRow(int row, int[] colWidths) {
         float tallestCell = -1;
-        for (int col = 0; col <= highestModifiedCol; col++) {
-            SpreadsheetCell cell = getOrCreateCell(row, col);
-            int fontSize = cell.getFontSizeInPoints();
-            XSSFCell poiCell = cell.getPoiCell();
-            if (poiCell.getCellType() == CellType.STRING) {
-                String value = poiCell.getStringCellValue();
-                int numLines = 1;
-                for (int i = 0; i < value.length(); i++) {
-                    if (value.charAt(i) == '\n') numLines++;
+        Row poiRow = null;
+        if (buffer != null) {
+            CellBuffer.BufferedRow bufferedRow = buffer.getRow(row);
+            if (bufferedRow == null) return;
+            for (int col = 0; col <= bufferedRow.lastCol; col++) {
+                byte type = bufferedRow.types[col];
+                if (type == CellBuffer.STRING || type == CellBuffer.RICH_TEXT) {
+                    String value = type == CellBuffer.STRING ? buffer.getString(row, col) : buffer.getRichText(row, col).getString();
+                    SpreadsheetCellStyle style = workbook.getStyleById(bufferedRow.styles[col]);
+                    tallestCell = Math.max(tallestCell, computeCellHeightInPoints(value, style, col, colWidths));
                 }
-                float cellHeight = computeRowHeightInPoints(fontSize, numLines);
-                if (cellHeight > tallestCell) {
-                    tallestCell = cellHeight;
+            }
+        } else {
+            poiRow = getPoiRow(row);
+            if (poiRow == null) return;
+            for (Cell cell : poiRow) {
+                if (cell.getCellType() == CellType.STRING) {
+                    int col = cell.getColumnIndex();
+                    SpreadsheetCellStyle style = workbook.getStyleById(getCellStyleId(row, col));
+                    tallestCell = Math.max(tallestCell, computeCellHeightInPoints(cell.getStringCellValue(), style, col, colWidths));
                 }
             }
         }
@@ -219,7 +770,42 @@ public class SpreadsheetTab {
             rowHeight = -1;    // resets to the default
         }
 
-        sheet.getRow(row).setHeightInPoints(rowHeight);
+        if (buffer != null) {
+            buffer.setHeight(row, rowHeight == -1 ? CellBuffer.DEFAULT_HEIGHT : (short)(rowHeight * 20));
+        } else {
+            modified = true;
+            poiRow.setHeightInPoints(rowHeight);
+        }
+    }
+
+    private float computeCellHeightInPoints(String value, SpreadsheetCellStyle style, int col, int[] colWidths) {
+        SpreadsheetFont font = style != null ? style.getFont() : null;
+        int fontSize = font != null && font.getFontSizeInPoints() != null ? font.getFontSizeInPoints() : XSSFFont.DEFAULT_FONT_SIZE;
+        int numLines;
+        if (style != null && Boolean.TRUE.equals(style.getWrapText())) {
+            numLines = ColumnWidthEstimator.countWrappedLines(value, font, getColWidth(col, colWidths) / 256.0);
+        } else {
+            numLines = 1;
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) == '\n') numLines++;
+            }
+        }
+        return computeRowHeightInPoints(fontSize, numLines);
+    }
+
+    // the column widths looked up by autosizeRows, so each column is looked up in the sheet once
+    private int[] newColWidths() {
+        int[] colWidths = new int[highestModifiedCol + 1];
+        Arrays.fill(colWidths, -1);
+        return colWidths;
+    }
+
+    private int getColWidth(int col, int[] colWidths) {
+        if (col >= colWidths.length) return getColWidth(col);
+        if (colWidths[col] == -1) {
+            colWidths[col] = getColWidth(col);
+        }
+        return colWidths[col];
     }
 
     public float computeRowHeightInPoints(int fontSizeInPoints, int numLines) {
@@ -237,27 +823,32 @@ public class SpreadsheetTab {
     }
 
     public void addSpacer() {
+        modified = true;
         sheet.setColumnWidth(0, 768);
     }
 
 
-    private void recordCellModified(int row, int col) {
+    void recordCellModified(int row, int col) {
+        modified = true;
         if (col > highestModifiedCol) {
             highestModifiedCol = col;
         }
         if (row > highestModifiedRow) {
             highestModifiedRow = row;
+            if (pipeline != null && row - pipeline.getWindowSize() > buffer.getFlushedThroughRow()) {
+                pipeline.flushRows(this, row - pipeline.getWindowSize());
+            }
         }
     }
 
     public void printDown(String cellAddress, SpreadsheetCellStyle style, String... values) {
-        CellReference cellReference = new CellReference(cellAddress);
-        printDown(cellReference.getRow(), cellReference.getCol(), style, values);
+        long address = CellAddresses.parse(cellAddress);
+        printDown(CellAddresses.getRow(address), CellAddresses.getCol(address), style, values);
     }
 
     public void printAcross(String cellAddress, SpreadsheetCellStyle style, String... values) {
-        CellReference cellReference = new CellReference(cellAddress);
-        printAcross(cellReference.getRow(), cellReference.getCol(), style, values);
+        long address = CellAddresses.parse(cellAddress);
+        printAcross(CellAddresses.getRow(address), CellAddresses.getCol(address), style, values);
     }
 
     /**
@@ -274,16 +865,20 @@ public class SpreadsheetTab {
      * Returns the index of the next col after the last one written.
      */
     public int printAcross(int row, int col, SpreadsheetCellStyle style, Object... values) {
-        for (int i = 0; i < values.length; i++) {
-            setValue(row, col + i, values[i], style);
-        }
+        SpreadsheetCellStyle[] columnStyles = new SpreadsheetCellStyle[values.length];
+        Arrays.fill(columnStyles, style);
+        setValues(row, col, new Object[][] {values}, columnStyles);
         return col + values.length;
     }
 
     public void setSurroundBorder(String firstCell, String lastCell, BorderStyle border) {
-        CellReference firstReference = new CellReference(firstCell);
-        CellReference lastReference = new CellReference(lastCell);
-        setSurroundBorder(firstReference.getRow(), lastReference.getRow(), firstReference.getCol(), lastReference.getCol(), border);
+        long first = CellAddresses.parse(firstCell);
+        long last = CellAddresses.parse(lastCell);
+        setSurroundBorder(CellAddresses.getRow(first), CellAddresses.getRow(last), CellAddresses.getCol(first), CellAddresses.getCol(last), border);
+    }
+
+    public void setSurroundBorder(CellRange range, BorderStyle border) {
+        setSurroundBorder(range.getFirstRow(), range.getLastRow(), range.getFirstCol(), range.getLastCol(), border);
     }
 
     public void setSurroundBorder(int firstRow, int lastRow, int firstCol, int lastCol, BorderStyle border) {
@@ -294,26 +889,30 @@ public class SpreadsheetTab {
     }
 
     public void setRightBorder(int firstRow, int lastRow, int col, BorderStyle border) {
+        SpreadsheetCellStyle borderStyle = DEFAULT.withRightBorder(border);
         for (int row = firstRow; row <= lastRow; row++) {
-            getOrCreateCell(row, col).applyStyle(DEFAULT.withRightBorder(border));
+            getOrCreateCell(row, col).applyStyle(borderStyle);
         }
     }
 
     public void setLeftBorder(int firstRow, int lastRow, int col, BorderStyle border) {
+        SpreadsheetCellStyle borderStyle = DEFAULT.withLeftBorder(border);
         for (int row = firstRow; row <= lastRow; row++) {
-            getOrCreateCell(row, col).applyStyle(DEFAULT.withLeftBorder(border));
+            getOrCreateCell(row, col).applyStyle(borderStyle);
         }
     }
 
     public void setTopBorder(int row, int firstCol, int lastCol, BorderStyle border) {
+        SpreadsheetCellStyle borderStyle = DEFAULT.withTopBorder(border);
         for (int col = firstCol; col <= lastCol; col++) {
-            getOrCreateCell(row, col).applyStyle(DEFAULT.withTopBorder(border));
+            getOrCreateCell(row, col).applyStyle(borderStyle);
         }
     }
 
     public void setBottomBorder(int row, int firstCol, int lastCol, BorderStyle border) {
+        SpreadsheetCellStyle borderStyle = DEFAULT.withBottomBorder(border);
         for (int col = firstCol; col <= lastCol; col++) {
-            getOrCreateCell(row, col).applyStyle(DEFAULT.withBottomBorder(border));
+            getOrCreateCell(row, col).applyStyle(borderStyle);
         }
     }
 
@@ -321,27 +920,167 @@ public class SpreadsheetTab {
         return workbook.registerStyle(style);
     }
 
+    SpreadsheetWorkbook getWorkbook() {
+        return workbook;
+    }
+
+    CellBuffer getBuffer() {
+        return buffer;
+    }
+
+    int getStyleIdCacheCapacity() {
+        return styleIdCache.capacity();
+    }
+
+    public boolean isDeferred() {
+        return buffer != null;
+    }
+
+    boolean hasPictures() {
+        return drawing != null;
+    }
+
+    Cell getMaterializedPoiCell(int row, int col) {
+        CellBuffer.BufferedRow bufferedRow = buffer.getRow(row);
+        if (bufferedRow == null || bufferedRow.isDirty()) return null;
+        Row poiRow = sheet.getRow(row);
+        return poiRow != null ? poiRow.getCell(col) : null;
+    }
+
+    /**
+     * Creates the POI rows and cells for the values buffered by a deferred tab since it was last materialized.
+     * Called by SpreadsheetWorkbook.write; does nothing for a regular tab.
+     */
+    void materialize() {
+        if (buffer == null) return;
+
+        for (int rowNum = 0; rowNum <= buffer.getLastRow(); rowNum++) {
+            CellBuffer.BufferedRow bufferedRow = buffer.getRow(rowNum);
+            if (bufferedRow == null || !bufferedRow.isDirty()) continue;
+
+            Row row = getOrCreatePoiRow(rowNum);
+            row.setHeight(bufferedRow.height);
+            for (int col = 0; col <= bufferedRow.lastCol; col++) {
+                byte type = bufferedRow.types[col];
+                if (type == CellBuffer.NONE) continue;
+
+                Cell cell = row.getCell(col);
+                if (cell == null) {
+                    cell = row.createCell(col);
+                }
+                switch (type) {
+                    case CellBuffer.BLANK:
+                        cell.setCellValue((String)null);
+                        break;
+                    case CellBuffer.NUMERIC:
+                        cell.setCellValue(bufferedRow.numbers[col]);
+                        break;
+                    case CellBuffer.STRING:
+                        cell.setCellValue(buffer.getString(rowNum, col));
+                        break;
+                    case CellBuffer.FORMULA:
+                        cell.setCellFormula(buffer.getString(rowNum, col));
+                        break;
+                    case CellBuffer.BOOLEAN:
+                        cell.setCellValue(bufferedRow.numbers[col] != 0);
+                        break;
+                    case CellBuffer.RICH_TEXT:
+                        cell.setCellValue(buffer.getRichText(rowNum, col));
+                        break;
+                }
+
+                int styleId = bufferedRow.styles[col];
+                if (styleId != CellBuffer.NO_STYLE) {
+                    cell.setCellStyle(getPoiStyle(styleId));
+                }
+            }
+            bufferedRow.markMaterialized();
+        }
+
+        RangeStyles rangeStyles = buffer.getRangeStyles();
+        if (rangeStyles.size() != materializedRangeStyles) {
+            materializeRangeStyles(rangeStyles);
+            materializedRangeStyles = rangeStyles.size();
+        }
+
+        if (autosizeColsPending) {
+            setColWidths(estimateColWidths(new ColumnWidthEstimator(workbook)));
+        }
+    }
+
+    private void materializeRangeStyles(RangeStyles rangeStyles) {
+        int[] columnStyleIds = rangeStyles.getColumnStyleIds();
+        for (int col = 0; col < columnStyleIds.length; col++) {
+            if (columnStyleIds[col] != CellBuffer.NO_STYLE) {
+                sheet.setDefaultColumnStyle(col, getPoiStyle(columnStyleIds[col]));
+            }
+        }
+
+        BitSet columns = new BitSet();
+        for (int rowNum = 0; rowNum <= rangeStyles.getLastRow(); rowNum++) {
+            int rowStyleId = rangeStyles.getRowStyleId(rowNum);
+            rangeStyles.getExplicitColumns(rowNum, columns);
+            if (rowStyleId == CellBuffer.NO_STYLE && columns.isEmpty()) continue;
+
+            Row row = getOrCreatePoiRow(rowNum);
+            if (rowStyleId != CellBuffer.NO_STYLE) {
+                row.setRowStyle(getPoiStyle(rowStyleId));
+            }
+            for (int col = columns.nextSetBit(0); col >= 0; col = columns.nextSetBit(col + 1)) {
+                if (buffer.getType(rowNum, col) != CellBuffer.NONE) continue;
+                Cell cell = row.getCell(col);
+                if (cell == null) {
+                    cell = row.createCell(col);
+                }
+                cell.setCellStyle(getPoiStyle(rangeStyles.getStyleId(rowNum, col)));
+            }
+        }
+    }
+
+    /**
+     * Returns the workbook's id for the style, looking it up in the workbook only the first time this tab uses it.
+     */
+    int getStyleId(SpreadsheetCellStyle style) {
+        SpreadsheetCellStyle canonical = style.intern();
+        int id = styleIdCache.get(canonical);
+        if (id == CellBuffer.NO_STYLE) {
+            id = workbook.getStyleId(canonical);
+            styleIdCache.put(canonical, id);
+        }
+        return id;
+    }
+
+    private CellStyle getPoiStyle(int styleId) {
+        return workbook.registerStyle(workbook.getStyleById(styleId));
+    }
+
     public void addPicture(String cellAddress, byte[] bytes, int pictureType) {
-        CellReference cellRef = new CellReference(cellAddress);
-        addPicture(cellRef.getRow(), cellRef.getCol(), bytes, pictureType);
+        long address = CellAddresses.parse(cellAddress);
+        addPicture(CellAddresses.getRow(address), CellAddresses.getCol(address), bytes, pictureType);
     }
 
+    /**
+     * Pictures are added to the workbook's package, so this takes the workbook's lock.
+     */
     public void addPicture(int row, int col, byte[] bytes, int pictureType) {
-        if (drawing == null) {
-            drawing = sheet.createDrawingPatriarch();
-        }
+        synchronized (workbook) {
+            modified = true;
+            if (drawing == null) {
+                drawing = sheet.createDrawingPatriarch();
+            }
 
-        int pictureIndex = workbook.getPoiWorkbook().addPicture(bytes, pictureType);
-        //add a picture shape
-        ClientAnchor anchor = workbook.getPoiWorkbook().getCreationHelper().createClientAnchor();
-        //set top-left corner of the picture,
-        //subsequent call of Picture#resize() will operate relative to it
-        anchor.setCol1(col);
-        anchor.setRow1(row);
+            int pictureIndex = workbook.getXSSFWorkbook().addPicture(bytes, pictureType);
+            //add a picture shape
+            ClientAnchor anchor = workbook.getXSSFWorkbook().getCreationHelper().createClientAnchor();
+            //set top-left corner of the picture,
+            //subsequent call of Picture#resize() will operate relative to it
+            anchor.setCol1(col);
+            anchor.setRow1(row);
 
-        Picture pict = drawing.createPicture(anchor, pictureIndex);
-        //auto-size picture relative to its top-left corner
-        pict.resize();
+            Picture pict = drawing.createPicture(anchor, pictureIndex);
+            //auto-size picture relative to its top-left corner
+            pict.resize();
+        }
     }
 
 }
@@ -1,26 +1,61 @@
 package taro.spreadsheet.model;
 
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.*;
 
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.primitives.Shorts.checkedCast;
 
 public class SpreadsheetWorkbook {
 
+    private static final int INITIAL_REGISTRY_SIZE = 64;
+
     private XSSFWorkbook workbook;
+    private SXSSFWorkbook streamingWorkbook;
+    private boolean deferred;
+    private PipelinedWriter pipeline;
     private Map<Integer, SpreadsheetTab> tabsByIndex = newHashMap();
     private Map<String, SpreadsheetTab> tabsByTitle = newHashMap();
 
     private Map<SpreadsheetFont, Font> fontMap = newHashMap();
     private Map<SpreadsheetCellStyle, CellStyle> styleMap = newHashMap();
+    // the POI fonts and styles of the interned fonts and styles, at the index the CanonicalIds give them
+    private CanonicalIds poiFontIndexes = new CanonicalIds();
+    private Font[] poiFonts = new Font[INITIAL_REGISTRY_SIZE];
+    private CanonicalIds poiStyleIndexes = new CanonicalIds();
+    private CellStyle[] poiStyles = new CellStyle[INITIAL_REGISTRY_SIZE];
+    private CanonicalIds styleIds = new CanonicalIds();
+    private List<SpreadsheetCellStyle> stylesById = newArrayList();
+    private StyleCompositionCache composedStyles = new StyleCompositionCache();
+    private DataFormatter dataFormatter;
+    // the file the workbook was opened from, if any
+    private SourcePackage source;
+    private boolean readOnly;
 
     public SpreadsheetWorkbook() {
         this(new XSSFWorkbook());
@@ -30,60 +65,426 @@ public class SpreadsheetWorkbook {
         this(new XSSFWorkbook(opcPackage));
     }
     
+    /**
+     * Opens a workbook from a stream, as XSSFWorkbook(InputStream) does. Nothing is kept of the stream, so all the
+     * sheets are parsed and WriteOptions.withPassthrough has no effect; open the workbook from a File, a Path, a
+     * FileChannel or a stream spilled with OpenOptions.withSpillToTempFile for those.
+     */
     public SpreadsheetWorkbook(java.io.InputStream inputStream) throws IOException {
         this(new XSSFWorkbook(inputStream));
     }
 
+    /**
+     * Like SpreadsheetWorkbook(InputStream); with OpenOptions.withSpillToTempFile, the stream is copied to a
+     * temporary file that the workbook is opened from like SpreadsheetWorkbook(File, OpenOptions), which dispose()
+     * deletes.
+     */
+    public SpreadsheetWorkbook(java.io.InputStream inputStream, OpenOptions options) throws IOException {
+        this(options.isSpillToTempFile() ? SourcePackage.spill(inputStream) : null, inputStream, options);
+    }
+
+    public SpreadsheetWorkbook(File file) throws IOException {
+        this(file, OpenOptions.DEFAULT);
+    }
+
+    /**
+     * Opens a workbook from a file, reading the entries of the package from the file as POI needs them instead
+     * of loading the whole package. The file stays open until dispose() is called, and is never written to.
+     */
+    public SpreadsheetWorkbook(File file, OpenOptions options) throws IOException {
+        this(SourcePackage.ofFile(file), options);
+    }
+
+    public SpreadsheetWorkbook(Path path) throws IOException {
+        this(path.toFile(), OpenOptions.DEFAULT);
+    }
+
+    public SpreadsheetWorkbook(Path path, OpenOptions options) throws IOException {
+        this(path.toFile(), options);
+    }
+
+    public SpreadsheetWorkbook(FileChannel channel) throws IOException {
+        this(channel, OpenOptions.DEFAULT);
+    }
+
+    /**
+     * Like SpreadsheetWorkbook(File, OpenOptions), reading the package from the channel. The channel must stay
+     * open, and must not be read from elsewhere, until the workbook is disposed; dispose() leaves it open.
+     */
+    public SpreadsheetWorkbook(FileChannel channel, OpenOptions options) throws IOException {
+        this(SourcePackage.ofChannel(channel), options);
+    }
+
+    private SpreadsheetWorkbook(SourcePackage source, OpenOptions options) throws IOException {
+        this(source, null, options);
+    }
+
+    private SpreadsheetWorkbook(SourcePackage source, java.io.InputStream inputStream, OpenOptions options) throws IOException {
+        this(source != null ? source.openPoiWorkbook(options.isReadOnly()) : new XSSFWorkbook(inputStream));
+        this.source = source;
+        this.readOnly = options.isReadOnly();
+    }
+
+    /**
+     * Creates a workbook whose styles table is a copy of the palette's, with the palette's styles registered.
+     */
+    public SpreadsheetWorkbook(StylePalette palette) {
+        this(palette.newPoiWorkbook());
+        registerPalette(palette);
+    }
+
+    /**
+     * Creates a workbook that streams rows to temporary files as they are written. Only the most recent
+     * windowSize rows of each tab are kept in memory; reading or writing a row that has already been flushed
+     * throws a TaroSpreadsheetException. Call dispose() after writing to delete the temporary files.
+     */
+    public static SpreadsheetWorkbook streaming(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Streaming window size must be at least 1, was: " + windowSize);
+        }
+        return new SpreadsheetWorkbook(new SXSSFWorkbook(new XSSFWorkbook(), windowSize));
+    }
+
+    /**
+     * Like streaming(windowSize), seeded with the styles of the palette.
+     */
+    public static SpreadsheetWorkbook streaming(int windowSize, StylePalette palette) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Streaming window size must be at least 1, was: " + windowSize);
+        }
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(new SXSSFWorkbook(palette.newPoiWorkbook(), windowSize));
+        workbook.registerPalette(palette);
+        return workbook;
+    }
+
+    /**
+     * Creates a workbook whose new tabs buffer their values and styles in compact arrays and only create the
+     * POI rows and cells when the workbook is written. This uses far less memory per cell, but the POI cells
+     * of those tabs (getPoiCell(), the rows of getPoiSheet()) are not available until after write() is called.
+     * <p>
+     * Each tab of a deferred workbook can be created and filled from its own thread: the tabs keep their values
+     * in separate buffers, and the styles, fonts and tabs they share are registered under the workbook's lock,
+     * once per distinct style. A tab must only be used by one thread at a time, and write() must only be called
+     * once all the threads are done.
+     */
+    public static SpreadsheetWorkbook deferred() {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook();
+        workbook.deferred = true;
+        return workbook;
+    }
+
+    /**
+     * Like deferred(), seeded with the styles of the palette.
+     */
+    public static SpreadsheetWorkbook deferred(StylePalette palette) {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(palette);
+        workbook.deferred = true;
+        return workbook;
+    }
+
+    public static SpreadsheetWorkbook pipelined(OutputStream out, int windowSize) {
+        return pipelined(out, windowSize, WriteOptions.SPREADSHEETML);
+    }
+
+    /**
+     * Creates a deferred workbook that is written to out while it is being filled, so the first bytes reach the
+     * stream long before the last row is added. Only the most recent windowSize rows of the tab being filled are
+     * kept in memory: older rows are serialized and handed to a background thread that compresses them and
+     * writes them to out, and the filling thread waits when that thread falls behind. Call finish() once the
+     * workbook is complete; write() is not available.
+     * <p>
+     * The tabs are written one after the other in the order they are created, so creating a tab completes the
+     * previous one, and a row that has been written can no longer be modified (a TaroSpreadsheetException is
+     * thrown). Column widths and styles of whole columns must be set before the first rows of the tab leave the
+     * window, autosizeCols has no effect, and row bands and pictures are not supported. The workbook must be
+     * filled from a single thread. The compression settings of options are used; its engine is always
+     * SPREADSHEETML.
+     * <p>
+     * The background thread runs until finish() returns, so dispose() must be called in a finally block to stop
+     * it when filling the workbook fails:
+     * <pre>
+     * SpreadsheetWorkbook workbook = SpreadsheetWorkbook.pipelined(out, 1000);
+     * try {
+     *     SpreadsheetTab tab = workbook.createTab("Report");
+     *     ... fill the tab ...
+     *     workbook.finish();
+     * } finally {
+     *     workbook.dispose();
+     * }
+     * </pre>
+     */
+    public static SpreadsheetWorkbook pipelined(OutputStream out, int windowSize, WriteOptions options) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Pipeline window size must be at least 1, was: " + windowSize);
+        }
+        SpreadsheetWorkbook workbook = deferred();
+        workbook.pipeline = new PipelinedWriter(workbook, out, windowSize, options);
+        return workbook;
+    }
+
+    private SpreadsheetWorkbook(SXSSFWorkbook streamingWorkbook) {
+        this.workbook = streamingWorkbook.getXSSFWorkbook();
+        this.streamingWorkbook = streamingWorkbook;
+    }
+
+    /**
+     * Wraps a POI workbook. The tabs of its sheets are created the first time getTab returns them.
+     */
     public SpreadsheetWorkbook(XSSFWorkbook workbook) {
         this.workbook = workbook;
-        
-        if (workbook.getNumberOfSheets() > 0){
-            for (int index = 0; index < workbook.getNumberOfSheets(); index++ ){
-                XSSFSheet sheet = workbook.getSheetAt(index);
-                createExistingTab(sheet);
-            }
+    }
+
+    /**
+     * Registers the POI styles and fonts that the palette put in this workbook's styles table.
+     */
+    private void registerPalette(StylePalette palette) {
+        List<SpreadsheetCellStyle> styles = palette.getStyles();
+        for (int i = 0; i < styles.size(); i++) {
+            SpreadsheetCellStyle style = styles.get(i);
+            CellStyle cellStyle = workbook.getCellStyleAt(palette.getStyleIndex(i));
+            styleMap.put(style, cellStyle);
+            putPoiStyle(style.intern(), cellStyle);
+        }
+        List<SpreadsheetFont> fonts = palette.getFonts();
+        for (int i = 0; i < fonts.size(); i++) {
+            SpreadsheetFont font = fonts.get(i);
+            Font poiFont = workbook.getFontAt(palette.getFontIndex(i));
+            fontMap.put(font, poiFont);
+            putPoiFont(font.intern(), poiFont);
         }
     }
 
-    private void createExistingTab(XSSFSheet sheet) {
+    private SpreadsheetTab createExistingTab(int index) {
+        XSSFSheet sheet = workbook.getSheetAt(index);
+        if (workbook instanceof LazyXSSFWorkbook) {
+            ((LazyXSSFWorkbook) workbook).parseSheet(sheet);
+        }
         SpreadsheetTab tab = new SpreadsheetTab(this, sheet);
         tabsByTitle.put(sheet.getSheetName(), tab);
-        tabsByIndex.put(getPoiWorkbook().getSheetIndex(tab.getPoiSheet()), tab);
+        tabsByIndex.put(index, tab);
+        return tab;
     }
     
-    public SpreadsheetTab createTab(String title) {
+    public synchronized SpreadsheetTab createTab(String title) {
         if (getTab(title) != null) {
             throw new IllegalArgumentException("Workbook already has a sheet with title: " + title);
         }
         SpreadsheetTab tab = new SpreadsheetTab(this, title);
         tabsByTitle.put(title, tab);
-        tabsByIndex.put(getPoiWorkbook().getSheetIndex(tab.getPoiSheet()), tab);
+        tabsByIndex.put(workbook.getSheetIndex(title), tab);
+        if (pipeline != null) {
+            pipeline.startTab(tab);
+        }
         return tab;
     }
 
-    public SpreadsheetTab getTab(int index) {
-        return tabsByIndex.get(index);
+    /**
+     * Creates a tab that is a copy-on-write copy of the deferred tab of another workbook, see WorkbookPrototype.
+     * The style ids of the prototype's cells must mean the same styles in this workbook.
+     */
+    synchronized SpreadsheetTab copyTab(SpreadsheetTab prototype) {
+        String title = prototype.getTitle();
+        if (getTab(title) != null) {
+            throw new IllegalArgumentException("Workbook already has a sheet with title: " + title);
+        }
+        SpreadsheetTab tab = new SpreadsheetTab(this, prototype);
+        tabsByTitle.put(title, tab);
+        tabsByIndex.put(workbook.getSheetIndex(title), tab);
+        return tab;
     }
 
-  
+    Sheet createPoiSheet(String title) {
+        if (streamingWorkbook != null) {
+            SXSSFSheet sheet = streamingWorkbook.createSheet(title);
+            sheet.trackAllColumnsForAutoSizing();
+            return sheet;
+        }
+        return workbook.createSheet(title);
+    }
+
+    /**
+     * Returns the tab of the sheet at the index, or null if there is none. The tab of a sheet the workbook was
+     * opened with is created, and the sheet parsed, the first time it is returned.
+     */
+    public synchronized SpreadsheetTab getTab(int index) {
+        SpreadsheetTab tab = tabsByIndex.get(index);
+        if (tab == null && index >= 0 && index < workbook.getNumberOfSheets()) {
+            tab = createExistingTab(index);
+        }
+        return tab;
+    }
 
-    public SpreadsheetTab getTab(String title) {
-        return tabsByTitle.get(title);
+    /**
+     * Like getTab(int), for the sheet with exactly this title.
+     */
+    public synchronized SpreadsheetTab getTab(String title) {
+        SpreadsheetTab tab = tabsByTitle.get(title);
+        if (tab == null) {
+            int index = workbook.getSheetIndex(title);
+            if (index >= 0 && workbook.getSheetName(index).equals(title)) {
+                tab = getTab(index);
+            }
+        }
+        return tab;
     }
 
+    /**
+     * Returns the tab at the index if getTab already returned it, without creating it.
+     */
+    private synchronized SpreadsheetTab getCreatedTab(int index) {
+        return tabsByIndex.get(index);
+    }
+
+    /**
+     * Returns the underlying POI workbook. For a streaming workbook this is the backing XSSFWorkbook, which holds
+     * the styles, fonts and shared strings but not the rows of the tabs. The sheets of a workbook opened from a
+     * file or stream that were not parsed yet are parsed first.
+     */
     public XSSFWorkbook getPoiWorkbook() {
+        if (workbook instanceof LazyXSSFWorkbook) {
+            synchronized (this) {
+                ((LazyXSSFWorkbook) workbook).parseAllSheets();
+            }
+        }
         return workbook;
     }
 
-    public CellStyle registerStyle(SpreadsheetCellStyle style) {
-        CellStyle cellStyle = styleMap.get(style);
-        if (cellStyle == null) {
-            cellStyle = createNewStyle(style);
-            styleMap.put(style, cellStyle);
+    /**
+     * Like getPoiWorkbook, for the code of this package that does not need the sheets to be parsed.
+     */
+    XSSFWorkbook getXSSFWorkbook() {
+        return workbook;
+    }
+
+    public boolean isStreaming() {
+        return streamingWorkbook != null;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    public boolean isPipelined() {
+        return pipeline != null;
+    }
+
+    PipelinedWriter getPipeline() {
+        return pipeline;
+    }
+
+    public synchronized CellStyle registerStyle(SpreadsheetCellStyle style) {
+        SpreadsheetCellStyle canonical = style.intern();
+        int index = poiStyleIndexes.get(canonical);
+        if (index != 0) {
+            return poiStyles[index];
         }
+        CellStyle cellStyle = createNewStyle(canonical);
+        styleMap.put(canonical, cellStyle);
+        putPoiStyle(canonical, cellStyle);
         return cellStyle;
     }
 
+    private void putPoiStyle(SpreadsheetCellStyle canonical, CellStyle cellStyle) {
+        int index = poiStyleIndexes.get(canonical);
+        if (index == 0) {
+            index = poiStyleIndexes.size() + 1;
+            poiStyleIndexes.put(canonical, index);
+            if (index >= poiStyles.length) {
+                poiStyles = Arrays.copyOf(poiStyles, poiStyles.length * 2);
+            }
+        }
+        poiStyles[index] = cellStyle;
+    }
+
+    /**
+     * Returns base.apply(overlay) as an interned style. The result is memoized per pair of styles, so applying the
+     * same overlay to the same style again is a cache hit that allocates nothing.
+     */
+    synchronized SpreadsheetCellStyle composeStyle(SpreadsheetCellStyle base, SpreadsheetCellStyle overlay) {
+        return composedStyles.compose(base, overlay);
+    }
+
+    /**
+     * Returns how many times SpreadsheetCell.applyStyle found the composed style in this workbook's memo table.
+     */
+    public synchronized long getStyleCompositionHits() {
+        return composedStyles.getHits();
+    }
+
+    /**
+     * Returns how many times SpreadsheetCell.applyStyle had to compose a new style for this workbook.
+     */
+    public synchronized long getStyleCompositionMisses() {
+        return composedStyles.getMisses();
+    }
+
+    /**
+     * Formats the value of a cell with the formatter that the cells of this workbook share, which is created on
+     * first use as it builds its format caches eagerly.
+     */
+    synchronized String formatCellValue(Cell cell) {
+        return getDataFormatter().formatCellValue(cell);
+    }
+
+    synchronized String formatRawCellContents(double value, int formatIndex, String formatString) {
+        return getDataFormatter().formatRawCellContents(value, formatIndex, formatString);
+    }
+
+    private DataFormatter getDataFormatter() {
+        if (dataFormatter == null) {
+            dataFormatter = new DataFormatter();
+        }
+        return dataFormatter;
+    }
+
+    /**
+     * Returns a small positive id for the style, which deferred tabs store in place of the style itself. The ids
+     * are dense within the workbook, whatever other workbooks registered. Tabs cache the ids they use, see
+     * SpreadsheetTab.getStyleId.
+     */
+    synchronized int getStyleId(SpreadsheetCellStyle style) {
+        SpreadsheetCellStyle canonical = style.intern();
+        int id = styleIds.get(canonical);
+        if (id == CellBuffer.NO_STYLE) {
+            stylesById.add(canonical);
+            id = stylesById.size();
+            styleIds.put(canonical, id);
+        }
+        return id;
+    }
+
+    /**
+     * Gives the styles the ids 1 to styles.size(), in order, which a workbook that has not given any style an id
+     * yet does. Used to share buffered cells, which store these ids, between workbooks.
+     */
+    synchronized void seedStyleIds(List<SpreadsheetCellStyle> styles) {
+        if (!stylesById.isEmpty()) {
+            throw new IllegalStateException("The workbook has already given ids to styles.");
+        }
+        for (SpreadsheetCellStyle style : styles) {
+            getStyleId(style);
+        }
+    }
+
+    synchronized SpreadsheetCellStyle getStyleById(int id) {
+        return id == CellBuffer.NO_STYLE ? null : stylesById.get(id - 1);
+    }
+
+    /**
+     * Returns the styles that have been given ids, in id order (the style at index 0 has id 1).
+     */
+    synchronized List<SpreadsheetCellStyle> getRegisteredStyles() {
+        return Collections.unmodifiableList(stylesById);
+    }
+
+    /**
+     * Returns the length of the largest table the workbook keeps to look up its styles and fonts.
+     */
+    synchronized int getStyleRegistryCapacity() {
+        return Math.max(Math.max(poiFonts.length, poiStyles.length),
+                Math.max(Math.max(poiFontIndexes.capacity(), poiStyleIndexes.capacity()), styleIds.capacity()));
+    }
+
     private CellStyle createNewStyle(SpreadsheetCellStyle style) {
         XSSFCellStyle cellStyle = workbook.createCellStyle();
         if (style.getAlign() != null) cellStyle.setAlignment(style.getAlign());
@@ -119,14 +520,29 @@ public class SpreadsheetWorkbook {
     }
 
     private Font registerFont(SpreadsheetFont font) {
-        Font poiFont = fontMap.get(font);
-        if (poiFont == null) {
-            poiFont = createNewFont(font);
-            fontMap.put(font, poiFont);
+        SpreadsheetFont canonical = font.intern();
+        int index = poiFontIndexes.get(canonical);
+        if (index != 0) {
+            return poiFonts[index];
         }
+        Font poiFont = createNewFont(canonical);
+        fontMap.put(canonical, poiFont);
+        putPoiFont(canonical, poiFont);
         return poiFont;
     }
 
+    private void putPoiFont(SpreadsheetFont canonical, Font poiFont) {
+        int index = poiFontIndexes.get(canonical);
+        if (index == 0) {
+            index = poiFontIndexes.size() + 1;
+            poiFontIndexes.put(canonical, index);
+            if (index >= poiFonts.length) {
+                poiFonts = Arrays.copyOf(poiFonts, poiFonts.length * 2);
+            }
+        }
+        poiFonts[index] = poiFont;
+    }
+
     private Font createNewFont(SpreadsheetFont font) {
         XSSFFont poiFont = workbook.createFont();
         if (font.getBold() != null) poiFont.setBold(font.getBold());
@@ -141,7 +557,140 @@ public class SpreadsheetWorkbook {
     }
 
     public void write(OutputStream out) throws IOException {
-        workbook.write(out);
+        write(out, WriteOptions.DEFAULT);
+    }
+
+    /**
+     * Writes the workbook with the given options. The SPREADSHEETML engine is only available for deferred
+     * workbooks, and throws a TaroSpreadsheetException otherwise.
+     */
+    public void write(OutputStream out, WriteOptions options) throws IOException {
+        if (pipeline != null) {
+            throw new TaroSpreadsheetException("A pipelined workbook is written to its own stream; call finish() instead.");
+        }
+        if (readOnly) {
+            throw new TaroSpreadsheetException("The workbook was opened read-only and cannot be written.");
+        }
+        for (int index = 0; index < workbook.getNumberOfSheets(); index++) {
+            SpreadsheetTab tab = getCreatedTab(index);
+            if (tab != null) {
+                tab.mergeRowBands();
+            }
+        }
+        autosizePendingCols(options.getParallelism());
+        if (options.getEngine() == WriteOptions.Engine.SPREADSHEETML) {
+            if (!deferred) {
+                throw new TaroSpreadsheetException("Only deferred workbooks can be written with the SpreadsheetML engine.");
+            }
+            new SpreadsheetMLWriter(this, options).write(out);
+            return;
+        }
+        for (int index = 0; index < workbook.getNumberOfSheets(); index++) {
+            SpreadsheetTab tab = getCreatedTab(index);
+            if (tab != null) {
+                tab.materialize();
+            }
+        }
+        if (options.isPassthrough() && source != null && writePassthrough(out, options)) {
+            return;
+        }
+        if (streamingWorkbook != null) {
+            streamingWorkbook.write(out);
+        } else {
+            workbook.write(out);
+        }
+    }
+
+    /**
+     * Writes the workbook by copying the parts it did not modify from its source, and returns false without
+     * writing anything if it has parts that are not in the source.
+     */
+    private boolean writePassthrough(OutputStream out, WriteOptions options) throws IOException {
+        List<SpreadsheetTab> tabs = newArrayList();
+        for (int index = 0; index < workbook.getNumberOfSheets(); index++) {
+            SpreadsheetTab tab = getCreatedTab(index);
+            if (tab != null) {
+                tabs.add(tab);
+            }
+        }
+        PassthroughWriter writer = new PassthroughWriter(workbook, tabs, source, options);
+        ZipFile zipFile = source.open();
+        try {
+            if (!writer.canWrite(zipFile)) {
+                return false;
+            }
+            writer.write(zipFile, out);
+            return true;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Sizes the columns of the deferred tabs whose autosizeCols was called, measuring the tabs on up to
+     * parallelism threads.
+     */
+    private void autosizePendingCols(int parallelism) throws IOException {
+        List<SpreadsheetTab> tabs = newArrayList();
+        for (int index = 0; index < workbook.getNumberOfSheets(); index++) {
+            SpreadsheetTab tab = getCreatedTab(index);
+            if (tab != null && tab.isAutosizeColsPending()) {
+                tabs.add(tab);
+            }
+        }
+        if (parallelism <= 1 || tabs.size() <= 1) {
+            for (SpreadsheetTab tab : tabs) {
+                tab.setColWidths(tab.estimateColWidths(new ColumnWidthEstimator(this)));
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tabs.size()));
+        try {
+            List<Future<int[]>> widths = newArrayList();
+            for (final SpreadsheetTab tab : tabs) {
+                widths.add(executor.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        return tab.estimateColWidths(new ColumnWidthEstimator(SpreadsheetWorkbook.this));
+                    }
+                }));
+            }
+            for (int i = 0; i < tabs.size(); i++) {
+                tabs.get(i).setColWidths(ZipPartWriter.get(widths.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the rest of a pipelined workbook to its stream, and returns once all of it has been written. The
+     * stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (pipeline == null) {
+            throw new TaroSpreadsheetException("Only pipelined workbooks can be finished; call write() instead.");
+        }
+        pipeline.finish();
+    }
+
+    /**
+     * Deletes the temporary files backing a streaming workbook, or stops the background thread of a pipelined
+     * workbook that has not been finished, leaving its output incomplete. Closes the file a workbook was opened
+     * from without writing to it, and deletes the file it was spilled to. Does nothing for a new regular workbook.
+     */
+    public void dispose() {
+        if (streamingWorkbook != null) {
+            streamingWorkbook.dispose();
+        }
+        if (pipeline != null) {
+            pipeline.abort();
+        }
+        if (source != null) {
+            workbook.getPackage().revert();
+            source.close();
+        }
     }
 
     public Map<SpreadsheetCellStyle, CellStyle> getCellStyles() {
@@ -0,0 +1,89 @@
+package taro.spreadsheet.model;
+
+/**
+ * Memo table for SpreadsheetCellStyle.apply, keyed by the ids this cache gives the canonical instances of the base
+ * style and the style applied to it. Keys are packed into a long and stored with open addressing, so a lookup
+ * allocates nothing. Counts hits and misses so callers can see how well repeated overlays (borders, highlights)
+ * are being reused.
+ */
+class StyleCompositionCache {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final CanonicalIds styleIds = new CanonicalIds();
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private SpreadsheetCellStyle[] values = new SpreadsheetCellStyle[INITIAL_CAPACITY];
+    private int size;
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns the interned result of base.apply(overlay), composing it only the first time the pair is seen.
+     */
+    SpreadsheetCellStyle compose(SpreadsheetCellStyle base, SpreadsheetCellStyle overlay) {
+        long key = ((long) getStyleId(base) << 32) | getStyleId(overlay);
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                hits++;
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        misses++;
+        SpreadsheetCellStyle composed = base.apply(overlay).intern();
+        keys[index] = key;
+        values[index] = composed;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return composed;
+    }
+
+    private int getStyleId(SpreadsheetCellStyle style) {
+        SpreadsheetCellStyle canonical = style.intern();
+        int id = styleIds.get(canonical);
+        if (id == 0) {
+            id = styleIds.size() + 1;
+            styleIds.put(canonical, id);
+        }
+        return id;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        SpreadsheetCellStyle[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new SpreadsheetCellStyle[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = hash(oldKeys[i]) & mask;
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
@@ -0,0 +1,181 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTBorders;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCellXfs;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTFills;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTFonts;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTNumFmt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTNumFmts;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTStylesheet;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.StyleSheetDocument;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * A set of styles compiled once into the fonts, fills, borders, number formats and cell formats of a POI styles
+ * table, to seed new workbooks with. A workbook created from a palette starts with a copy of that styles table
+ * and with the palette's styles already registered, so registering them does not create any POI style, font
+ * or data format; styles that are not in the palette are registered as usual.
+ * <p>
+ * A palette is immutable and can seed any number of workbooks, from any thread:
+ * <pre>
+ * static final StylePalette PALETTE = StylePalette.compile(TITLE, HEADER, CENTER_ONE_DECIMAL, MONEY);
+ * ...
+ * SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(PALETTE);
+ * </pre>
+ * Only the POI styles table is seeded: the SpreadsheetML engine writes the styles the tabs use from the
+ * registered styles, as it does for any workbook.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class StylePalette {
+
+    private final List<SpreadsheetCellStyle> styles;
+    private final int[] styleIndexes;
+    private final List<SpreadsheetFont> fonts;
+    private final int[] fontIndexes;
+
+    // the fonts, fills, borders, cell formats and number formats that compiling added to the styles table of a
+    // new workbook, as a stylesheet that StylesTable.readFrom appends to the table of another new workbook
+    private final byte[] additions;
+    private final int fontCount;
+    private final int fillCount;
+    private final int borderCount;
+    private final int cellStyleCount;
+
+    private StylePalette(List<SpreadsheetCellStyle> styles, int[] styleIndexes, List<SpreadsheetFont> fonts,
+                         int[] fontIndexes, StylesTable base, StylesTable compiled) {
+        this.styles = Collections.unmodifiableList(styles);
+        this.styleIndexes = styleIndexes;
+        this.fonts = Collections.unmodifiableList(fonts);
+        this.fontIndexes = fontIndexes;
+        this.fontCount = compiled.getFonts().size();
+        this.fillCount = compiled.getFills().size();
+        this.borderCount = compiled.getBorders().size();
+        this.cellStyleCount = compiled.getNumCellStyles();
+
+        StyleSheetDocument document = StyleSheetDocument.Factory.newInstance();
+        CTStylesheet stylesheet = document.addNewStyleSheet();
+        CTNumFmts numberFormats = stylesheet.addNewNumFmts();
+        for (Map.Entry<Short, String> numberFormat : compiled.getNumberFormats().entrySet()) {
+            if (base.getNumberFormats().containsKey(numberFormat.getKey())) continue;
+            CTNumFmt ctNumberFormat = numberFormats.addNewNumFmt();
+            ctNumberFormat.setNumFmtId(numberFormat.getKey());
+            ctNumberFormat.setFormatCode(numberFormat.getValue());
+        }
+        CTFonts ctFonts = stylesheet.addNewFonts();
+        for (int i = base.getFonts().size(); i < fontCount; i++) {
+            ctFonts.addNewFont().set(compiled.getFontAt(i).getCTFont());
+        }
+        CTFills ctFills = stylesheet.addNewFills();
+        for (int i = base.getFills().size(); i < fillCount; i++) {
+            ctFills.addNewFill().set(compiled.getFillAt(i).getCTFill());
+        }
+        CTBorders ctBorders = stylesheet.addNewBorders();
+        for (int i = base.getBorders().size(); i < borderCount; i++) {
+            ctBorders.addNewBorder().set(compiled.getBorderAt(i).getCTBorder());
+        }
+        CTCellXfs ctXfs = stylesheet.addNewCellXfs();
+        for (int i = base.getNumCellStyles(); i < cellStyleCount; i++) {
+            ctXfs.addNewXf().set(compiled.getCellXfAt(i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            document.save(out);
+        } catch (IOException ex) {
+            throw new TaroSpreadsheetException("Failed to compile the style palette.", ex);
+        }
+        this.additions = out.toByteArray();
+    }
+
+    public static StylePalette compile(SpreadsheetCellStyle... styles) {
+        return compile(Arrays.asList(styles));
+    }
+
+    /**
+     * Registers the styles with a new workbook and keeps its styles table. Equal styles are compiled once.
+     */
+    public static StylePalette compile(Collection<SpreadsheetCellStyle> styles) {
+        StylesTable base = new XSSFWorkbook().getStylesSource();
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook();
+
+        Map<SpreadsheetCellStyle, Integer> styleIndexes = newLinkedHashMap();
+        Map<SpreadsheetFont, Integer> fontIndexes = newLinkedHashMap();
+        for (SpreadsheetCellStyle style : styles) {
+            SpreadsheetCellStyle canonical = style.intern();
+            if (styleIndexes.containsKey(canonical)) continue;
+            XSSFCellStyle cellStyle = (XSSFCellStyle) workbook.registerStyle(canonical);
+            styleIndexes.put(canonical, (int) cellStyle.getIndex());
+            if (canonical.getFont() != null) {
+                fontIndexes.put(canonical.getFont().intern(), cellStyle.getFontIndexAsInt());
+            }
+        }
+        return new StylePalette(newArrayList(styleIndexes.keySet()), toArray(styleIndexes.values()),
+                newArrayList(fontIndexes.keySet()), toArray(fontIndexes.values()),
+                base, workbook.getPoiWorkbook().getStylesSource());
+    }
+
+    private static int[] toArray(Collection<Integer> values) {
+        int[] array = new int[values.size()];
+        int i = 0;
+        for (Integer value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    /**
+     * Returns the styles of the palette, as interned styles.
+     */
+    public List<SpreadsheetCellStyle> getStyles() {
+        return styles;
+    }
+
+    public boolean contains(SpreadsheetCellStyle style) {
+        return styles.contains(style.intern());
+    }
+
+    /**
+     * Returns a new POI workbook whose styles table holds the palette's styles at the indexes of getStyleIndex.
+     */
+    XSSFWorkbook newPoiWorkbook() {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        StylesTable table = workbook.getStylesSource();
+        try {
+            table.readFrom(new ByteArrayInputStream(additions));
+        } catch (IOException ex) {
+            throw new TaroSpreadsheetException("Failed to copy the style palette.", ex);
+        }
+        if (table.getFonts().size() != fontCount || table.getFills().size() != fillCount
+                || table.getBorders().size() != borderCount || table.getNumCellStyles() != cellStyleCount) {
+            throw new TaroSpreadsheetException("The styles table of a new workbook differs from the one the palette was compiled against.");
+        }
+        return workbook;
+    }
+
+    int getStyleIndex(int i) {
+        return styleIndexes[i];
+    }
+
+    List<SpreadsheetFont> getFonts() {
+        return fonts;
+    }
+
+    int getFontIndex(int i) {
+        return fontIndexes[i];
+    }
+
+}
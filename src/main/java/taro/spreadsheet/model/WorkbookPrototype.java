@@ -0,0 +1,71 @@
+package taro.spreadsheet.model;
+
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * A frozen copy of a deferred workbook, from which new workbooks are stamped out for reports that share a
+ * skeleton of tabs, headers, column widths, merged regions and pictures. A new workbook shares the cells of the
+ * prototype: each of its tabs copies a row only when it modifies it, so a workbook costs memory and time for the
+ * rows it writes rather than for the whole skeleton. It gives the styles of the prototype the same ids, which is
+ * all its tabs need of them until they are materialized into POI cells.
+ * <pre>
+ * WorkbookPrototype prototype = WorkbookPrototype.freeze(skeleton);
+ * ...
+ * SpreadsheetWorkbook report = prototype.newWorkbook();
+ * report.getTab("Data").setValues(2, 0, rows);
+ * report.write(out);
+ * </pre>
+ * The workbook that was frozen can still be modified, which does not change the prototype. A prototype is
+ * immutable, and new workbooks can be created from it on several threads at once.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class WorkbookPrototype {
+
+    private final SpreadsheetWorkbook frozen;
+    private final List<SpreadsheetCellStyle> styles;
+    private final int tabCount;
+
+    private WorkbookPrototype(SpreadsheetWorkbook frozen, List<SpreadsheetCellStyle> styles, int tabCount) {
+        this.frozen = frozen;
+        this.styles = styles;
+        this.tabCount = tabCount;
+    }
+
+    /**
+     * Freezes the current state of a deferred workbook. Pending row bands are merged into their tabs first.
+     */
+    public static WorkbookPrototype freeze(SpreadsheetWorkbook workbook) {
+        if (!workbook.isDeferred() || workbook.isPipelined()) {
+            throw new TaroSpreadsheetException("Only deferred workbooks that are not pipelined can be frozen as prototypes.");
+        }
+        synchronized (workbook) {
+            List<SpreadsheetCellStyle> styles = newArrayList(workbook.getRegisteredStyles());
+            SpreadsheetWorkbook frozen = SpreadsheetWorkbook.deferred();
+            frozen.seedStyleIds(styles);
+            int tabCount = workbook.getXSSFWorkbook().getNumberOfSheets();
+            for (int index = 0; index < tabCount; index++) {
+                SpreadsheetTab tab = workbook.getTab(index);
+                tab.mergeRowBands();
+                frozen.copyTab(tab);
+            }
+            return new WorkbookPrototype(frozen, styles, tabCount);
+        }
+    }
+
+    /**
+     * Creates a deferred workbook with the tabs of the prototype.
+     */
+    public SpreadsheetWorkbook newWorkbook() {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        workbook.seedStyleIds(styles);
+        for (int index = 0; index < tabCount; index++) {
+            workbook.copyTab(frozen.getTab(index));
+        }
+        return workbook;
+    }
+
+}
@@ -0,0 +1,203 @@
+package taro.spreadsheet.model;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options for SpreadsheetWorkbook.write. Like SpreadsheetCellStyle, options are immutable and each withX method
+ * returns a modified copy, so they can be defined once as constants and shared.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class WriteOptions {
+
+    /**
+     * The engine that serializes the workbook.
+     */
+    public enum Engine {
+        /** Materializes the workbook into POI's XSSF object model and lets POI write it. Supports everything. */
+        XSSF,
+        /**
+         * Serializes the tabs, cells, styles, fonts and merged regions of a deferred workbook straight to
+         * SpreadsheetML, without building the XSSF object model. Does not support pictures. The sheet views (frozen
+         * panes, zoom and selections) are copied from the POI sheets; other sheet settings besides the column widths
+         * and the default row height are not written.
+         */
+        SPREADSHEETML
+    }
+
+    /**
+     * How the SPREADSHEETML engine writes the strings of the cells.
+     */
+    public enum SharedStrings {
+        /** Every string is written once to the workbook's shared string table, and the cells refer to it. */
+        SHARED,
+        /** Every string is written inline in its cell, so no table of all the strings is kept while writing. */
+        INLINE,
+        /**
+         * Each column of each tab starts out shared, and switches to inline strings if most of the first strings
+         * of the column turned out to be unique, as for identifiers or free text.
+         */
+        AUTO
+    }
+
+    public static final WriteOptions DEFAULT = new WriteOptions();
+    public static final WriteOptions SPREADSHEETML = DEFAULT.withEngine(Engine.SPREADSHEETML);
+
+    private Engine engine = Engine.XSSF;
+    private int parallelism = 1;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int storedBelow;
+    private int deflateBlockSize;
+    private SharedStrings sharedStrings = SharedStrings.SHARED;
+    private int maxSharedStrings;
+    private boolean passthrough;
+
+    public WriteOptions copy() {
+        WriteOptions copy = new WriteOptions();
+        copy.engine = engine;
+        copy.parallelism = parallelism;
+        copy.compressionLevel = compressionLevel;
+        copy.storedBelow = storedBelow;
+        copy.deflateBlockSize = deflateBlockSize;
+        copy.sharedStrings = sharedStrings;
+        copy.maxSharedStrings = maxSharedStrings;
+        copy.passthrough = passthrough;
+        return copy;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public WriteOptions withEngine(Engine engine) {
+        WriteOptions copy = this.copy();
+        copy.engine = engine;
+        return copy;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads the SPREADSHEETML engine uses to serialize and compress the sheets of a
+     * multi-tab workbook. Each sheet is then produced on a worker and the finished entries are added to the
+     * output in order. The default, 1, writes everything on the calling thread without buffering any sheet.
+     * The XSSF engine always writes on the calling thread, as POI saves its package one part at a time.
+     */
+    public WriteOptions withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, was: " + parallelism);
+        }
+        WriteOptions copy = this.copy();
+        copy.parallelism = parallelism;
+        return copy;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level of the parts written by the SPREADSHEETML engine, from Deflater.BEST_SPEED (1) to
+     * Deflater.BEST_COMPRESSION (9), or Deflater.DEFAULT_COMPRESSION (-1), the default.
+     */
+    public WriteOptions withCompressionLevel(int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION
+                && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        WriteOptions copy = this.copy();
+        copy.compressionLevel = compressionLevel;
+        return copy;
+    }
+
+    public int getStoredBelow() {
+        return storedBelow;
+    }
+
+    /**
+     * Makes the SPREADSHEETML engine store the parts smaller than the given number of bytes (such as the
+     * relationships and the workbook part) without compressing them, as deflating them costs more time than it
+     * saves space. The default, 0, deflates every part.
+     */
+    public WriteOptions withStoredBelow(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The stored threshold cannot be negative, was: " + bytes);
+        }
+        WriteOptions copy = this.copy();
+        copy.storedBelow = bytes;
+        return copy;
+    }
+
+    public int getDeflateBlockSize() {
+        return deflateBlockSize;
+    }
+
+    /**
+     * With a parallelism above 1, makes the SPREADSHEETML engine deflate each part in blocks of the given number
+     * of bytes on the worker threads, so that a single large sheet is compressed on several cores. The sheets are
+     * then serialized one after the other on the calling thread, and each part is kept compressed in memory until
+     * it is complete. Blocks must be at least 64 KiB; the output is slightly larger than with a single deflate
+     * stream. The default, 0, deflates each part as one stream.
+     */
+    public WriteOptions withDeflateBlockSize(int bytes) {
+        if (bytes != 0 && bytes < 64 * 1024) {
+            throw new IllegalArgumentException("The deflate block size must be 0 or at least 64 KiB, was: " + bytes);
+        }
+        WriteOptions copy = this.copy();
+        copy.deflateBlockSize = bytes;
+        return copy;
+    }
+
+    public SharedStrings getSharedStrings() {
+        return sharedStrings;
+    }
+
+    /**
+     * Sets how the SPREADSHEETML engine writes strings; see SharedStrings. The default is SHARED. The XSSF engine
+     * always uses POI's shared string table. Rich text is always shared.
+     */
+    public WriteOptions withSharedStrings(SharedStrings sharedStrings) {
+        WriteOptions copy = this.copy();
+        copy.sharedStrings = sharedStrings;
+        return copy;
+    }
+
+    public int getMaxSharedStrings() {
+        return maxSharedStrings;
+    }
+
+    /**
+     * Bounds the number of distinct strings the SPREADSHEETML engine keeps in the shared string table. Once the
+     * table is full, strings that are not in it yet are written inline. The default, 0, is unbounded.
+     */
+    public WriteOptions withMaxSharedStrings(int maxSharedStrings) {
+        if (maxSharedStrings < 0) {
+            throw new IllegalArgumentException("The maximum number of shared strings cannot be negative, was: "
+                    + maxSharedStrings);
+        }
+        WriteOptions copy = this.copy();
+        copy.maxSharedStrings = maxSharedStrings;
+        return copy;
+    }
+
+    public boolean isPassthrough() {
+        return passthrough;
+    }
+
+    /**
+     * Makes the XSSF engine write a workbook that was opened from an existing file by copying the parts it did not
+     * modify from that file as they were compressed, without inflating or parsing them. A workbook opened from an
+     * InputStream only has a file to copy from with OpenOptions.withSpillToTempFile. Only the sheets of the
+     * modified tabs are serialized, along with the shared strings and styles if they changed. A tab counts as
+     * modified once anything was written to it or one of its POI cells or its POI sheet was obtained. Changes made through the POI
+     * workbook to other parts, such as the defined names, are not written. A workbook that has new parts, such as
+     * new tabs or pictures, is written in full. The default is false.
+     */
+    public WriteOptions withPassthrough(boolean passthrough) {
+        WriteOptions copy = this.copy();
+        copy.passthrough = passthrough;
+        return copy;
+    }
+
+}
@@ -0,0 +1,333 @@
+package taro.spreadsheet.model;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the parts of a package into a ZIP following the compression settings of WriteOptions. A part is buffered
+ * until it reaches the stored threshold, so smaller parts are stored; larger ones are deflated at the configured
+ * level, either streamed into the ZIP, or, with a block size and an executor, in independent blocks on the
+ * executor's threads. Like pigz, each block is deflated with the last 32 KiB of the block before it as its
+ * dictionary and ends on a byte boundary, so the blocks concatenate into one deflate stream.
+ */
+class ZipPartWriter {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ZipArchiveOutputStream zip;
+    private final WriteOptions options;
+    private final ExecutorService blockExecutor;
+
+    /**
+     * blockExecutor deflates the blocks of the parts opened on this writer, if the options have a block size;
+     * it may be null.
+     */
+    ZipPartWriter(OutputStream out, WriteOptions options, ExecutorService blockExecutor) {
+        this.zip = new ZipArchiveOutputStream(out);
+        this.zip.setLevel(options.getCompressionLevel());
+        this.options = options;
+        this.blockExecutor = options.getDeflateBlockSize() > 0 ? blockExecutor : null;
+    }
+
+    /**
+     * Starts a part; closing the returned writer adds it to the ZIP. Only one part can be open at a time.
+     */
+    Writer openPart(String name) {
+        return newWriter(openPartStream(name));
+    }
+
+    /**
+     * Like openPart, for a part written as bytes.
+     */
+    OutputStream openPartStream(String name) {
+        return new Part(name, options, this);
+    }
+
+    /**
+     * Returns a part that is compressed in memory, and can be written on another thread. Once it is closed, add
+     * it to the ZIP with addPart.
+     */
+    static Part newDetachedPart(String name, WriteOptions options) {
+        return new Part(name, options, null);
+    }
+
+    static Writer newWriter(OutputStream part) {
+        return new BufferedWriter(new OutputStreamWriter(part, UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Copies an entry of another ZIP as it is compressed there.
+     */
+    void copyRawEntry(ZipFile source, ZipArchiveEntry entry) throws IOException {
+        InputStream raw = source.getRawInputStream(entry);
+        try {
+            zip.addRawArchiveEntry(entry, raw);
+        } finally {
+            raw.close();
+        }
+    }
+
+    void addPart(Part part) throws IOException {
+        part.addTo(zip);
+    }
+
+    void finish() throws IOException {
+        zip.finish();
+    }
+
+    /**
+     * Returns the result of a task, rethrowing what it threw.
+     */
+    static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part to be compressed.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new TaroSpreadsheetException("Failed to write a part.", cause);
+        }
+    }
+
+    /**
+     * The content of one part. Closing it finishes the compression and, for a part opened on a ZipPartWriter,
+     * adds it to the ZIP.
+     */
+    static class Part extends OutputStream {
+        private final String name;
+        private final int level;
+        private final int storedBelow;
+        private final ZipPartWriter writer;
+        private final CRC32 crc = new CRC32();
+        private long size;
+
+        private byte[] pending = new byte[0];
+        private int pendingLength;
+        private boolean started;
+        private boolean stored;
+
+        // a part deflated in memory, by a DeflaterOutputStream or as blocks
+        private ByteArrayOutputStream compressed;
+        private Deflater deflater;
+        private DeflaterOutputStream deflaterStream;
+
+        private byte[] block;
+        private int blockLength;
+        private byte[] dictionary;
+        private final List<Future<byte[]>> blocks = newArrayList();
+        private int blocksCollected;
+
+        private final byte[] oneByte = new byte[1];
+
+        Part(String name, WriteOptions options, ZipPartWriter writer) {
+            this.name = name;
+            this.level = options.getCompressionLevel();
+            this.storedBelow = options.getStoredBelow();
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            oneByte[0] = (byte) b;
+            write(oneByte, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            crc.update(b, off, len);
+            size += len;
+            if (!started) {
+                if (size < storedBelow) {
+                    if (pendingLength + len > pending.length) {
+                        pending = Arrays.copyOf(pending, Math.min(storedBelow, Math.max(pending.length * 2, pendingLength + len)));
+                    }
+                    System.arraycopy(b, off, pending, pendingLength, len);
+                    pendingLength += len;
+                    return;
+                }
+                start();
+            }
+            compress(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!started && size < storedBelow) {
+                stored = true;
+            } else {
+                if (!started) {
+                    start();
+                }
+                finishCompression();
+            }
+            if (writer != null) {
+                if (deflater == null && compressed == null && !stored) {
+                    writer.zip.closeArchiveEntry();
+                } else {
+                    addTo(writer.zip);
+                }
+            }
+        }
+
+        private void start() throws IOException {
+            started = true;
+            if (writer == null || writer.blockExecutor != null) {
+                compressed = new ByteArrayOutputStream();
+                if (writer == null) {
+                    deflater = new Deflater(level, true);
+                    deflaterStream = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+                } else {
+                    block = new byte[writer.options.getDeflateBlockSize()];
+                }
+            } else {
+                writer.zip.putArchiveEntry(new ZipArchiveEntry(name));
+            }
+            if (pendingLength > 0) {
+                compress(pending, 0, pendingLength);
+            }
+            pending = null;
+        }
+
+        private void compress(byte[] b, int off, int len) throws IOException {
+            if (deflaterStream != null) {
+                deflaterStream.write(b, off, len);
+            } else if (block != null) {
+                while (len > 0) {
+                    int count = Math.min(len, block.length - blockLength);
+                    System.arraycopy(b, off, block, blockLength, count);
+                    blockLength += count;
+                    off += count;
+                    len -= count;
+                    if (blockLength == block.length) {
+                        submitBlock(false);
+                    }
+                }
+            } else {
+                writer.zip.write(b, off, len);
+            }
+        }
+
+        private void finishCompression() throws IOException {
+            if (deflaterStream != null) {
+                deflaterStream.finish();
+                deflater.end();
+            } else if (block != null) {
+                submitBlock(true);
+                collectBlocks(blocks.size());
+                block = null;
+            }
+        }
+
+        private void submitBlock(boolean last) throws IOException {
+            byte[] data = block;
+            int length = blockLength;
+            blocks.add(writer.blockExecutor.submit(new BlockTask(data, length, dictionary, level, last)));
+            if (!last) {
+                dictionary = Arrays.copyOfRange(data, length - DICTIONARY_SIZE, length);
+                block = new byte[data.length];
+                blockLength = 0;
+                // keeps a bounded number of blocks in memory while the executor catches up
+                collectBlocks(blocks.size() - 2 * writer.options.getParallelism());
+            }
+        }
+
+        private void collectBlocks(int count) throws IOException {
+            while (blocksCollected < count) {
+                compressed.write(get(blocks.get(blocksCollected)));
+                blocks.set(blocksCollected++, null);
+            }
+        }
+
+        private void addTo(ZipArchiveOutputStream zip) throws IOException {
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setCrc(crc.getValue());
+            entry.setSize(size);
+            if (stored) {
+                entry.setMethod(ZipEntry.STORED);
+                entry.setCompressedSize(size);
+                zip.addRawArchiveEntry(entry, new ByteArrayInputStream(pending, 0, pendingLength));
+            } else {
+                entry.setMethod(ZipEntry.DEFLATED);
+                entry.setCompressedSize(compressed.size());
+                zip.addRawArchiveEntry(entry, new ByteArrayInputStream(compressed.toByteArray()));
+            }
+        }
+    }
+
+    /**
+     * Deflates one block of a part, ending it with a sync flush so the next block can follow it, or as the end of
+     * the deflate stream if it is the last one.
+     */
+    private static class BlockTask implements Callable<byte[]> {
+        private final byte[] data;
+        private final int length;
+        private final byte[] dictionary;
+        private final int level;
+        private final boolean last;
+
+        BlockTask(byte[] data, int length, byte[] dictionary, int level, boolean last) {
+            this.data = data;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(data, 0, length);
+                if (last) {
+                    deflater.finish();
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (true) {
+                    int count = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                    if (last ? deflater.finished() : count < buffer.length) {
+                        return out.toByteArray();
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+}
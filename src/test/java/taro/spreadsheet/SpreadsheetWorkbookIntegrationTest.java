@@ -3,7 +3,11 @@ package taro.spreadsheet;
 
 import org.apache.poi.ss.usermodel.BorderStyle;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 import taro.spreadsheet.model.SpreadsheetCellStyle;
 import taro.spreadsheet.model.SpreadsheetTab;
 import taro.spreadsheet.model.SpreadsheetWorkbook;
@@ -12,17 +16,54 @@ import java.awt.*;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.within;
 
+@RunWith(Parameterized.class)
 public class SpreadsheetWorkbookIntegrationTest {
 
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> modes() {
+        return Arrays.asList(new Object[][] {
+                { "xssf" },
+                { "streaming" },
+                { "deferred" }
+        });
+    }
+
+    private final String mode;
+    private SpreadsheetWorkbook workbook;
+
+    public SpreadsheetWorkbookIntegrationTest(String mode) {
+        this.mode = mode;
+    }
+
+    @After
+    public void dispose() {
+        if (workbook != null) {
+            workbook.dispose();
+        }
+    }
+
+    private SpreadsheetWorkbook createWorkbook() {
+        if (mode.equals("streaming")) {
+            workbook = SpreadsheetWorkbook.streaming(10);
+        } else if (mode.equals("deferred")) {
+            workbook = SpreadsheetWorkbook.deferred();
+        } else {
+            workbook = new SpreadsheetWorkbook();
+        }
+        return workbook;
+    }
+
     @Test
     public void createAndVerifyExcelFile() throws IOException {
         // Create a spreadsheet with one tab
-        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook();
+        SpreadsheetWorkbook workbook = createWorkbook();
         SpreadsheetTab tab = workbook.createTab("Test Tab");
         tab.setValue("A1", "Some text", SpreadsheetCellStyle.HEADER.withBackgroundColor(Color.RED));
         tab.setValue("A2", "Some subtext");
@@ -66,6 +107,33 @@ public class SpreadsheetWorkbookIntegrationTest {
                 .isEqualTo(date);
     }
 
+    @Test
+    public void writesMoreRowsThanTheStreamingWindow() throws IOException {
+        SpreadsheetWorkbook workbook = createWorkbook();
+        SpreadsheetTab tab = workbook.createTab("Many Rows");
+        SpreadsheetCellStyle style = SpreadsheetCellStyle.CENTER_ONE_DECIMAL;
+        for (int row = 0; row < 500; row++) {
+            tab.setValue(row, 0, "row " + row);
+            tab.setValue(row, 1, row * 1.5, style);
+        }
+
+        byte[] excelFileBytes = writeExcelFileBytes(workbook);
+        SpreadsheetReader reader = getReader(excelFileBytes);
+
+        assertThat(reader.getNumRows())
+                .isEqualTo(500);
+        assertThat(reader.getStringValue("A1"))
+                .isEqualTo("row 0");
+        assertThat(reader.getStringValue("A500"))
+                .isEqualTo("row 499");
+        assertThat(reader.getNumericValue("B300"))
+                .isCloseTo(448.5, within(0.001));
+        assertThat(reader.getCell("B300").getCellStyle().getDataFormatString())
+                .isEqualTo("0.0");
+        assertThat(workbook.getCellStyles().size())
+                .isEqualTo(1);
+    }
+
     private byte[] writeExcelFileBytes(SpreadsheetWorkbook workbook) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         workbook.write(out);
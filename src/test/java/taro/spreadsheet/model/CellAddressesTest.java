@@ -0,0 +1,47 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.util.CellReference;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CellAddressesTest {
+
+    @Test
+    public void parse_MatchesCellReference() {
+        String[] addresses = {"A1", "b7", "AR1677", "$C$3", "$D4", "E$5", "XFD1048576", "Sheet1!B2", "'My Sheet'!C9"};
+        for (String address : addresses) {
+            CellReference reference = new CellReference(address);
+            long packed = CellAddresses.parse(address);
+
+            assertThat(CellAddresses.getRow(packed))
+                    .as(address)
+                    .isEqualTo(reference.getRow());
+            assertThat(CellAddresses.getCol(packed))
+                    .as(address)
+                    .isEqualTo((int) reference.getCol());
+        }
+    }
+
+    @Test
+    public void parse_ReturnsTheSameResultFromTheCache() {
+        long first = CellAddresses.parse("Q42");
+        long second = CellAddresses.parse(new String("Q42"));
+
+        assertThat(second)
+                .isEqualTo(first)
+                .isEqualTo(CellAddresses.pack(41, 16));
+        assertThat(CellAddresses.parse(new StringBuilder("Q42")))
+                .isEqualTo(first);
+    }
+
+    @Test
+    public void parse_ThrowsForMalformedAddresses() {
+        try {
+            CellAddresses.parse("not an address");
+            fail("Expected an IllegalArgumentException but not thrown.");
+        } catch (IllegalArgumentException ex) { /* expected */ }
+    }
+
+}
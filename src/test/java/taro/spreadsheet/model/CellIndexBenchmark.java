@@ -0,0 +1,83 @@
+package taro.spreadsheet.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Compares looking up the style of every cell of a tab through the row-array CellIndex against a String-keyed
+ * map like the one SpreadsheetTab used to keep its cells in. Run with the gc profiler to compare allocation rates:
+ * java -cp target/test-classes:[test classpath] taro.spreadsheet.model.CellIndexBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellIndexBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"30"})
+    public int cols;
+
+    private Map<String, Integer> addressMap;
+    private CellIndex cellIndex;
+
+    @Setup
+    public void setup() {
+        addressMap = newHashMap();
+        cellIndex = new CellIndex();
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                addressMap.put(SpreadsheetTab.getCellAddress(row, col), col + 1);
+                cellIndex.put(row, col, col + 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public void addressMapLookup(Blackhole blackhole) {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                blackhole.consume(addressMap.get(SpreadsheetTab.getCellAddress(row, col)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void cellIndexLookup(Blackhole blackhole) {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                blackhole.consume(cellIndex.get(row, col));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CellIndexBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+}
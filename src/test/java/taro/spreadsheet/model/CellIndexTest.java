@@ -0,0 +1,68 @@
+package taro.spreadsheet.model;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CellIndexTest extends AbstractTest {
+
+    @Test
+    public void get_ReturnsNoStyleForMissingCells() {
+        CellIndex index = new CellIndex();
+
+        assertThat(index.get(0, 0))
+                .isEqualTo(CellBuffer.NO_STYLE);
+        assertThat(index.get(100000, 200))
+                .isEqualTo(CellBuffer.NO_STYLE);
+        assertThat(index.get(-1, 0))
+                .isEqualTo(CellBuffer.NO_STYLE);
+    }
+
+    @Test
+    public void put_StoresStyleIdsAndGrowsAsNeeded() {
+        CellIndex index = new CellIndex();
+
+        index.put(0, 0, 1);
+        index.put(5000, 300, 2);
+
+        assertThat(index.get(0, 0))
+                .isEqualTo(1);
+        assertThat(index.get(5000, 300))
+                .isEqualTo(2);
+        assertThat(index.get(5000, 299))
+                .isEqualTo(CellBuffer.NO_STYLE);
+        assertThat(index.size())
+                .isEqualTo(2);
+
+        index.put(0, 0, 2);
+
+        assertThat(index.get(0, 0))
+                .isEqualTo(2);
+        assertThat(index.size())
+                .isEqualTo(2);
+
+        index.put(0, 0, CellBuffer.NO_STYLE);
+
+        assertThat(index.size())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void clearRowsThrough_RemovesLeadingRows() {
+        CellIndex index = new CellIndex();
+        for (int row = 0; row < 10; row++) {
+            index.put(row, 0, 3);
+            index.put(row, 1, 3);
+        }
+
+        index.clearRowsThrough(6);
+
+        assertThat(index.get(6, 0))
+                .isEqualTo(CellBuffer.NO_STYLE);
+        assertThat(index.get(7, 1))
+                .isEqualTo(3);
+        assertThat(index.size())
+                .isEqualTo(6);
+    }
+
+}
@@ -0,0 +1,59 @@
+package taro.spreadsheet.model;
+
+import org.junit.Test;
+
+import java.util.PrimitiveIterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CellRangeTest {
+
+    @Test
+    public void parse_ReadsRangesAndSingleCells() {
+        CellRange range = CellRange.parse("B2:D5");
+
+        assertThat(range.getFirstRow()).isEqualTo(1);
+        assertThat(range.getLastRow()).isEqualTo(4);
+        assertThat(range.getFirstCol()).isEqualTo(1);
+        assertThat(range.getLastCol()).isEqualTo(3);
+        assertThat(range.size()).isEqualTo(12);
+        assertThat(range)
+                .isEqualTo(CellRange.of("B2", "D5"))
+                .isEqualTo(new CellRange(1, 4, 1, 3));
+        assertThat(range.toString())
+                .isEqualTo("B2:D5");
+        assertThat(CellRange.parse("C3"))
+                .isEqualTo(new CellRange(2, 2, 2, 2));
+    }
+
+    @Test
+    public void iterator_VisitsEveryCellRowByRow() {
+        PrimitiveIterator.OfLong cells = CellRange.parse("A1:B2").iterator();
+
+        assertThat(cells.nextLong()).isEqualTo(CellAddresses.pack(0, 0));
+        assertThat(cells.nextLong()).isEqualTo(CellAddresses.pack(0, 1));
+        assertThat(cells.nextLong()).isEqualTo(CellAddresses.pack(1, 0));
+        assertThat(cells.nextLong()).isEqualTo(CellAddresses.pack(1, 1));
+        assertThat(cells.hasNext()).isFalse();
+    }
+
+    @Test
+    public void contains_ChecksBothDimensions() {
+        CellRange range = CellRange.parse("B2:D5");
+
+        assertThat(range.contains(1, 1)).isTrue();
+        assertThat(range.contains(4, 3)).isTrue();
+        assertThat(range.contains(0, 2)).isFalse();
+        assertThat(range.contains(2, 4)).isFalse();
+    }
+
+    @Test
+    public void constructor_RejectsReversedRanges() {
+        try {
+            CellRange.of("C3", "A1");
+            fail("Expected an IllegalArgumentException but not thrown.");
+        } catch (IllegalArgumentException ex) { /* expected */ }
+    }
+
+}
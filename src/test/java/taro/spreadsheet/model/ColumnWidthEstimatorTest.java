@@ -0,0 +1,48 @@
+package taro.spreadsheet.model;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ColumnWidthEstimatorTest {
+
+    @Test
+    public void getTextWidth_MeasuresTheWidestLineInWidthsOfZero() {
+        SpreadsheetFont font = new SpreadsheetFont();
+
+        assertThat(ColumnWidthEstimator.getTextWidth("0000", null))
+                .isCloseTo(4, within(0.0001));
+        assertThat(ColumnWidthEstimator.getTextWidth("00\n000000\n0", null))
+                .isCloseTo(6, within(0.0001));
+        assertThat(ColumnWidthEstimator.getTextWidth("0000", font.withFontSizeInPoints(22)))
+                .isCloseTo(8, within(0.0001));
+        assertThat(ColumnWidthEstimator.getTextWidth("iiii", null))
+                .isLessThan(ColumnWidthEstimator.getTextWidth("WWWW", null));
+        assertThat(ColumnWidthEstimator.getTextWidth("Total", font.withBold(true)))
+                .isGreaterThan(ColumnWidthEstimator.getTextWidth("Total", null));
+        assertThat(ColumnWidthEstimator.getTextWidth("iiii", font.withFontName("Courier New")))
+                .isEqualTo(ColumnWidthEstimator.getTextWidth("WWWW", font.withFontName("Courier New")));
+    }
+
+    @Test
+    public void countWrappedLines_BreaksBetweenWordsAndInsideLongWords() {
+        // each "00000" is 5 wide and a space is half a zero
+        assertThat(ColumnWidthEstimator.countWrappedLines("00000 00000", null, 11))
+                .isEqualTo(1);
+        assertThat(ColumnWidthEstimator.countWrappedLines("00000 00000", null, 10))
+                .isEqualTo(2);
+        assertThat(ColumnWidthEstimator.countWrappedLines("00000 00000 00000", null, 10))
+                .isEqualTo(3);
+        assertThat(ColumnWidthEstimator.countWrappedLines("00000\n00000", null, 100))
+                .isEqualTo(2);
+        assertThat(ColumnWidthEstimator.countWrappedLines("0000000000000000000000000", null, 10))
+                .isEqualTo(3);
+        // the last word fits after the end of the broken word
+        assertThat(ColumnWidthEstimator.countWrappedLines("00 0000000000000000000000000 00", null, 10))
+                .isEqualTo(4);
+        assertThat(ColumnWidthEstimator.countWrappedLines("", null, 10))
+                .isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,73 @@
+package taro.spreadsheet.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing the same deferred workbook of a million cells with the XSSF engine, which materializes the
+ * buffered cells into POI's object model first, against the SpreadsheetML engine. A workbook is filled before
+ * each write, since the XSSF engine only materializes the rows that changed since the last one:
+ * java -cp target/test-classes:[test classpath] taro.spreadsheet.model.EngineWriteBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class EngineWriteBenchmark {
+
+    @Param({"XSSF", "SPREADSHEETML"})
+    public WriteOptions.Engine engine;
+
+    @Param({"250000"})
+    public int rows;
+
+    private SpreadsheetWorkbook workbook;
+    private WriteOptions options;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("benchmark");
+        for (int row = 0; row < rows; row++) {
+            tab.setValue(row, 0, "item " + (row % 500));
+            tab.setValue(row, 1, row * 0.25, SpreadsheetCellStyle.CENTER_ONE_DECIMAL);
+            tab.setValue(row, 2, row);
+            tab.setValue(row, 3, row % 3 == 0);
+        }
+        options = WriteOptions.DEFAULT.withEngine(engine);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+        workbook.write(out, options);
+        return out.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EngineWriteBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+}
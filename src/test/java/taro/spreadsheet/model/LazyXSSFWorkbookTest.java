@@ -0,0 +1,142 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LazyXSSFWorkbookTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File templateFile;
+    private List<SpreadsheetWorkbook> opened = newArrayList();
+
+    @Before
+    public void setUp() throws IOException {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        for (int sheet = 0; sheet < 4; sheet++) {
+            XSSFSheet poiSheet = workbook.createSheet("Sheet" + sheet);
+            for (int row = 0; row < 10; row++) {
+                poiSheet.createRow(row).createCell(0).setCellValue("Label " + sheet + "-" + row);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        templateFile = folder.newFile("template.xlsx");
+        Files.write(templateFile.toPath(), out.toByteArray());
+    }
+
+    @After
+    public void tearDown() {
+        for (SpreadsheetWorkbook workbook : opened) {
+            workbook.dispose();
+        }
+    }
+
+    @Test
+    public void getTab_ParsesOnlyTheSheetOfTheTab() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        LazyXSSFWorkbook poiWorkbook = (LazyXSSFWorkbook) workbook.getXSSFWorkbook();
+
+        assertThat(poiWorkbook.getNumberOfSheets())
+                .isEqualTo(4);
+        assertThat(poiWorkbook.getSheetName(2))
+                .isEqualTo("Sheet2");
+        SpreadsheetTab tab = workbook.getTab("Sheet2");
+
+        assertThat(tab.getCell(3, 0).getValue())
+                .isEqualTo("Label 2-3");
+        assertThat(workbook.getTab(2))
+                .isSameAs(tab);
+        for (int index = 0; index < 4; index++) {
+            assertThat(poiWorkbook.isParsed(poiWorkbook.getSheetAt(index)))
+                    .as("sheet " + index)
+                    .isEqualTo(index == 2);
+        }
+    }
+
+    @Test
+    public void getTab_ReturnsNullForTitlesThatDoNotMatchExactly() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+
+        assertThat(workbook.getTab("sheet1"))
+                .isNull();
+        assertThat(workbook.getTab("Missing"))
+                .isNull();
+        assertThat(workbook.getTab(4))
+                .isNull();
+        assertThat(workbook.getTab("Sheet1").getTitle())
+                .isEqualTo("Sheet1");
+    }
+
+    @Test
+    public void write_ParsesTheSheetsThatWereNotParsed() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.getTab("Sheet1").setValue(0, 1, "Changed");
+
+        XSSFWorkbook actual = writeAndRead(workbook, WriteOptions.DEFAULT);
+
+        assertThat(actual.getSheet("Sheet1").getRow(0).getCell(1).getStringCellValue())
+                .isEqualTo("Changed");
+        for (int index = 0; index < 4; index++) {
+            assertThat(actual.getSheetAt(index).getRow(9).getCell(0).getStringCellValue())
+                    .isEqualTo("Label " + index + "-9");
+        }
+    }
+
+    @Test
+    public void write_WithPassthroughLeavesTheOtherSheetsUnparsed() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.getTab(3).setValue(0, 1, 12.0);
+
+        XSSFWorkbook actual = writeAndRead(workbook, WriteOptions.DEFAULT.withPassthrough(true));
+
+        LazyXSSFWorkbook poiWorkbook = (LazyXSSFWorkbook) workbook.getXSSFWorkbook();
+        assertThat(poiWorkbook.isParsed(poiWorkbook.getSheetAt(0)))
+                .isFalse();
+        assertThat(actual.getSheet("Sheet3").getRow(0).getCell(1).getNumericCellValue())
+                .isEqualTo(12.0);
+        assertThat(actual.getSheet("Sheet0").getRow(5).getCell(0).getStringCellValue())
+                .isEqualTo("Label 0-5");
+    }
+
+    @Test
+    public void getPoiWorkbook_ParsesEverySheet() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+
+        XSSFWorkbook poiWorkbook = workbook.getPoiWorkbook();
+
+        for (int index = 0; index < 4; index++) {
+            assertThat(poiWorkbook.getSheetAt(index).getRow(0).getCell(0).getStringCellValue())
+                    .isEqualTo("Label " + index + "-0");
+        }
+    }
+
+    private SpreadsheetWorkbook open() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(templateFile);
+        opened.add(workbook);
+        return workbook;
+    }
+
+    private static XSSFWorkbook writeAndRead(SpreadsheetWorkbook workbook, WriteOptions options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out, options);
+        return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+}
@@ -0,0 +1,80 @@
+package taro.spreadsheet.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a deferred workbook of several large tabs with the SpreadsheetML engine, on the calling thread
+ * and with the sheets serialized and compressed in parallel, either a sheet per thread or in deflate blocks:
+ * java -cp target/test-classes:[test classpath] taro.spreadsheet.model.ParallelWriteBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelWriteBenchmark {
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"0", "1048576"})
+    public int deflateBlockSize;
+
+    @Param({"8"})
+    public int tabs;
+
+    @Param({"20000"})
+    public int rows;
+
+    private SpreadsheetWorkbook workbook;
+    private WriteOptions options;
+
+    @Setup
+    public void setup() {
+        workbook = SpreadsheetWorkbook.deferred();
+        for (int index = 0; index < tabs; index++) {
+            RowWriter writer = workbook.createTab("tab " + index).rowWriter();
+            for (int row = 0; row < rows; row++) {
+                writer.nextRow()
+                        .cell("item " + (row % 500))
+                        .cell(row * 0.25, SpreadsheetCellStyle.CENTER_ONE_DECIMAL)
+                        .cell(row)
+                        .cell(row % 3 == 0);
+            }
+        }
+        options = WriteOptions.SPREADSHEETML.withParallelism(parallelism).withDeflateBlockSize(deflateBlockSize);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+        workbook.write(out, options);
+        return out.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParallelWriteBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,195 @@
+package taro.spreadsheet.model;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.HEADER;
+
+public class PassthroughWriterTest {
+
+    private SpreadsheetWorkbook open() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(templateFile);
+        opened.add(workbook);
+        return workbook;
+    }
+
+    private static final WriteOptions PASSTHROUGH = WriteOptions.DEFAULT.withPassthrough(true);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] template;
+    private File templateFile;
+    private List<SpreadsheetWorkbook> opened = newArrayList();
+
+    @Before
+    public void setUp() throws IOException {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        for (int sheet = 0; sheet < 3; sheet++) {
+            XSSFSheet poiSheet = workbook.createSheet("Sheet" + sheet);
+            for (int row = 0; row < 50; row++) {
+                poiSheet.createRow(row).createCell(0).setCellValue("Label " + sheet + "-" + row);
+                poiSheet.getRow(row).createCell(1).setCellValue(row * 1.5);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        template = out.toByteArray();
+        templateFile = folder.newFile("template.xlsx");
+        Files.write(templateFile.toPath(), template);
+    }
+
+    @After
+    public void tearDown() {
+        for (SpreadsheetWorkbook workbook : opened) {
+            workbook.dispose();
+        }
+    }
+
+    @Test
+    public void write_CopiesTheEntriesOfTheUnmodifiedTabsRaw() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.getTab("Sheet1").setValue(2, 1, 42.0);
+
+        byte[] written = write(workbook, PASSTHROUGH);
+
+        Map<String, ZipArchiveEntry> source = getEntries(template);
+        Map<String, ZipArchiveEntry> actual = getEntries(written);
+        assertThat(actual.keySet())
+                .isEqualTo(source.keySet());
+        for (String name : new String[]{"xl/worksheets/sheet1.xml", "xl/worksheets/sheet3.xml", "xl/sharedStrings.xml",
+                "xl/styles.xml", "xl/workbook.xml"}) {
+            assertThat(actual.get(name).getCrc())
+                    .as(name)
+                    .isEqualTo(source.get(name).getCrc());
+            assertThat(actual.get(name).getCompressedSize())
+                    .as(name)
+                    .isEqualTo(source.get(name).getCompressedSize());
+        }
+        assertThat(actual.get("xl/worksheets/sheet2.xml").getCrc())
+                .isNotEqualTo(source.get("xl/worksheets/sheet2.xml").getCrc());
+
+        XSSFWorkbook read = new XSSFWorkbook(new ByteArrayInputStream(written));
+        assertThat(read.getSheet("Sheet1").getRow(2).getCell(1).getNumericCellValue())
+                .isEqualTo(42.0);
+        assertThat(read.getSheet("Sheet1").getRow(3).getCell(0).getStringCellValue())
+                .isEqualTo("Label 1-3");
+        assertThat(read.getSheet("Sheet2").getRow(49).getCell(0).getStringCellValue())
+                .isEqualTo("Label 2-49");
+    }
+
+    @Test
+    public void write_RewritesTheSharedStringsAndStylesThatWereAddedTo() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.getTab("Sheet0").setValue(0, 2, "New header", HEADER);
+
+        byte[] written = write(workbook, PASSTHROUGH);
+
+        Map<String, ZipArchiveEntry> source = getEntries(template);
+        Map<String, ZipArchiveEntry> actual = getEntries(written);
+        assertThat(actual.get("xl/sharedStrings.xml").getCrc())
+                .isNotEqualTo(source.get("xl/sharedStrings.xml").getCrc());
+        assertThat(actual.get("xl/styles.xml").getCrc())
+                .isNotEqualTo(source.get("xl/styles.xml").getCrc());
+        assertThat(actual.get("xl/worksheets/sheet2.xml").getCrc())
+                .isEqualTo(source.get("xl/worksheets/sheet2.xml").getCrc());
+
+        XSSFSheet sheet = new XSSFWorkbook(new ByteArrayInputStream(written)).getSheet("Sheet0");
+        assertThat(sheet.getRow(0).getCell(2).getStringCellValue())
+                .isEqualTo("New header");
+        assertThat(sheet.getRow(0).getCell(2).getCellStyle().getFont().getBold())
+                .isTrue();
+        assertThat(sheet.getRow(0).getCell(0).getStringCellValue())
+                .isEqualTo("Label 0-0");
+    }
+
+    @Test
+    public void write_RewritesTheSheetsEditedThroughTheirPoiCells() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.getTab("Sheet2").getCell("B2").getPoiCell().setCellValue(99.0);
+
+        byte[] written = write(workbook, PASSTHROUGH);
+
+        Map<String, ZipArchiveEntry> source = getEntries(template);
+        Map<String, ZipArchiveEntry> actual = getEntries(written);
+        assertThat(actual.get("xl/worksheets/sheet3.xml").getCrc())
+                .isNotEqualTo(source.get("xl/worksheets/sheet3.xml").getCrc());
+        assertThat(actual.get("xl/worksheets/sheet1.xml").getCrc())
+                .isEqualTo(source.get("xl/worksheets/sheet1.xml").getCrc());
+        XSSFSheet sheet = new XSSFWorkbook(new ByteArrayInputStream(written)).getSheet("Sheet2");
+        assertThat(sheet.getRow(1).getCell(1).getNumericCellValue())
+                .isEqualTo(99.0);
+    }
+
+    @Test
+    public void write_CopiesEveryEntryOfAnUnmodifiedWorkbook() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.getTab("Sheet2").getCell(4, 0).getValue();
+
+        Map<String, ZipArchiveEntry> source = getEntries(template);
+        Map<String, ZipArchiveEntry> actual = getEntries(write(workbook, PASSTHROUGH));
+        for (ZipArchiveEntry entry : source.values()) {
+            assertThat(actual.get(entry.getName()).getCrc())
+                    .as(entry.getName())
+                    .isEqualTo(entry.getCrc());
+            assertThat(actual.get(entry.getName()).getMethod())
+                    .as(entry.getName())
+                    .isEqualTo(entry.getMethod());
+        }
+    }
+
+    @Test
+    public void write_WritesAWorkbookWithNewTabsInFull() throws IOException {
+        SpreadsheetWorkbook workbook = open();
+        workbook.createTab("Added").setValue(0, 0, "added");
+
+        XSSFWorkbook read = new XSSFWorkbook(new ByteArrayInputStream(write(workbook, PASSTHROUGH)));
+
+        assertThat(read.getNumberOfSheets())
+                .isEqualTo(4);
+        assertThat(read.getSheet("Added").getRow(0).getCell(0).getStringCellValue())
+                .isEqualTo("added");
+        assertThat(read.getSheet("Sheet2").getRow(10).getCell(1).getNumericCellValue())
+                .isEqualTo(15.0);
+    }
+
+    private static byte[] write(SpreadsheetWorkbook workbook, WriteOptions options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out, options);
+        return out.toByteArray();
+    }
+
+    private static Map<String, ZipArchiveEntry> getEntries(byte[] bytes) throws IOException {
+        Map<String, ZipArchiveEntry> entries = newHashMap();
+        ZipFile zip = new ZipFile(new SeekableInMemoryByteChannel(bytes));
+        try {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                entries.put(entry.getName(), entry);
+            }
+        } finally {
+            zip.close();
+        }
+        return entries;
+    }
+
+}
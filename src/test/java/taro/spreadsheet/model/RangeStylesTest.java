@@ -0,0 +1,69 @@
+package taro.spreadsheet.model;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RangeStylesTest {
+
+    @Test
+    public void getStyleId_ReturnsTheNewestRangeCoveringTheCell() {
+        RangeStyles ranges = new RangeStyles();
+        ranges.add(0, 999, 0, 9, 1);
+        ranges.add(500, 1500, 5, 5, 2);
+        ranges.add(0, RangeStyles.LAST_ROW, 9, 9, 3);
+
+        assertThat(ranges.getStyleId(0, 0))
+                .isEqualTo(1);
+        assertThat(ranges.getStyleId(600, 5))
+                .isEqualTo(2);
+        assertThat(ranges.getStyleId(1400, 5))
+                .isEqualTo(2);
+        assertThat(ranges.getStyleId(600, 9))
+                .isEqualTo(3);
+        assertThat(ranges.getStyleId(1400, 4))
+                .isEqualTo(CellBuffer.NO_STYLE);
+        assertThat(ranges.getLastRow())
+                .isEqualTo(1500);
+    }
+
+    @Test
+    public void bands_AreTheDefaultStylesOfRowsAndColumns() {
+        RangeStyles ranges = new RangeStyles();
+        ranges.add(0, RangeStyles.LAST_ROW, 2, 3, 1);
+        ranges.add(10, 11, 0, RangeStyles.LAST_COL, 2);
+
+        assertThat(ranges.getColumnStyleIds())
+                .containsExactly(0, 0, 1, 1);
+        assertThat(ranges.getRowStyleId(10))
+                .isEqualTo(2);
+        assertThat(ranges.getRowStyleId(12))
+                .isEqualTo(CellBuffer.NO_STYLE);
+    }
+
+    @Test
+    public void getExplicitColumns_ReturnsOnlyCellsNotImpliedByTheRowOrColumnStyle() {
+        RangeStyles ranges = new RangeStyles();
+        ranges.add(10, 10, 0, RangeStyles.LAST_COL, 1);
+        ranges.add(0, RangeStyles.LAST_ROW, 2, 2, 2);
+        ranges.add(0, 20, 4, 5, 3);
+        ranges.add(0, 20, 7, 7, 2);
+        ranges.add(0, RangeStyles.LAST_ROW, 7, 7, 2);
+        BitSet columns = new BitSet();
+
+        ranges.getExplicitColumns(10, columns);
+        assertThat(columns.toString())
+                .isEqualTo("{2, 4, 5, 7}");
+
+        ranges.getExplicitColumns(15, columns);
+        assertThat(columns.toString())
+                .isEqualTo("{4, 5}");
+
+        ranges.getExplicitColumns(30, columns);
+        assertThat(columns.isEmpty())
+                .isTrue();
+    }
+
+}
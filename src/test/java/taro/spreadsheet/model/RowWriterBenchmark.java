@@ -0,0 +1,80 @@
+package taro.spreadsheet.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filling a tab top to bottom with setValue for every cell against the RowWriter cursor, for a regular
+ * and a deferred workbook. Every other column is styled. Run with the gc profiler to compare allocation rates:
+ * java -cp target/test-classes:[test classpath] taro.spreadsheet.model.RowWriterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowWriterBenchmark {
+
+    @Param({"regular", "deferred"})
+    public String workbookType;
+
+    @Param({"5000"})
+    public int rows;
+
+    @Param({"30"})
+    public int cols;
+
+    private SpreadsheetTab tab;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        SpreadsheetWorkbook workbook = workbookType.equals("deferred") ? SpreadsheetWorkbook.deferred() : new SpreadsheetWorkbook();
+        tab = workbook.createTab("benchmark");
+    }
+
+    @Benchmark
+    public SpreadsheetTab setValue() {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                tab.setValue(row, col, row * 0.5 + col, col % 2 == 0 ? SpreadsheetCellStyle.CENTER : null);
+            }
+        }
+        return tab;
+    }
+
+    @Benchmark
+    public SpreadsheetTab rowWriter() {
+        RowWriter writer = tab.rowWriter();
+        for (int row = 0; row < rows; row++) {
+            writer.nextRow();
+            for (int col = 0; col < cols; col++) {
+                writer.cell(row * 0.5 + col, col % 2 == 0 ? SpreadsheetCellStyle.CENTER : null);
+            }
+        }
+        return tab;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RowWriterBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+}
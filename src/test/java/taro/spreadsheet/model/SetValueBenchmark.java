@@ -0,0 +1,75 @@
+package taro.spreadsheet.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filling a deferred tab with numbers through setValue(int, int, Object), which boxes each number and
+ * dispatches on its type, against the primitive setValue(int, int, double) overload. Run with the gc profiler to
+ * compare allocation rates:
+ * java -cp target/test-classes:[test classpath] taro.spreadsheet.model.SetValueBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetValueBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"30"})
+    public int cols;
+
+    private SpreadsheetTab tab;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        tab = SpreadsheetWorkbook.deferred().createTab("benchmark");
+    }
+
+    @Benchmark
+    public SpreadsheetTab boxedValues() {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                tab.setValue(row, col, (Object) (row * 0.5 + col));
+            }
+        }
+        return tab;
+    }
+
+    @Benchmark
+    public SpreadsheetTab primitiveValues() {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                tab.setValue(row, col, row * 0.5 + col);
+            }
+        }
+        return tab;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SetValueBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+}
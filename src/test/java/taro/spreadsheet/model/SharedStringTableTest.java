@@ -0,0 +1,72 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedStringTableTest {
+
+    @Test
+    public void getId_GivesEqualStringsTheSameId() {
+        SharedStringTable table = new SharedStringTable();
+
+        int first = table.getId("first");
+        int empty = table.getId("");
+        int second = table.getId("second");
+
+        assertThat(table.getId(new String("first")))
+                .isEqualTo(first);
+        assertThat(table.getId(""))
+                .isEqualTo(empty);
+        assertThat(table.find("second"))
+                .isEqualTo(second);
+        assertThat(table.find("third"))
+                .isEqualTo(-1);
+        assertThat(table.size())
+                .isEqualTo(3);
+        assertThat(table.getString(empty).toString())
+                .isEmpty();
+        assertThat(table.getString(second).toString())
+                .isEqualTo("second");
+    }
+
+    @Test
+    public void addRichText_TakesANewIdInTheSameSequence() {
+        SharedStringTable table = new SharedStringTable();
+        XSSFRichTextString richText = new XSSFRichTextString("value");
+
+        int string = table.getId("value");
+        int rich = table.addRichText(richText);
+
+        assertThat(rich)
+                .isEqualTo(string + 1);
+        assertThat(table.getRichText(rich))
+                .isSameAs(richText);
+        assertThat(table.getRichText(string))
+                .isNull();
+        assertThat(table.getId("value"))
+                .isEqualTo(string);
+    }
+
+    @Test
+    public void getId_KeepsEveryStringWhenTheTableGrows() {
+        SharedStringTable table = new SharedStringTable();
+        int[] ids = new int[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.getId("string " + i);
+            if (i % 100 == 0) {
+                table.addRichText(new XSSFRichTextString("rich " + i));
+            }
+        }
+        assertThat(table.size())
+                .isEqualTo(10100);
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(table.find("string " + i))
+                    .isEqualTo(ids[i]);
+            assertThat(table.getString(ids[i]).toString())
+                    .isEqualTo("string " + i);
+        }
+    }
+
+}
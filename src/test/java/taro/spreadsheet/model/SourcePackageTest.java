@@ -0,0 +1,168 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class SourcePackageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File template;
+    private byte[] templateBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        for (int sheet = 0; sheet < 2; sheet++) {
+            XSSFSheet poiSheet = workbook.createSheet("Sheet" + sheet);
+            for (int row = 0; row < 20; row++) {
+                poiSheet.createRow(row).createCell(0).setCellValue("Label " + sheet + "-" + row);
+            }
+        }
+        template = folder.newFile("template.xlsx");
+        OutputStream out = new FileOutputStream(template);
+        try {
+            workbook.write(out);
+        } finally {
+            out.close();
+        }
+        templateBytes = Files.readAllBytes(template.toPath());
+    }
+
+    @Test
+    public void open_ReadsTheWorkbookFromAFileWithoutWritingToIt() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(template);
+        workbook.getTab("Sheet1").setValue(0, 0, "Changed");
+
+        XSSFWorkbook actual = writeAndRead(workbook, WriteOptions.DEFAULT);
+        workbook.dispose();
+
+        assertThat(actual.getSheet("Sheet1").getRow(0).getCell(0).getStringCellValue())
+                .isEqualTo("Changed");
+        assertThat(actual.getSheet("Sheet0").getRow(19).getCell(0).getStringCellValue())
+                .isEqualTo("Label 0-19");
+        assertThat(Files.readAllBytes(template.toPath()))
+                .isEqualTo(templateBytes);
+    }
+
+    @Test
+    public void open_ReadsTheWorkbookFromAPath() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(template.toPath());
+
+        assertThat(workbook.getTab("Sheet1").getCell(5, 0).getValue())
+                .isEqualTo("Label 1-5");
+        workbook.dispose();
+    }
+
+    @Test
+    public void open_ReadsTheWorkbookFromAChannelAndLeavesItOpen() throws IOException {
+        FileChannel channel = FileChannel.open(template.toPath(), StandardOpenOption.READ);
+        try {
+            SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(channel);
+            workbook.getTab("Sheet0").setValue(1, 1, 7.5);
+
+            XSSFWorkbook actual = writeAndRead(workbook, WriteOptions.DEFAULT.withPassthrough(true));
+            workbook.dispose();
+
+            assertThat(actual.getSheet("Sheet0").getRow(1).getCell(1).getNumericCellValue())
+                    .isEqualTo(7.5);
+            assertThat(actual.getSheet("Sheet1").getRow(3).getCell(0).getStringCellValue())
+                    .isEqualTo("Label 1-3");
+            assertThat(channel.isOpen())
+                    .isTrue();
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void open_SpillsTheStreamToATemporaryFileThatDisposeDeletes() throws IOException {
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        int spilledBefore = countSpilledFiles(tempDir);
+
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(new ByteArrayInputStream(templateBytes),
+                OpenOptions.DEFAULT.withSpillToTempFile(true));
+
+        assertThat(countSpilledFiles(tempDir))
+                .isEqualTo(spilledBefore + 1);
+        workbook.getTab("Sheet1").setValue(2, 0, "Spilled");
+        XSSFWorkbook actual = writeAndRead(workbook, WriteOptions.DEFAULT.withPassthrough(true));
+        workbook.dispose();
+
+        assertThat(actual.getSheet("Sheet1").getRow(2).getCell(0).getStringCellValue())
+                .isEqualTo("Spilled");
+        assertThat(countSpilledFiles(tempDir))
+                .isEqualTo(spilledBefore);
+    }
+
+    @Test
+    public void open_ReadsAStreamWholeWithoutKeepingIt() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(new ByteArrayInputStream(templateBytes));
+
+        assertThat(workbook.getXSSFWorkbook())
+                .isNotInstanceOf(LazyXSSFWorkbook.class);
+        workbook.getTab("Sheet0").setValue(0, 1, "Changed");
+        XSSFWorkbook actual = writeAndRead(workbook, WriteOptions.DEFAULT.withPassthrough(true));
+
+        assertThat(actual.getSheet("Sheet0").getRow(0).getCell(1).getStringCellValue())
+                .isEqualTo("Changed");
+        assertThat(actual.getSheet("Sheet1").getRow(19).getCell(0).getStringCellValue())
+                .isEqualTo("Label 1-19");
+
+        SpreadsheetWorkbook readOnly = new SpreadsheetWorkbook(new ByteArrayInputStream(templateBytes),
+                OpenOptions.READ_ONLY);
+        try {
+            readOnly.write(new ByteArrayOutputStream());
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+    }
+
+    @Test
+    public void write_FailsForReadOnlyWorkbooks() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(template, OpenOptions.READ_ONLY);
+        assertThat(workbook.getTab("Sheet0").getCell(0, 0).getValue())
+                .isEqualTo("Label 0-0");
+        try {
+            workbook.write(new ByteArrayOutputStream());
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+        workbook.dispose();
+        assertThat(Files.readAllBytes(template.toPath()))
+                .isEqualTo(templateBytes);
+    }
+
+    private static int countSpilledFiles(File dir) {
+        String[] names = dir.list();
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith("taro-source")) count++;
+        }
+        return count;
+    }
+
+    private static XSSFWorkbook writeAndRead(SpreadsheetWorkbook workbook, WriteOptions options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out, options);
+        return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+}
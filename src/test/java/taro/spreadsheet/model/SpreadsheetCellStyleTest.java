@@ -221,6 +221,29 @@ public class SpreadsheetCellStyleTest {
         assertThat(one.hashCode(), is(two.hashCode()));
     }
 
+    @Test
+    public void intern_ReturnsTheSameInstanceForEqualStyles() {
+        SpreadsheetCellStyle one = new SpreadsheetCellStyle().withBold(true).withFontName("Courier")
+                .withWrapText(true).withDataFormatString("0.00").withAlign(HorizontalAlignment.CENTER);
+        SpreadsheetCellStyle two = new SpreadsheetCellStyle().withBold(true).withFontName("Courier")
+                .withWrapText(true).withDataFormatString("0.00").withAlign(HorizontalAlignment.CENTER);
+
+        assertThat(one.intern(), sameInstance(two.intern()));
+        assertThat(one.intern(), is(one));
+        assertThat(one.intern().getFont(), sameInstance(two.intern().getFont()));
+        assertThat(one.copy().intern(), sameInstance(one.intern()));
+    }
+
+    @Test
+    public void intern_GivesDifferentInstancesToDifferentStyles() {
+        SpreadsheetCellStyle one = new SpreadsheetCellStyle().withWrapText(true).withDataFormatString("0.00");
+        SpreadsheetCellStyle two = one.intern().withDataFormatString("#,##0");
+
+        assertThat(one.intern(), not(sameInstance(two.intern())));
+        assertThat(one.equals(two), is(false));
+        assertThat(two.intern().getDataFormatString(), is("#,##0"));
+    }
+
     @Test
     public void hashCode_IsDifferentIfAnyPropertyIsDifferent() {
         SpreadsheetCellStyle one = new SpreadsheetCellStyle().withBold(true).withFontName("Courier")
@@ -8,6 +8,8 @@ import org.apache.poi.xssf.usermodel.XSSFFont;
 import org.junit.Test;
 
 import java.awt.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -127,6 +129,50 @@ public class SpreadsheetCellTest extends AbstractTest {
                 .isCloseTo(excelDateNumber, within(0.001));
     }
 
+    @Test
+    public void setValueWithLocalDate_SetsADateValueOnTheCell() {
+        LocalDate date = LocalDate.of(2015, 1, 1);
+
+        SpreadsheetCell cell = getCell();
+        cell.setValue(date);
+
+        assertThat(cell.getPoiCell().getCellType())
+                .isEqualTo(CellType.NUMERIC);
+        assertThat(cell.getPoiCell().getNumericCellValue())
+                .isEqualTo(DateUtil.getExcelDate(date));
+    }
+
+    @Test
+    public void setValueWithLocalDateTime_SetsADateValueOnTheCell() {
+        LocalDateTime dateTime = LocalDateTime.of(2015, 1, 1, 18, 0);
+
+        SpreadsheetCell cell = getCell();
+        cell.setValue(dateTime);
+
+        assertThat(cell.getPoiCell().getNumericCellValue())
+                .isEqualTo(DateUtil.getExcelDate(dateTime));
+    }
+
+    @Test
+    public void setValueWithCharSequence_SetsAStringValueOnTheCell() {
+        SpreadsheetCell cell = getCell();
+        cell.setValue(new StringBuilder("built"));
+
+        assertThat(cell.getPoiCell().getStringCellValue())
+                .isEqualTo("built");
+    }
+
+    @Test
+    public void setValueWithNaN_SetsAnEmptyString() {
+        SpreadsheetCell cell = getCell();
+        cell.setValue(Double.NaN);
+
+        assertThat(cell.getPoiCell().getCellType())
+                .isEqualTo(CellType.STRING);
+        assertThat(cell.getPoiCell().getStringCellValue())
+                .isEmpty();
+    }
+
     @Test
     public void setValueWithBoolean_SetsABooleanValueOnTheCell() {
         SpreadsheetCell cell = getCell();
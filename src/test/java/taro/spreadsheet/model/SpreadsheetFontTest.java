@@ -118,6 +118,15 @@ public class SpreadsheetFontTest {
         assertThat(copy.getFontSizeInPoints(), is(14));
     }
 
+    @Test
+    public void intern_ReturnsTheSameInstanceForEqualFonts() {
+        SpreadsheetFont one = new SpreadsheetFont().withBold(true).withFontName("Courier").withFontSizeInPoints(14);
+        SpreadsheetFont two = new SpreadsheetFont().withBold(true).withFontName("Courier").withFontSizeInPoints(14);
+
+        assertThat(one.intern(), sameInstance(two.intern()));
+        assertThat(one.withItalic(true).intern(), not(sameInstance(one.intern())));
+    }
+
     @Test
     public void equals_IsTrueWhenDifferentFontsHaveTheSameProperties() {
         SpreadsheetFont one = new SpreadsheetFont().withBold(true).withFontName("Courier")
@@ -0,0 +1,431 @@
+package taro.spreadsheet.model;
+
+import com.google.common.io.ByteStreams;
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.util.PaneInformation;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFColor;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+import taro.spreadsheet.SpreadsheetReader;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.CENTER;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.CENTER_ONE_DECIMAL;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.HEADER;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.LEFT;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.RIGHT;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.TITLE;
+
+public class SpreadsheetMLWriterTest extends AbstractTest {
+
+    private final Date date = new Date(1420070400000L);
+
+    private SpreadsheetWorkbook buildWorkbook() {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("Report & <Summary>");
+        tab.mergeCells("A1", "D1", "Quarterly report", TITLE);
+        tab.printAcross(1, 0, HEADER, "Name", "Amount", "Date", "Flag");
+        tab.setValue(2, 0, "  padded  ", LEFT.withItalic(true));
+        tab.setValue(2, 1, 1234.5678, CENTER_ONE_DECIMAL.withBackgroundColor(SpreadsheetCellStyle.COLOR_GOOD));
+        tab.setValue(2, 2, date, SpreadsheetCellStyle.DEFAULT.withDataFormatString("yyyy-mm-dd"));
+        tab.setValue(2, 3, true);
+        tab.setValue(3, 0, "line one\nline two", SpreadsheetCellStyle.DEFAULT.withWrapText(true)
+                .withVerticalAlign(VerticalAlignment.TOP).withFontName("Arial").withUnderline(true));
+        tab.setValue(3, 1, "=B3*2", CENTER_ONE_DECIMAL.withRotation(-45).withIndention(1));
+        tab.setValue(3, 2, Double.NaN);
+        tab.setValue(3, 3, "tab\tseparated", SpreadsheetCellStyle.DEFAULT.withLocked(false)
+                .withBottomBorder(BorderStyle.MEDIUM_DASH_DOT).withBottomBorderColor(Color.BLUE));
+        tab.setValue(5, 1, null, SpreadsheetCellStyle.DEFAULT.withStrikeout(true).withFontSizeInPoints(9));
+        tab.setSurroundBorder(1, 3, 0, 3, BorderStyle.THIN);
+        tab.setStyle(8, 9, 0, RangeStyles.LAST_COL, RIGHT);
+        tab.setStyle(0, RangeStyles.LAST_ROW, 6, 6, CENTER);
+        tab.setStyle(7, 11, 2, 4, LEFT.withBackgroundColor(SpreadsheetCellStyle.COLOR_NOTE));
+        tab.setValue(11, 3, "in a range");
+        tab.setRowHeight(4, 600);
+        tab.setColWidth(0, 5000);
+        tab.autosizeRows();
+
+        SpreadsheetTab second = workbook.createTab("Second");
+        second.setValue("A1", "Quarterly report");
+        second.setValue("B2", 42);
+        return workbook;
+    }
+
+    @Test
+    public void write_ProducesTheSameWorkbookAsTheXssfEngine() throws IOException {
+        XSSFWorkbook expected = read(write(buildWorkbook(), WriteOptions.DEFAULT));
+        XSSFWorkbook actual = read(write(buildWorkbook(), WriteOptions.SPREADSHEETML));
+
+        assertThat(actual.getNumberOfSheets())
+                .isEqualTo(expected.getNumberOfSheets());
+        for (int index = 0; index < expected.getNumberOfSheets(); index++) {
+            assertSameSheet(expected.getSheetAt(index), actual.getSheetAt(index));
+        }
+    }
+
+    @Test
+    public void write_CanBeReadBySpreadsheetReader() throws IOException {
+        XSSFWorkbook workbook = read(write(buildWorkbook(), WriteOptions.SPREADSHEETML));
+        SpreadsheetReader reader = new SpreadsheetReader(workbook.getSheetAt(0));
+
+        assertThat(reader.getSheetName())
+                .isEqualTo("Report & <Summary>");
+        assertThat(reader.getValue("A1"))
+                .isEqualTo("Quarterly report");
+        assertThat(reader.readAcross("A2", 4))
+                .containsExactly("Name", "Amount", "Date", "Flag");
+        assertThat(reader.getStringValue("A3"))
+                .isEqualTo("padded");
+        assertThat(reader.getNumericValue("B3"))
+                .isEqualTo(1234.5678);
+        assertThat(reader.getDateValue("C3"))
+                .isEqualTo(date);
+        assertThat(reader.getCell("D4").getStringCellValue())
+                .isEqualTo("tab\tseparated");
+    }
+
+    @Test
+    public void write_EncodesCharactersThatAreNotAllowedInXml() throws IOException {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        workbook.createTab("control").setValue("A1", "control\u0001char");
+
+        XSSFWorkbook poiWorkbook = read(write(workbook, WriteOptions.SPREADSHEETML));
+
+        assertThat(poiWorkbook.getSheetAt(0).getRow(0).getCell(0).getStringCellValue())
+                .isEqualTo("control\u0001char");
+    }
+
+    @Test
+    public void write_KeepsRichTextFormatting() throws IOException {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        XSSFRichTextString richText = new XSSFRichTextString("plain bold");
+        XSSFFont bold = workbook.getPoiWorkbook().createFont();
+        bold.setBold(true);
+        richText.applyFont(6, 10, bold);
+        workbook.createTab("rich").setValue("A1", richText);
+
+        XSSFWorkbook poiWorkbook = read(write(workbook, WriteOptions.SPREADSHEETML));
+        XSSFRichTextString written = poiWorkbook.getSheetAt(0).getRow(0).getCell(0).getRichStringCellValue();
+
+        assertThat(written.getString())
+                .isEqualTo("plain bold");
+        assertThat(written.numFormattingRuns())
+                .isEqualTo(2);
+        assertThat(written.getFontOfFormattingRun(1).getBold())
+                .isTrue();
+    }
+
+    @Test
+    public void write_InParallelProducesTheSameEntriesAsSequentially() throws IOException {
+        SpreadsheetWorkbook workbook = buildWorkbook();
+        for (int index = 0; index < 6; index++) {
+            SpreadsheetTab tab = workbook.createTab("Extra " + index);
+            for (int row = 0; row < 200; row++) {
+                tab.setValue(row, 0, "shared " + (row % 7));
+                tab.setValue(row, 1, "tab " + index + " row " + row, RIGHT);
+                tab.setValue(row, 2, row * index);
+            }
+        }
+
+        Map<String, String> sequential = getZipEntries(write(workbook, WriteOptions.SPREADSHEETML));
+        Map<String, String> parallel = getZipEntries(write(workbook, WriteOptions.SPREADSHEETML.withParallelism(4)));
+
+        assertThat(parallel)
+                .isEqualTo(sequential);
+        XSSFWorkbook poiWorkbook = read(write(workbook, WriteOptions.SPREADSHEETML.withParallelism(4)));
+        assertThat(poiWorkbook.getSheet("Extra 5").getRow(199).getCell(1).getStringCellValue())
+                .isEqualTo("tab 5 row 199");
+    }
+
+    @Test
+    public void write_DeflatesLargeSheetsInBlocksOnSeveralThreads() throws IOException {
+        SpreadsheetWorkbook workbook = buildWorkbook();
+        SpreadsheetTab large = workbook.createTab("Large");
+        for (int row = 0; row < 20000; row++) {
+            large.setValue(row, 0, "item " + row);
+            large.setValue(row, 1, row * 0.25, CENTER_ONE_DECIMAL);
+        }
+        WriteOptions blocks = WriteOptions.SPREADSHEETML.withParallelism(3).withDeflateBlockSize(64 * 1024);
+
+        byte[] bytes = write(workbook, blocks);
+
+        assertThat(getZipEntries(bytes))
+                .isEqualTo(getZipEntries(write(workbook, WriteOptions.SPREADSHEETML)));
+        assertThat(read(bytes).getSheet("Large").getRow(19999).getCell(0).getStringCellValue())
+                .isEqualTo("item 19999");
+    }
+
+    @Test
+    public void write_StoresPartsBelowTheThresholdAndDeflatesTheOthers() throws IOException {
+        SpreadsheetWorkbook workbook = buildWorkbook();
+        SpreadsheetTab large = workbook.createTab("Large");
+        for (int row = 0; row < 1000; row++) {
+            large.setValue(row, 0, "item " + row);
+        }
+
+        byte[] bytes = write(workbook, WriteOptions.SPREADSHEETML.withStoredBelow(4096));
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes));
+        Map<String, Integer> methods = new TreeMap<String, Integer>();
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            methods.put(entry.getName(), entry.getMethod());
+        }
+        assertThat(methods.get("_rels/.rels"))
+                .isEqualTo(ZipEntry.STORED);
+        assertThat(methods.get("xl/worksheets/sheet2.xml"))
+                .isEqualTo(ZipEntry.STORED);
+        assertThat(methods.get("xl/worksheets/sheet3.xml"))
+                .isEqualTo(ZipEntry.DEFLATED);
+        assertThat(getZipEntries(bytes))
+                .isEqualTo(getZipEntries(write(workbook, WriteOptions.SPREADSHEETML)));
+    }
+
+    @Test
+    public void write_UsesTheCompressionLevel() throws IOException {
+        SpreadsheetWorkbook workbook = buildWorkbook();
+        SpreadsheetTab large = workbook.createTab("Large");
+        for (int row = 0; row < 5000; row++) {
+            large.setValue(row, 0, row);
+        }
+
+        byte[] uncompressed = write(workbook, WriteOptions.SPREADSHEETML.withCompressionLevel(Deflater.NO_COMPRESSION));
+        byte[] smallest = write(workbook, WriteOptions.SPREADSHEETML.withCompressionLevel(Deflater.BEST_COMPRESSION));
+
+        assertThat(smallest.length)
+                .isLessThan(uncompressed.length / 4);
+        assertThat(getZipEntries(smallest))
+                .isEqualTo(getZipEntries(uncompressed));
+    }
+
+    @Test
+    public void write_WritesStringsInlineWithTheInlinePolicy() throws IOException {
+        SpreadsheetWorkbook workbook = buildWorkbook();
+        byte[] shared = write(workbook, WriteOptions.SPREADSHEETML);
+        byte[] inline = write(workbook, WriteOptions.SPREADSHEETML.withSharedStrings(WriteOptions.SharedStrings.INLINE));
+
+        String sheet = getZipEntries(inline).get("xl/worksheets/sheet1.xml");
+        assertThat(sheet)
+                .contains("t=\"inlineStr\"><is><t>")
+                .doesNotContain("t=\"s\"><v>");
+        XSSFWorkbook expected = read(shared);
+        XSSFWorkbook actual = read(inline);
+        for (int i = 0; i < expected.getNumberOfSheets(); i++) {
+            assertSameSheet(expected.getSheetAt(i), actual.getSheetAt(i));
+        }
+    }
+
+    @Test
+    public void write_WritesUniqueColumnsInlineWithTheAutoPolicy() throws IOException {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("Orders");
+        for (int row = 0; row < 1000; row++) {
+            tab.setValue(row, 0, "order " + row);
+            tab.setValue(row, 1, row % 2 == 0 ? "open" : "closed");
+        }
+
+        byte[] bytes = write(workbook, WriteOptions.SPREADSHEETML.withSharedStrings(WriteOptions.SharedStrings.AUTO));
+
+        String sharedStrings = getZipEntries(bytes).get("xl/sharedStrings.xml");
+        assertThat(sharedStrings)
+                .contains("<t>open</t>")
+                .contains("<t>order 0</t>")
+                .doesNotContain("<t>order 999</t>");
+        Sheet sheet = read(bytes).getSheetAt(0);
+        for (int row = 0; row < 1000; row++) {
+            assertThat(sheet.getRow(row).getCell(0).getStringCellValue())
+                    .isEqualTo("order " + row);
+            assertThat(sheet.getRow(row).getCell(1).getStringCellValue())
+                    .isEqualTo(row % 2 == 0 ? "open" : "closed");
+        }
+    }
+
+    @Test
+    public void write_KeepsTheSharedStringsBelowTheMaximum() throws IOException {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("Strings");
+        for (int row = 0; row < 100; row++) {
+            tab.setValue(row, 0, "value " + (row % 20));
+        }
+
+        byte[] bytes = write(workbook, WriteOptions.SPREADSHEETML.withMaxSharedStrings(10));
+
+        assertThat(getZipEntries(bytes).get("xl/sharedStrings.xml"))
+                .contains("uniqueCount=\"10\"")
+                .contains("count=\"50\"");
+        Sheet sheet = read(bytes).getSheetAt(0);
+        for (int row = 0; row < 100; row++) {
+            assertThat(sheet.getRow(row).getCell(0).getStringCellValue())
+                    .isEqualTo("value " + (row % 20));
+        }
+    }
+
+    @Test
+    public void write_KeepsTheSheetViewsOfThePoiSheets() throws IOException {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab first = workbook.createTab("Frozen");
+        first.setValue(0, 0, "header");
+        first.getPoiSheet().createFreezePane(1, 2);
+        first.getPoiSheet().setZoom(150);
+        workbook.createTab("Plain").setValue(0, 0, "value");
+
+        byte[] bytes = write(workbook, WriteOptions.SPREADSHEETML);
+
+        XSSFWorkbook actual = read(bytes);
+        PaneInformation pane = actual.getSheetAt(0).getPaneInformation();
+        assertThat(pane.isFreezePane())
+                .isTrue();
+        assertThat((int) pane.getVerticalSplitPosition())
+                .isEqualTo(1);
+        assertThat((int) pane.getHorizontalSplitPosition())
+                .isEqualTo(2);
+        assertThat(actual.getSheetAt(0).getCTWorksheet().getSheetViews().getSheetViewArray(0).getZoomScale())
+                .isEqualTo(150);
+        assertThat(actual.getSheetAt(0).isSelected())
+                .isTrue();
+        assertThat(actual.getSheetAt(1).isSelected())
+                .isFalse();
+        assertThat(actual.getSheetAt(1).getPaneInformation())
+                .isNull();
+    }
+
+    @Test
+    public void write_FailsForWorkbooksThatAreNotDeferred() throws IOException {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook();
+        workbook.createTab("regular").setValue("A1", "value");
+        try {
+            workbook.write(new ByteArrayOutputStream(), WriteOptions.SPREADSHEETML);
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+    }
+
+    private void assertSameSheet(Sheet expected, Sheet actual) {
+        DataFormatter formatter = new DataFormatter();
+        assertThat(actual.getSheetName())
+                .isEqualTo(expected.getSheetName());
+        assertThat(actual.getLastRowNum())
+                .isEqualTo(expected.getLastRowNum());
+        assertThat(actual.getMergedRegions())
+                .isEqualTo(expected.getMergedRegions());
+        assertThat(actual.getDefaultRowHeight())
+                .isEqualTo(expected.getDefaultRowHeight());
+        for (int col = 0; col < 8; col++) {
+            assertThat(actual.getColumnWidth(col))
+                    .isEqualTo(expected.getColumnWidth(col));
+            assertThat(alignment(actual.getColumnStyle(col)))
+                    .isEqualTo(alignment(expected.getColumnStyle(col)));
+        }
+
+        for (int rowNum = 0; rowNum <= expected.getLastRowNum(); rowNum++) {
+            Row expectedRow = expected.getRow(rowNum);
+            Row actualRow = actual.getRow(rowNum);
+            if (expectedRow == null) {
+                assertThat(actualRow).isNull();
+                continue;
+            }
+            assertThat(actualRow.getHeight())
+                    .isEqualTo(expectedRow.getHeight());
+            assertThat(alignment(actualRow.getRowStyle()))
+                    .isEqualTo(alignment(expectedRow.getRowStyle()));
+            assertThat(actualRow.getLastCellNum())
+                    .isEqualTo(expectedRow.getLastCellNum());
+            for (int col = 0; col < expectedRow.getLastCellNum(); col++) {
+                Cell expectedCell = expectedRow.getCell(col);
+                Cell actualCell = actualRow.getCell(col);
+                if (expectedCell == null) {
+                    assertThat(actualCell).isNull();
+                    continue;
+                }
+                String address = expectedCell.getAddress().formatAsString();
+                assertThat(actualCell.getCellType())
+                        .as(address)
+                        .isEqualTo(expectedCell.getCellType());
+                assertThat(formatter.formatCellValue(actualCell))
+                        .as(address)
+                        .isEqualTo(formatter.formatCellValue(expectedCell));
+                assertSameStyle(address, (XSSFCellStyle) expectedCell.getCellStyle(), (XSSFCellStyle) actualCell.getCellStyle());
+            }
+        }
+    }
+
+    private void assertSameStyle(String address, XSSFCellStyle expected, XSSFCellStyle actual) {
+        assertThat(actual.getDataFormatString()).as(address).isEqualTo(expected.getDataFormatString());
+        assertThat(actual.getAlignmentEnum()).as(address).isEqualTo(expected.getAlignmentEnum());
+        assertThat(actual.getVerticalAlignmentEnum()).as(address).isEqualTo(expected.getVerticalAlignmentEnum());
+        assertThat(actual.getWrapText()).as(address).isEqualTo(expected.getWrapText());
+        assertThat(actual.getRotation()).as(address).isEqualTo(expected.getRotation());
+        assertThat(actual.getIndention()).as(address).isEqualTo(expected.getIndention());
+        assertThat(actual.getLocked()).as(address).isEqualTo(expected.getLocked());
+        assertThat(actual.getHidden()).as(address).isEqualTo(expected.getHidden());
+        assertThat(actual.getBorderTopEnum()).as(address).isEqualTo(expected.getBorderTopEnum());
+        assertThat(actual.getBorderLeftEnum()).as(address).isEqualTo(expected.getBorderLeftEnum());
+        assertThat(actual.getBorderBottomEnum()).as(address).isEqualTo(expected.getBorderBottomEnum());
+        assertThat(actual.getBorderRightEnum()).as(address).isEqualTo(expected.getBorderRightEnum());
+        assertThat(rgb(actual.getBottomBorderXSSFColor())).as(address).isEqualTo(rgb(expected.getBottomBorderXSSFColor()));
+        assertThat(actual.getFillPatternEnum()).as(address).isEqualTo(expected.getFillPatternEnum());
+        assertThat(rgb(actual.getFillForegroundXSSFColor())).as(address).isEqualTo(rgb(expected.getFillForegroundXSSFColor()));
+
+        XSSFFont expectedFont = expected.getFont();
+        XSSFFont actualFont = actual.getFont();
+        assertThat(actualFont.getFontName()).as(address).isEqualTo(expectedFont.getFontName());
+        assertThat(actualFont.getFontHeightInPoints()).as(address).isEqualTo(expectedFont.getFontHeightInPoints());
+        assertThat(actualFont.getBold()).as(address).isEqualTo(expectedFont.getBold());
+        assertThat(actualFont.getItalic()).as(address).isEqualTo(expectedFont.getItalic());
+        assertThat(actualFont.getStrikeout()).as(address).isEqualTo(expectedFont.getStrikeout());
+        assertThat(actualFont.getUnderline()).as(address).isEqualTo(expectedFont.getUnderline());
+        assertThat(actualFont.getTypeOffset()).as(address).isEqualTo(expectedFont.getTypeOffset());
+    }
+
+    private static HorizontalAlignment alignment(CellStyle style) {
+        return style != null ? style.getAlignmentEnum() : null;
+    }
+
+    private static String rgb(XSSFColor color) {
+        if (color == null || color.getRGB() == null) return null;
+        byte[] rgb = color.getRGB();
+        return String.format("%02X%02X%02X", rgb[0], rgb[1], rgb[2]);
+    }
+
+    private static byte[] write(SpreadsheetWorkbook workbook, WriteOptions options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out, options);
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> getZipEntries(byte[] bytes) throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes));
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            entries.put(entry.getName(), new String(ByteStreams.toByteArray(zip), StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    private static XSSFWorkbook read(byte[] bytes) throws IOException {
+        return new XSSFWorkbook(new ByteArrayInputStream(bytes));
+    }
+
+}
@@ -3,11 +3,30 @@ package taro.spreadsheet.model;
 import org.apache.poi.ss.usermodel.BorderStyle;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import com.google.common.io.ByteStreams;
 import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import org.junit.Test;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.within;
+import static org.junit.Assert.fail;
 import static taro.spreadsheet.model.SpreadsheetCellStyle.CENTER;
 import static taro.spreadsheet.model.SpreadsheetCellStyle.LEFT;
 import static taro.spreadsheet.model.SpreadsheetCellStyle.RIGHT;
@@ -165,6 +184,132 @@ public class SpreadsheetTabTest extends AbstractTest {
                 .isCloseTo(expectedRowHeight, within(0.00000001));
     }
 
+    @Test
+    public void autosizeRows_MeasuresOnlyTheCellsThatWereWritten() {
+        SpreadsheetTab tab = getSpreadsheetTab();
+        tab.setValue(0, 0, "two\nlines");
+        tab.setValue(3, 6, "one line");
+
+        tab.autosizeRows();
+
+        Sheet sheet = tab.getPoiSheet();
+        assertThat(sheet.getRow(0).getPhysicalNumberOfCells())
+                .isEqualTo(1);
+        assertThat(sheet.getRow(1))
+                .isNull();
+        assertThat(sheet.getRow(3).getPhysicalNumberOfCells())
+                .isEqualTo(1);
+        assertThat((double) sheet.getRow(0).getHeightInPoints())
+                .isCloseTo(tab.computeRowHeightInPoints(11, 2), within(0.00000001));
+    }
+
+    @Test
+    public void autoSizeRow_CountsTheLinesOfWrappedText() {
+        SpreadsheetTab tab = getSpreadsheetTab();
+        SpreadsheetCellStyle wrap = LEFT.withWrapText(true);
+        String text = "a long description that does not fit on one line of a narrow column";
+        tab.setValue(0, 0, text, wrap);
+        tab.setValue(1, 1, text, wrap);
+        tab.setValue(2, 2, text);
+        tab.setColWidth(0, 10 * 256);
+        tab.setColWidth(1, 100 * 256);
+        tab.setColWidth(2, 10 * 256);
+
+        tab.autosizeRows();
+
+        int lines = ColumnWidthEstimator.countWrappedLines(text, LEFT.getFont(), 10);
+        assertThat(lines)
+                .isGreaterThan(5);
+        assertThat((double) tab.getPoiSheet().getRow(0).getHeightInPoints())
+                .isCloseTo(tab.computeRowHeightInPoints(11, lines), within(0.00000001));
+        assertThat(tab.getPoiSheet().getRow(1).getHeightInPoints())
+                .isEqualTo(tab.getPoiSheet().getDefaultRowHeightInPoints());
+        assertThat(tab.getPoiSheet().getRow(2).getHeightInPoints())
+                .isEqualTo(tab.getPoiSheet().getDefaultRowHeightInPoints());
+    }
+
+    @Test
+    public void autosizeCols_IsWithinTheToleranceOfPoi() {
+        String[] values = {"Some text", "A", "Quarterly revenue by region", "WWWWWWWW", "iiiiiiiiii",
+                "john.smith@example.com", "ORDER-000123", "The quick brown fox jumps over the lazy dog"};
+        SpreadsheetCellStyle[] styles = {null, SpreadsheetCellStyle.DEFAULT.withBold(true),
+                SpreadsheetCellStyle.DEFAULT.withFontSizeInPoints(16)};
+        SpreadsheetTab tab = getSpreadsheetTab();
+        SpreadsheetTab poiTab = getSpreadsheetTab();
+        int col = 0;
+        for (SpreadsheetCellStyle style : styles) {
+            for (String value : values) {
+                tab.setValue(0, col, value, style);
+                poiTab.setValue(0, col++, value, style);
+            }
+        }
+        tab.setValue(1, col, 1234567.891);
+        poiTab.setValue(1, col++, 1234567.891);
+        tab.setValue(1, col, LocalDate.of(2015, 1, 1), LEFT.withDataFormatString("yyyy-mm-dd"));
+        poiTab.setValue(1, col++, LocalDate.of(2015, 1, 1), LEFT.withDataFormatString("yyyy-mm-dd"));
+
+        tab.autosizeCols();
+
+        for (int i = 0; i < col; i++) {
+            poiTab.getPoiSheet().autoSizeColumn(i, true);
+            int poiWidth = poiTab.getColWidth(i);
+            assertThat((double) tab.getColWidth(i))
+                    .isCloseTo(poiWidth, within(Math.max(poiWidth / 10.0, 256)));
+        }
+    }
+
+    @Test
+    public void autosizeCols_SizesColumnsToTheirWidestCell() {
+        SpreadsheetTab tab = getSpreadsheetTab();
+        tab.setValue(0, 0, "short");
+        tab.setValue(1, 0, "a much longer value");
+        tab.setValue(0, 1, "first line\nsecond line, longer");
+        tab.setValue(0, 2, "a value", LEFT.withBold(true));
+        tab.setValue(0, 3, "a value", LEFT.withFontSizeInPoints(22));
+        tab.mergeCells(2, 2, 4, 5, "a merged value over two columns", LEFT);
+        tab.setColWidth(6, 1000);
+        tab.setValue(0, 7, "after an empty column");
+
+        tab.autosizeCols();
+
+        assertThat(tab.getColWidth(0))
+                .isEqualTo(estimateWidth("a much longer value"));
+        assertThat(tab.getColWidth(1))
+                .isEqualTo(estimateWidth("second line, longer"));
+        assertThat(tab.getColWidth(2))
+                .isGreaterThan(estimateWidth("a value"));
+        assertThat((double) tab.getColWidth(3))
+                .isCloseTo(2 * estimateWidth("a value"), within(2.0));
+        assertThat((double) tab.getColWidth(4))
+                .isCloseTo(estimateWidth("a merged value over two columns") / 2, within(2.0));
+        assertThat(tab.getColWidth(5))
+                .isEqualTo(tab.getColWidth(4));
+        assertThat(tab.getColWidth(6))
+                .isEqualTo(1000);
+    }
+
+    @Test
+    public void autosizeCols_SizesTheColumnsOfDeferredTabsWhenWritten() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setValue(0, 0, "a much longer value");
+        tab.setValue(0, 1, 12.5, LEFT.withDataFormatString("0.00"));
+        tab.autosizeCols();
+
+        String sheet = getZipEntries(workbook, WriteOptions.SPREADSHEETML).get("xl/worksheets/sheet1.xml");
+
+        assertThat(sheet)
+                .contains("<col min=\"1\" max=\"1\" width=\"" + estimateWidth("a much longer value") / 256.0 + "\"")
+                .contains("<col min=\"2\" max=\"2\" width=\"" + estimateWidth("12.50") / 256.0 + "\"");
+    }
+
+    private static int estimateWidth(String value) {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook();
+        SpreadsheetTab tab = workbook.createTab("estimate");
+        tab.setValue(0, 0, value);
+        return tab.estimateColWidths(new ColumnWidthEstimator(workbook))[0];
+    }
+
     @Test
     public void setSurroundBorder_AddsBorderToCellRangePerimeter() {
         SpreadsheetTab tab = getSpreadsheetTab();
@@ -209,4 +354,550 @@ public class SpreadsheetTabTest extends AbstractTest {
                 .isEqualTo(BorderStyle.MEDIUM);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void streamingTab_KeepsOnlyTheWindowOfRowsInMemory() {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.streaming(5);
+        try {
+            SpreadsheetTab tab = workbook.createTab("streaming");
+            for (int row = 0; row < 20; row++) {
+                tab.setValue(row, 0, "row " + row, CENTER);
+            }
+
+            assertThat(tab.getLastFlushedRow())
+                    .isEqualTo(14);
+            assertThat(tab.getCell(15, 0).getValue())
+                    .isEqualTo("row 15");
+            assertThat(tab.getCell(19, 0).getStyle())
+                    .isEqualTo(CENTER);
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    @Test
+    public void streamingTab_ExposesItsPoiSheetAndCellsOnlyThroughTheInterfaces() {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.streaming(5);
+        try {
+            SpreadsheetTab tab = workbook.createTab("streaming");
+            tab.setValue(0, 0, "value");
+
+            assertThat(tab.getPoiSheetInterface())
+                    .isInstanceOf(SXSSFSheet.class);
+            assertThat(tab.getCell(0, 0).getPoiCellInterface().getStringCellValue())
+                    .isEqualTo("value");
+            try {
+                tab.getPoiSheet();
+                fail("Expected a TaroSpreadsheetException but not thrown.");
+            } catch (TaroSpreadsheetException ex) { /* expected */ }
+            try {
+                tab.getCell(0, 0).getPoiCell();
+                fail("Expected a TaroSpreadsheetException but not thrown.");
+            } catch (TaroSpreadsheetException ex) { /* expected */ }
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    @Test
+    public void streamingTab_FailsWhenTouchingAFlushedRow() {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.streaming(5);
+        try {
+            SpreadsheetTab tab = workbook.createTab("streaming");
+            for (int row = 0; row < 20; row++) {
+                tab.setValue(row, 0, "row " + row);
+            }
+
+            try {
+                tab.setValue(3, 1, "too late");
+                fail("Expected a TaroSpreadsheetException but not thrown.");
+            } catch (TaroSpreadsheetException ex) { /* expected */ }
+
+            try {
+                tab.getCell(14, 0);
+                fail("Expected a TaroSpreadsheetException but not thrown.");
+            } catch (TaroSpreadsheetException ex) { /* expected */ }
+
+            try {
+                tab.setRowHeight(0, 400);
+                fail("Expected a TaroSpreadsheetException but not thrown.");
+            } catch (TaroSpreadsheetException ex) { /* expected */ }
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    @Test
+    public void setValues_WritesABlockWithColumnStyles() {
+        SpreadsheetTab tab = getSpreadsheetTab();
+        tab.setValue(1, 2, "old", RIGHT);
+
+        int nextRow = tab.setValues(1, 1, new Object[][] {
+                {"a", 1.5, null},
+                null,
+                {"c", 3}
+        }, CENTER, null);
+
+        assertThat(nextRow)
+                .isEqualTo(4);
+        assertThat(tab.getCell("B2").getValue())
+                .isEqualTo("a");
+        assertThat(tab.getCell("B2").getStyle())
+                .isEqualTo(CENTER);
+        assertThat(tab.getCell("C2").getPoiCell().getNumericCellValue())
+                .isEqualTo(1.5);
+        assertThat(tab.getCell("C2").getStyle())
+                .isEqualTo(RIGHT);
+        assertThat(tab.getCell("D2").getValue())
+                .isEmpty();
+        assertThat(tab.getCell("B3"))
+                .isNull();
+        assertThat(tab.getCell("C4").getPoiCell().getNumericCellValue())
+                .isEqualTo(3);
+    }
+
+    @Test
+    public void setValues_WritesNumbersToADeferredTab() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+
+        tab.setValues(0, 0, new double[][] {{1, 2}, {3, Double.NaN}}, SpreadsheetCellStyle.CENTER_ONE_DECIMAL);
+        tab.setValues(2, 0, Arrays.<Object[]>asList(new Object[] {"x", true}));
+        workbook.write(new ByteArrayOutputStream());
+
+        Sheet sheet = tab.getPoiSheet();
+        assertThat(sheet.getRow(1).getCell(0).getNumericCellValue())
+                .isEqualTo(3);
+        assertThat(sheet.getRow(1).getCell(0).getCellStyle().getDataFormatString())
+                .isEqualTo("0.0");
+        assertThat(sheet.getRow(1).getCell(1).getStringCellValue())
+                .isEmpty();
+        assertThat(sheet.getRow(2).getCell(1).getBooleanCellValue())
+                .isTrue();
+    }
+
+    @Test
+    public void getCell_ReturnsViewsThatShareTheCellsStyle() {
+        SpreadsheetTab tab = getSpreadsheetTab();
+        tab.setValue(0, 0, "text", CENTER);
+
+        SpreadsheetCell view = tab.getCell(0, 0);
+        view.setStyle(LEFT);
+
+        assertThat(tab.getCell(0, 0))
+                .isNotSameAs(view);
+        assertThat(tab.getCell(0, 0).getStyle())
+                .isEqualTo(LEFT);
+        assertThat(tab.getOrCreateCell(0, 0).getValue())
+                .isEqualTo("text");
+        assertThat(tab.getCell(0, 1))
+                .isNull();
+    }
+
+    @Test
+    public void rowWriter_WritesRowsInOrder() {
+        SpreadsheetTab tab = getSpreadsheetTab();
+        tab.setValue(0, 0, "header");
+        tab.setValue(1, 1, "old");
+
+        RowWriter writer = tab.rowWriter(1, 1);
+        writer.nextRow().cell("a", CENTER).skip(1).cell(2.5);
+        writer.nextRow().cell(true).cell(7L, CENTER);
+
+        assertThat(tab.getCell("B2").getValue())
+                .isEqualTo("a");
+        assertThat(tab.getCell("B2").getStyle())
+                .isEqualTo(CENTER);
+        assertThat(tab.getCell("C2"))
+                .isNull();
+        assertThat(tab.getCell("D2").getPoiCell().getNumericCellValue())
+                .isEqualTo(2.5);
+        assertThat(tab.getCell("B3").getPoiCell().getBooleanCellValue())
+                .isTrue();
+        assertThat(tab.getCell("C3").getStyle())
+                .isEqualTo(CENTER);
+        assertThat(writer.getRow())
+                .isEqualTo(2);
+        assertThat(writer.getCol())
+                .isEqualTo(3);
+
+        tab.rowWriter().nextRow().cell("appended");
+        assertThat(tab.getCell("A4").getValue())
+                .isEqualTo("appended");
+    }
+
+    @Test
+    public void rowWriter_RecordsModifiedCellsForAutosizing() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+
+        RowWriter writer = tab.rowWriter();
+        writer.nextRow().cell("one").cell("two");
+        writer.nextRow().cell("three\nlines\nhere", CENTER);
+        tab.autosizeRows();
+        workbook.write(new ByteArrayOutputStream());
+
+        Sheet sheet = tab.getPoiSheet();
+        assertThat(sheet.getRow(0).getCell(1).getStringCellValue())
+                .isEqualTo("two");
+        assertThat(sheet.getRow(1).getCell(0).getCellStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.CENTER);
+        assertThat(sheet.getRow(1).getHeightInPoints())
+                .isGreaterThan(sheet.getDefaultRowHeightInPoints());
+    }
+
+    @Test
+    public void rowWriter_FailsBeforeTheFirstRowAndOnFlushedRows() {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.streaming(5);
+        try {
+            SpreadsheetTab tab = workbook.createTab("streaming");
+            try {
+                tab.rowWriter().cell("no row");
+                fail("Expected an IllegalStateException but not thrown.");
+            } catch (IllegalStateException ex) { /* expected */ }
+
+            RowWriter writer = tab.rowWriter();
+            for (int row = 0; row < 20; row++) {
+                writer.nextRow().cell("row " + row, CENTER);
+            }
+            assertThat(tab.getLastFlushedRow())
+                    .isEqualTo(14);
+            assertThat(tab.getCell(19, 0).getStyle())
+                    .isEqualTo(CENTER);
+
+            try {
+                tab.rowWriter(3, 0).nextRow();
+                fail("Expected a TaroSpreadsheetException but not thrown.");
+            } catch (TaroSpreadsheetException ex) { /* expected */ }
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    @Test
+    public void rowBands_FilledConcurrentlyWriteTheSameBytesAsASequentialBuild() throws Exception {
+        final int bandSize = 250;
+        final int numBands = 4;
+
+        SpreadsheetWorkbook sequential = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab sequentialTab = sequential.createTab("bands");
+        sequentialTab.setStyle(0, RangeStyles.LAST_ROW, 6, 6, CENTER);
+        for (int row = 0; row < bandSize * numBands; row++) {
+            for (int col = 0; col < 7; col++) {
+                sequentialTab.setValue(row, col, getBandValue(row, col), getBandStyle(row, col));
+            }
+            if (row % 100 == 0) {
+                sequentialTab.setRowHeight(row, 600);
+            }
+        }
+
+        SpreadsheetWorkbook parallel = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab parallelTab = parallel.createTab("bands");
+        parallelTab.setStyle(0, RangeStyles.LAST_ROW, 6, 6, CENTER);
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        // created in reverse, so the bands are merged in row order rather than creation order
+        for (int i = numBands - 1; i >= 0; i--) {
+            final RowBand band = parallelTab.rowBand(i * bandSize, (i + 1) * bandSize - 1);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int row = band.getFirstRow(); row <= band.getLastRow(); row++) {
+                            for (int col = 0; col < 7; col++) {
+                                band.setValue(row, col, getBandValue(row, col), getBandStyle(row, col));
+                            }
+                            if (row % 100 == 0) {
+                                band.setRowHeight(row, 600);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures)
+                .isEmpty();
+        // a range style set once the bands are filled restyles their cells, as it does the cells of the tab
+        sequentialTab.setStyle(100, 300, 1, 2, CENTER);
+        parallelTab.setStyle(100, 300, 1, 2, CENTER);
+
+        assertThat(getZipEntries(parallel, WriteOptions.SPREADSHEETML))
+                .isEqualTo(getZipEntries(sequential, WriteOptions.SPREADSHEETML));
+        assertThat(parallelTab.getCell(999, 0).getValue())
+                .isEqualTo("row 999");
+        assertThat(parallelTab.getCell(150, 1).getStyle())
+                .isEqualTo(CENTER);
+        assertThat(parallelTab.getCell(150, 3).getStyle())
+                .isEqualTo(getBandStyle(150, 3));
+
+        Map<String, String> expected = getZipEntries(sequential, WriteOptions.DEFAULT);
+        Map<String, String> actual = getZipEntries(parallel, WriteOptions.DEFAULT);
+        for (String entry : Arrays.asList("xl/worksheets/sheet1.xml", "xl/styles.xml", "xl/sharedStrings.xml")) {
+            assertThat(actual.get(entry))
+                    .as(entry)
+                    .isEqualTo(expected.get(entry));
+        }
+    }
+
+    @Test
+    public void rowBand_RejectsOverlappingBandsAndRowsOutsideTheBand() {
+        SpreadsheetTab tab = SpreadsheetWorkbook.deferred().createTab("bands");
+        RowBand band = tab.rowBand(10, 19);
+
+        try {
+            tab.rowBand(15, 30);
+            fail("Expected an IllegalArgumentException but not thrown.");
+        } catch (IllegalArgumentException ex) { /* expected */ }
+
+        try {
+            band.setValue(20, 0, "outside");
+            fail("Expected an IllegalArgumentException but not thrown.");
+        } catch (IllegalArgumentException ex) { /* expected */ }
+
+        try {
+            getSpreadsheetTab().rowBand(0, 10);
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+    }
+
+    @Test
+    public void rowBand_BuffersOnlyItsOwnRows() {
+        SpreadsheetTab tab = SpreadsheetWorkbook.deferred().createTab("bands");
+        RowBand band = tab.rowBand(100000, 100009);
+        for (int row = 100000; row <= 100009; row++) {
+            band.setValue(row, 0, "row " + row, SpreadsheetCellStyle.DEFAULT.withBold(true));
+        }
+        band.setRowHeight(100009, 400);
+
+        assertThat(band.getBufferRowCapacity())
+                .isLessThan(100);
+
+        tab.mergeRowBands();
+        assertThat(tab.getCell(100000, 0).getValue())
+                .isEqualTo("row 100000");
+        assertThat(tab.getCell(100009, 0).getValue())
+                .isEqualTo("row 100009");
+        assertThat(tab.getCell(100009, 0).getStyle().getBold())
+                .isTrue();
+        assertThat(tab.getCell(9, 0))
+                .isNull();
+    }
+
+    private static Object getBandValue(int row, int col) {
+        switch (col) {
+            case 0: return "row " + row;
+            case 1: return "group " + (row % 13);
+            case 2: return row % 3 == 0;
+            case 6: return row / 7.0;
+            default: return row * 100.0 + col;
+        }
+    }
+
+    private static SpreadsheetCellStyle getBandStyle(int row, int col) {
+        if (col == 6) return null;
+        return new SpreadsheetCellStyle()
+                .withIndention((row / 50) % 6)
+                .withBold(col == 0)
+                .withDataFormatString(col == 3 ? "#,##0.00" : null);
+    }
+
+    private static Map<String, String> getZipEntries(SpreadsheetWorkbook workbook, WriteOptions options) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out, options);
+        Map<String, String> entries = new TreeMap<String, String>();
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            entries.put(entry.getName(), new String(ByteStreams.toByteArray(zip), StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    @Test
+    public void deferredTab_BuffersValuesAndStylesUntilWritten() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setValue(0, 0, "text", CENTER);
+        tab.setValue(0, 1, 2.25, SpreadsheetCellStyle.CENTER_ONE_DECIMAL);
+        tab.setValue(0, 2, true);
+        tab.setValue(0, 3, "=B1*2");
+        tab.setSurroundBorder(1, 2, 0, 1, BorderStyle.THIN);
+
+        assertThat(tab.getPoiSheet().getPhysicalNumberOfRows())
+                .isEqualTo(0);
+        assertThat(tab.getCell(0, 0).getValue())
+                .isEqualTo("text");
+        assertThat(tab.getCell(0, 0).getStyle())
+                .isEqualTo(CENTER);
+        assertThat(tab.getCell(0, 1).getValue())
+                .isEqualTo("2.3");
+        assertThat(tab.getCell(0, 2).getValue())
+                .isEqualTo("TRUE");
+        assertThat(tab.getCell(0, 3).getValue())
+                .isEqualTo("B1*2");
+        assertThat(tab.getCell(2, 1).getStyle().getBottomBorder())
+                .isEqualTo(BorderStyle.THIN);
+        assertThat(tab.getCell(5, 5))
+                .isNull();
+        try {
+            tab.getCell(0, 0).getPoiCell();
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+
+        workbook.write(new ByteArrayOutputStream());
+
+        assertThat(tab.getPoiSheet().getRow(0).getCell(1).getNumericCellValue())
+                .isCloseTo(2.25, within(0.0000001));
+        assertThat(tab.getCell(0, 3).getPoiCell().getCellFormula())
+                .isEqualTo("B1*2");
+        assertThat(tab.getCell(2, 1).getPoiCell().getCellStyle().getBorderBottomEnum())
+                .isEqualTo(BorderStyle.THIN);
+    }
+
+    @Test
+    public void deferredTab_ReusesTheRefsOfOverwrittenStrings() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setValue(1, 0, "kept");
+        for (int pass = 0; pass < 100; pass++) {
+            tab.printAcross(0, 0, null, "a" + pass, "b" + pass, "kept", new XSSFRichTextString("rich" + pass));
+        }
+        tab.setValue(1, 0, 3.0);
+
+        CellBuffer buffer = tab.getBuffer();
+        assertThat(buffer.getStringCount())
+                .isLessThanOrEqualTo(4);
+        assertThat(buffer.getRichTextCount())
+                .isEqualTo(1);
+
+        workbook.write(new ByteArrayOutputStream());
+
+        Row row = tab.getPoiSheet().getRow(0);
+        assertThat(row.getCell(0).getStringCellValue())
+                .isEqualTo("a99");
+        assertThat(row.getCell(1).getStringCellValue())
+                .isEqualTo("b99");
+        assertThat(row.getCell(2).getStringCellValue())
+                .isEqualTo("kept");
+        assertThat(row.getCell(3).getStringCellValue())
+                .isEqualTo("rich99");
+        assertThat(tab.getPoiSheet().getRow(1).getCell(0).getNumericCellValue())
+                .isEqualTo(3.0);
+    }
+
+    @Test
+    public void deferredTab_RecordsRangeStylesWithoutCreatingCells() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setValue(1, 1, "before");
+        tab.setStyle(0, 99999, 0, 199, CENTER);
+
+        assertThat(tab.getBuffer().getLastRow())
+                .isEqualTo(1);
+        assertThat(tab.getCell(1, 1).getStyle())
+                .isEqualTo(CENTER);
+        assertThat(tab.getCell(5000, 150).getStyle())
+                .isEqualTo(CENTER);
+        assertThat(tab.getCell(5000, 200))
+                .isNull();
+
+        tab.setValue(2, 2, "inherits");
+        tab.setValue(2, 3, "overrides", LEFT);
+        tab.setStyle(0, 0, 0, 1, RIGHT);
+
+        assertThat(tab.getCell(2, 2).getStyle())
+                .isEqualTo(CENTER);
+        assertThat(tab.getCell(2, 3).getStyle())
+                .isEqualTo(LEFT);
+        assertThat(tab.getCell(0, 1).getStyle())
+                .isEqualTo(RIGHT);
+        assertThat(tab.getCell(0, 2).getStyle())
+                .isEqualTo(CENTER);
+    }
+
+    @Test
+    public void deferredTab_WritesRangeStylesAsCellsAndRowAndColumnStyles() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setStyle(2, 3, 0, RangeStyles.LAST_COL, RIGHT);
+        tab.setStyle(0, RangeStyles.LAST_ROW, 4, 5, LEFT);
+        tab.setStyle(0, 9, 1, 2, CENTER);
+        tab.setValue(0, 0, "value");
+
+        workbook.write(new ByteArrayOutputStream());
+
+        Sheet sheet = tab.getPoiSheet();
+        assertThat(sheet.getColumnStyle(4).getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.LEFT);
+        assertThat(sheet.getRow(2).getRowStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.RIGHT);
+        assertThat(sheet.getRow(9).getCell(2).getCellStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.CENTER);
+        assertThat(sheet.getRow(10))
+                .isNull();
+        assertThat(sheet.getRow(5).getCell(4))
+                .isNull();
+        // the newer column band overrides the row band, which needs explicit cells in the rows of the band
+        assertThat(sheet.getRow(2).getCell(4).getCellStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.LEFT);
+        assertThat(sheet.getRow(2).getCell(0))
+                .isNull();
+        assertThat(sheet.getRow(0).getCell(0).getCellStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.GENERAL);
+    }
+
+    @Test
+    public void deferredTab_StoresPrimitiveAndJavaTimeValues() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setValue(0, 0, 1.5, CENTER);
+        tab.setValue(0, 1, 42L);
+        tab.setValue(0, 2, false);
+        tab.setValue(0, 3, new StringBuilder("=A1*2"));
+        tab.setValue(0, 4, LocalDate.of(2015, 1, 1));
+        tab.setValue(0, 5, (CharSequence) null, RIGHT);
+
+        workbook.write(new ByteArrayOutputStream());
+
+        Row row = tab.getPoiSheet().getRow(0);
+        assertThat(row.getCell(0).getNumericCellValue())
+                .isEqualTo(1.5);
+        assertThat(row.getCell(0).getCellStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.CENTER);
+        assertThat(row.getCell(1).getNumericCellValue())
+                .isEqualTo(42);
+        assertThat(row.getCell(2).getBooleanCellValue())
+                .isFalse();
+        assertThat(row.getCell(3).getCellFormula())
+                .isEqualTo("A1*2");
+        assertThat(row.getCell(4).getLocalDateTimeCellValue())
+                .isEqualTo(LocalDate.of(2015, 1, 1).atStartOfDay());
+        assertThat(row.getCell(5).getCellStyle().getAlignmentEnum())
+                .isEqualTo(HorizontalAlignment.RIGHT);
+    }
+
+    @Test
+    public void deferredTab_AutoSizesRowsFromBufferedValues() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab tab = workbook.createTab("deferred");
+        tab.setValue(0, 0, "three\nlines\nhere");
+        tab.setStyle("A1", LEFT.withFontSizeInPoints(13));
+
+        tab.autosizeRows();
+
+        assertThat(tab.getRowHeight(0))
+                .isEqualTo(1015);    // 50.75 points
+
+        workbook.write(new ByteArrayOutputStream());
+
+        assertThat((double) tab.getPoiSheet().getRow(0).getHeightInPoints())
+                .isCloseTo(50.75, within(0.00000001));
+    }
+
+}
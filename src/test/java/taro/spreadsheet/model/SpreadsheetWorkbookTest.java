@@ -1,13 +1,37 @@
 package taro.spreadsheet.model;
 
+import com.google.common.io.ByteStreams;
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Before;
 import org.junit.Test;
-
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
 import java.util.Map;
-
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.google.common.collect.Lists.newArrayList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
@@ -176,6 +200,23 @@ public class SpreadsheetWorkbookTest extends AbstractTest {
                 .isSameAs(poiFontTwo);
     }
 
+    @Test
+    public void applyStyle_ReusesComposedStyles() {
+        SpreadsheetWorkbook workbook = getSpreadsheetWorkbook();
+        SpreadsheetTab tab = workbook.createTab("borders");
+        tab.setValue(0, 0, "a", SpreadsheetCellStyle.CENTER);
+        tab.setValue(0, 1, "b", SpreadsheetCellStyle.CENTER);
+
+        tab.setTopBorder(0, 0, 1, BorderStyle.THIN);
+
+        assertThat(workbook.getStyleCompositionMisses())
+                .isEqualTo(1);
+        assertThat(workbook.getStyleCompositionHits())
+                .isEqualTo(1);
+        assertThat(tab.getCell(0, 1).getStyle())
+                .isEqualTo(SpreadsheetCellStyle.CENTER.withTopBorder(BorderStyle.THIN));
+    }
+
     @Test
     public void getStyles_ReturnsImmutableMap() {
         SpreadsheetCellStyle style = new SpreadsheetCellStyle().withAlign(HorizontalAlignment.CENTER).withBold(true);
@@ -269,4 +310,296 @@ public class SpreadsheetWorkbookTest extends AbstractTest {
                 .isSameAs(tab2);
     }
 
+    @Test
+    public void styleRegistries_AreSizedByTheStylesOfTheWorkbook() throws IOException {
+        List<SpreadsheetCellStyle> others = newArrayList();
+        for (int i = 0; i < 100000; i++) {
+            others.add(SpreadsheetCellStyle.DEFAULT.withFontName("Font " + i).withDataFormatString("0 \"" + i + "\"").intern());
+        }
+        SpreadsheetCellStyle[] styles = {
+                SpreadsheetCellStyle.DEFAULT.withBold(true),
+                SpreadsheetCellStyle.CENTER,
+                others.get(others.size() - 1)
+        };
+
+        SpreadsheetWorkbook regular = new SpreadsheetWorkbook();
+        SpreadsheetTab regularTab = regular.createTab("regular");
+        SpreadsheetWorkbook deferred = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab deferredTab = deferred.createTab("deferred");
+        RowBand band = deferredTab.rowBand(10, 19);
+        for (int i = 0; i < styles.length; i++) {
+            regularTab.setValue(i, 0, "value", styles[i]);
+            deferredTab.setValue(i, 0, "value", styles[i]);
+            band.setValue(10 + i, 0, "value", styles[i]);
+        }
+        deferredTab.setStyle(0, 5, 1, 2, styles[0].withSurroundBorder(BorderStyle.THIN));
+        deferred.write(new ByteArrayOutputStream());
+
+        assertThat(regular.getStyleRegistryCapacity())
+                .isLessThan(100);
+        assertThat(deferred.getStyleRegistryCapacity())
+                .isLessThan(100);
+        assertThat(deferredTab.getStyleIdCacheCapacity())
+                .isLessThan(100);
+        assertThat(deferredTab.getCell(12, 0).getStyle())
+                .isEqualTo(others.get(others.size() - 1));
+    }
+
+    @Test
+    public void deferredTabs_CanBeFilledFromSeparateThreads() throws Exception {
+        final int numTabs = 8;
+        final SpreadsheetWorkbook concurrent = SpreadsheetWorkbook.deferred();
+        ExecutorService executor = Executors.newFixedThreadPool(numTabs);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = newArrayList();
+            for (int i = 0; i < numTabs; i++) {
+                final int tabNum = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        fillTab(concurrent.createTab("tab " + tabNum), tabNum);
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        SpreadsheetWorkbook sequential = SpreadsheetWorkbook.deferred();
+        for (int i = 0; i < numTabs; i++) {
+            fillTab(sequential.createTab("tab " + i), i);
+        }
+
+        XSSFWorkbook concurrentOutput = writeAndRead(concurrent);
+        XSSFWorkbook sequentialOutput = writeAndRead(sequential);
+        DataFormatter formatter = new DataFormatter();
+        for (int i = 0; i < numTabs; i++) {
+            Sheet expected = sequentialOutput.getSheet("tab " + i);
+            Sheet actual = concurrentOutput.getSheet("tab " + i);
+            assertThat(actual.getLastRowNum())
+                    .isEqualTo(expected.getLastRowNum());
+            for (Row expectedRow : expected) {
+                for (Cell expectedCell : expectedRow) {
+                    Cell actualCell = actual.getRow(expectedRow.getRowNum()).getCell(expectedCell.getColumnIndex());
+                    String address = actual.getSheetName() + "!" + expectedCell.getAddress();
+                    assertThat(formatter.formatCellValue(actualCell))
+                            .as(address)
+                            .isEqualTo(formatter.formatCellValue(expectedCell));
+                    assertThat(describe(actualCell.getCellStyle(), concurrentOutput))
+                            .as(address)
+                            .isEqualTo(describe(expectedCell.getCellStyle(), sequentialOutput));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void write_AutosizesTheColumnsOfTabsOnSeveralThreads() throws Exception {
+        SpreadsheetWorkbook sequential = SpreadsheetWorkbook.deferred();
+        SpreadsheetWorkbook parallel = SpreadsheetWorkbook.deferred();
+        for (int i = 0; i < 4; i++) {
+            fillTab(sequential.createTab("tab " + i), i);
+            fillTab(parallel.createTab("tab " + i), i);
+        }
+        ByteArrayOutputStream sequentialOut = new ByteArrayOutputStream();
+        sequential.write(sequentialOut, WriteOptions.SPREADSHEETML);
+        ByteArrayOutputStream parallelOut = new ByteArrayOutputStream();
+        parallel.write(parallelOut, WriteOptions.SPREADSHEETML.withParallelism(4));
+
+        Map<String, String> expected = getZipEntries(sequentialOut.toByteArray());
+        assertThat(getZipEntries(parallelOut.toByteArray()))
+                .isEqualTo(expected);
+        assertThat(expected.get("xl/worksheets/sheet4.xml"))
+                .contains("<col min=\"1\" max=\"1\" width=\"");
+    }
+
+    @Test
+    public void pipelined_WritesTheSameEntriesAsTheSpreadsheetMLEngine() throws Exception {
+        ByteArrayOutputStream pipelinedOut = new ByteArrayOutputStream();
+        SpreadsheetWorkbook pipelined = SpreadsheetWorkbook.pipelined(pipelinedOut, 10);
+        SpreadsheetWorkbook deferred = SpreadsheetWorkbook.deferred();
+        // the pipelined tabs are not autosized, as their columns are written before their rows
+        for (int i = 0; i < 3; i++) {
+            fillTab(pipelined.createTab("tab " + i), i);
+            fillTab(deferred.createTab("tab " + i), i);
+        }
+        pipelined.finish();
+        ByteArrayOutputStream deferredOut = new ByteArrayOutputStream();
+        deferred.write(deferredOut, WriteOptions.SPREADSHEETML);
+
+        Map<String, String> expected = getZipEntries(deferredOut.toByteArray());
+        Map<String, String> actual = getZipEntries(pipelinedOut.toByteArray());
+        assertThat(actual.keySet())
+                .isEqualTo(expected.keySet());
+        for (String name : expected.keySet()) {
+            assertThat(actual.get(name))
+                    .as(name)
+                    .isEqualTo(expected.get(name).replaceFirst("<dimension ref=\"[A-Z0-9:]+\"/>", "")
+                            .replaceFirst("<cols>.*</cols>", ""));
+        }
+        assertThat(new XSSFWorkbook(new ByteArrayInputStream(pipelinedOut.toByteArray()))
+                .getSheet("tab 2").getRow(299).getCell(0).getStringCellValue())
+                .isEqualTo("row 299 of tab 2");
+    }
+
+    @Test
+    public void pipelined_WritesToTheStreamBeforeItIsFinished() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.pipelined(out, 100);
+        RowWriter writer = workbook.createTab("rows").rowWriter();
+        // more XML than the queue between the threads holds, so the background thread must have started writing
+        for (int row = 0; row < 30000; row++) {
+            writer.nextRow().cell("row " + row).cell(row).cell(row * 0.5, SpreadsheetCellStyle.CENTER_ONE_DECIMAL);
+        }
+
+        assertThat(out.size())
+                .isGreaterThan(0);
+        assertThat(workbook.getTab("rows").getLastFlushedRow())
+                .isEqualTo(29899);
+
+        workbook.finish();
+        Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray())).getSheet("rows");
+        assertThat(sheet.getRow(29999).getCell(0).getStringCellValue())
+                .isEqualTo("row 29999");
+    }
+
+    @Test
+    public void pipelined_FlushesTheRowsOfABlockAsItIsWritten() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.pipelined(out, 10);
+        try {
+            final SpreadsheetTab tab = workbook.createTab("block");
+            final int[] maxRowsInWindow = new int[1];
+            List<Object[]> rows = new AbstractList<Object[]>() {
+                @Override
+                public Object[] get(int index) {
+                    maxRowsInWindow[0] = Math.max(maxRowsInWindow[0], index - 1 - tab.getLastFlushedRow());
+                    return new Object[]{"row " + index, index};
+                }
+
+                @Override
+                public int size() {
+                    return 1000;
+                }
+            };
+
+            tab.setValues(0, 0, rows);
+
+            assertThat(maxRowsInWindow[0])
+                    .isLessThanOrEqualTo(10);
+            assertThat(tab.getLastFlushedRow())
+                    .isEqualTo(989);
+            workbook.finish();
+        } finally {
+            workbook.dispose();
+        }
+        Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray())).getSheetAt(0);
+        assertThat(sheet.getRow(999).getCell(0).getStringCellValue())
+                .isEqualTo("row 999");
+    }
+
+    @Test
+    public void pipelined_RejectsRowsThatHaveBeenWritten() throws Exception {
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.pipelined(new ByteArrayOutputStream(), 5);
+        SpreadsheetTab first = workbook.createTab("first");
+        first.setValue(100, 0, "last");
+
+        try {
+            first.setValue(10, 0, "too late");
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+        try {
+            first.setStyle(50, 150, 0, 3, SpreadsheetCellStyle.DEFAULT.withBold(true));
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+        first.setStyle(99, 150, 0, 3, SpreadsheetCellStyle.DEFAULT.withBold(true));
+
+        workbook.createTab("second");
+        try {
+            first.setValue(100, 1, "too late");
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+
+        try {
+            workbook.write(new ByteArrayOutputStream());
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+        workbook.dispose();
+    }
+
+    @Test
+    public void pipelined_ReportsFailuresOfTheStream() throws Exception {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        SpreadsheetWorkbook workbook = SpreadsheetWorkbook.pipelined(failing, 10);
+        try {
+            RowWriter writer = workbook.createTab("rows").rowWriter();
+            for (int row = 0; row < 50000; row++) {
+                writer.nextRow().cell("row " + row).cell(row);
+            }
+            workbook.finish();
+            fail("Expected an exception but not thrown.");
+        } catch (TaroSpreadsheetException ex) {
+            assertThat(ex.getCause().getMessage())
+                    .isEqualTo("connection reset");
+        } catch (IOException ex) {
+            assertThat(ex.getMessage())
+                    .isEqualTo("connection reset");
+        }
+    }
+
+    private static Map<String, String> getZipEntries(byte[] bytes) throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes));
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            entries.put(entry.getName(), new String(ByteStreams.toByteArray(zip), StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    private static void fillTab(SpreadsheetTab tab, int tabNum) {
+        SpreadsheetCellStyle highlight = new SpreadsheetCellStyle().withBottomBorder(BorderStyle.THIN);
+        for (int row = 0; row < 300; row++) {
+            for (int col = 0; col < 8; col++) {
+                // new instances of equal styles, so the threads intern and register them at the same time
+                SpreadsheetCellStyle style = new SpreadsheetCellStyle()
+                        .withIndention((row + tabNum) % 5)
+                        .withBold(col % 2 == 0)
+                        .withDataFormatString(col == 3 ? "0.00" : null);
+                if (col == 0) {
+                    tab.setValue(row, col, "row " + row + " of tab " + tabNum, style);
+                } else {
+                    tab.setValue(row, col, row * col + tabNum / 10.0, style);
+                }
+            }
+            if (row % 10 == 0) {
+                tab.getCell(row, 1).applyStyle(highlight);
+            }
+        }
+        tab.setStyle(300, 302, 0, 7, SpreadsheetCellStyle.CENTER);
+        tab.autosizeCols();
+    }
+
+    private static XSSFWorkbook writeAndRead(SpreadsheetWorkbook workbook) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static String describe(CellStyle style, XSSFWorkbook workbook) {
+        return style.getIndention() + " " + workbook.getFontAt(style.getFontIndexAsInt()).getBold() + " "
+                + style.getDataFormatString() + " " + style.getBorderBottomEnum() + " " + style.getAlignmentEnum();
+    }
+
 }
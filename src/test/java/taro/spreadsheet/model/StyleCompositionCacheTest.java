@@ -0,0 +1,47 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StyleCompositionCacheTest {
+
+    @Test
+    public void compose_ReturnsTheAppliedStyleAndMemoizesIt() {
+        StyleCompositionCache cache = new StyleCompositionCache();
+        SpreadsheetCellStyle base = SpreadsheetCellStyle.DEFAULT.withAlign(HorizontalAlignment.CENTER).withBold(true);
+        SpreadsheetCellStyle overlay = SpreadsheetCellStyle.DEFAULT.withTopBorder(BorderStyle.THIN);
+
+        SpreadsheetCellStyle composed = cache.compose(base, overlay);
+
+        assertThat(composed)
+                .isEqualTo(base.apply(overlay));
+        assertThat(cache.compose(base.copy(), SpreadsheetCellStyle.DEFAULT.withTopBorder(BorderStyle.THIN)))
+                .isSameAs(composed);
+        assertThat(cache.getMisses())
+                .isEqualTo(1);
+        assertThat(cache.getHits())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void compose_KeepsEveryPairWhenTheTableGrows() {
+        StyleCompositionCache cache = new StyleCompositionCache();
+        SpreadsheetCellStyle overlay = SpreadsheetCellStyle.DEFAULT.withWrapText(true);
+        for (int indention = 0; indention < 200; indention++) {
+            cache.compose(SpreadsheetCellStyle.DEFAULT.withIndention(indention), overlay);
+        }
+        for (int indention = 0; indention < 200; indention++) {
+            assertThat(cache.compose(SpreadsheetCellStyle.DEFAULT.withIndention(indention), overlay).getIndention())
+                    .isEqualTo(indention);
+        }
+
+        assertThat(cache.size())
+                .isEqualTo(200);
+        assertThat(cache.getHits())
+                .isEqualTo(200);
+    }
+
+}
@@ -0,0 +1,154 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.CENTER_ONE_DECIMAL;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.HEADER;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.TITLE;
+
+public class StylePaletteTest {
+
+    private static final SpreadsheetCellStyle MONEY = new SpreadsheetCellStyle()
+            .withAlign(HorizontalAlignment.RIGHT)
+            .withDataFormatString("\"$\"#,##0.000")
+            .withBackgroundColor(new Color(0xDD, 0xEE, 0xFF))
+            .withIndention(2)
+            .withFontName("Courier New");
+
+    private static final StylePalette PALETTE = StylePalette.compile(TITLE, HEADER, CENTER_ONE_DECIMAL, MONEY, TITLE);
+
+    @Test
+    public void compile_CompilesEqualStylesOnce() {
+        assertThat(PALETTE.getStyles())
+                .containsExactly(TITLE.intern(), HEADER.intern(), CENTER_ONE_DECIMAL.intern(), MONEY.intern());
+        assertThat(PALETTE.contains(new SpreadsheetCellStyle().withDataFormatString("\"$\"#,##0.000")
+                .withAlign(HorizontalAlignment.RIGHT).withBackgroundColor(new Color(0xDD, 0xEE, 0xFF))
+                .withIndention(2).withFontName("Courier New")))
+                .isTrue();
+        assertThat(PALETTE.contains(TITLE.withItalic(true)))
+                .isFalse();
+    }
+
+    @Test
+    public void registerStyle_ReturnsTheStyleOfThePaletteWithoutCreatingOne() {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(PALETTE);
+        XSSFWorkbook poiWorkbook = workbook.getPoiWorkbook();
+        int cellStyleCount = poiWorkbook.getNumCellStyles();
+        short fontCount = poiWorkbook.getNumberOfFonts();
+
+        XSSFCellStyle money = (XSSFCellStyle) workbook.registerStyle(MONEY);
+        workbook.registerStyle(TITLE);
+        workbook.registerStyle(HEADER);
+
+        assertThat(poiWorkbook.getNumCellStyles())
+                .isEqualTo(cellStyleCount);
+        assertThat(poiWorkbook.getNumberOfFonts())
+                .isEqualTo(fontCount);
+        assertThat(money.getAlignment())
+                .isEqualTo(HorizontalAlignment.RIGHT);
+        assertThat(money.getDataFormatString())
+                .isEqualTo("\"$\"#,##0.000");
+        assertThat(money.getIndention())
+                .isEqualTo((short) 2);
+        assertThat(money.getFillPattern())
+                .isEqualTo(FillPatternType.SOLID_FOREGROUND);
+        assertThat(money.getFillForegroundXSSFColor().getRGB())
+                .isEqualTo(new byte[]{(byte) 0xDD, (byte) 0xEE, (byte) 0xFF});
+        assertThat(money.getFont().getFontName())
+                .isEqualTo("Courier New");
+        assertThat(poiWorkbook.getCellStyleAt(money.getIndex()).getDataFormatString())
+                .isEqualTo("\"$\"#,##0.000");
+    }
+
+    @Test
+    public void registerStyle_CreatesStylesThatAreNotInThePalette() {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook(PALETTE);
+        XSSFWorkbook poiWorkbook = workbook.getPoiWorkbook();
+        int cellStyleCount = poiWorkbook.getNumCellStyles();
+
+        CellStyle italicTitle = workbook.registerStyle(TITLE.withItalic(true));
+
+        assertThat(poiWorkbook.getNumCellStyles())
+                .isEqualTo(cellStyleCount + 1);
+        assertThat(italicTitle.getIndex())
+                .isEqualTo((short) cellStyleCount);
+        assertThat(poiWorkbook.getFontAt(italicTitle.getFontIndexAsInt()).getItalic())
+                .isTrue();
+        assertThat(workbook.registerStyle(TITLE).getIndex())
+                .isNotEqualTo(italicTitle.getIndex());
+    }
+
+    @Test
+    public void newWorkbooks_DoNotShareTheirStylesTables() {
+        SpreadsheetWorkbook first = new SpreadsheetWorkbook(PALETTE);
+        SpreadsheetWorkbook second = new SpreadsheetWorkbook(PALETTE);
+
+        first.registerStyle(MONEY.withItalic(true));
+
+        assertThat(first.getPoiWorkbook().getNumCellStyles())
+                .isEqualTo(second.getPoiWorkbook().getNumCellStyles() + 1);
+        assertThat(second.registerStyle(MONEY).getDataFormatString())
+                .isEqualTo("\"$\"#,##0.000");
+    }
+
+    @Test
+    public void write_WritesTheSameStylesAsAWorkbookWithoutAPalette() throws IOException {
+        SpreadsheetWorkbook[] workbooks = {
+                new SpreadsheetWorkbook(),
+                new SpreadsheetWorkbook(PALETTE),
+                SpreadsheetWorkbook.deferred(PALETTE),
+                SpreadsheetWorkbook.streaming(10, PALETTE)
+        };
+        for (SpreadsheetWorkbook workbook : workbooks) {
+            SpreadsheetTab tab = workbook.createTab("styles");
+            tab.setValue(0, 0, "Title", TITLE);
+            tab.setValue(1, 0, 12.5, MONEY);
+            tab.setValue(2, 0, 3.25, CENTER_ONE_DECIMAL.withItalic(true));
+        }
+
+        XSSFWorkbook expected = writeAndRead(workbooks[0]);
+        for (int i = 1; i < workbooks.length; i++) {
+            XSSFWorkbook actual = writeAndRead(workbooks[i]);
+            for (int row = 0; row < 3; row++) {
+                XSSFCellStyle expectedStyle = expected.getSheetAt(0).getRow(row).getCell(0).getCellStyle();
+                XSSFCellStyle actualStyle = actual.getSheetAt(0).getRow(row).getCell(0).getCellStyle();
+                assertThat(actualStyle.getDataFormatString())
+                        .isEqualTo(expectedStyle.getDataFormatString());
+                assertThat(actualStyle.getAlignment())
+                        .isEqualTo(expectedStyle.getAlignment());
+                assertThat(actualStyle.getIndention())
+                        .isEqualTo(expectedStyle.getIndention());
+                assertThat(actualStyle.getBorderTop())
+                        .isEqualTo(expectedStyle.getBorderTop());
+                assertThat(actualStyle.getFillPattern())
+                        .isEqualTo(expectedStyle.getFillPattern());
+                assertThat(actualStyle.getFont().getBold())
+                        .isEqualTo(expectedStyle.getFont().getBold());
+                assertThat(actualStyle.getFont().getItalic())
+                        .isEqualTo(expectedStyle.getFont().getItalic());
+                assertThat(actualStyle.getFont().getFontHeightInPoints())
+                        .isEqualTo(expectedStyle.getFont().getFontHeightInPoints());
+                assertThat(actualStyle.getFont().getFontName())
+                        .isEqualTo(expectedStyle.getFont().getFontName());
+            }
+        }
+    }
+
+    private static XSSFWorkbook writeAndRead(SpreadsheetWorkbook workbook) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+}
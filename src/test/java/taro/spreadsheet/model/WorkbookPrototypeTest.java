@@ -0,0 +1,178 @@
+package taro.spreadsheet.model;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+import taro.spreadsheet.TaroSpreadsheetException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.CENTER_ONE_DECIMAL;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.HEADER;
+import static taro.spreadsheet.model.SpreadsheetCellStyle.TITLE;
+
+public class WorkbookPrototypeTest {
+
+    private SpreadsheetWorkbook skeleton;
+
+    @Before
+    public void setUp() {
+        skeleton = SpreadsheetWorkbook.deferred();
+        SpreadsheetTab data = skeleton.createTab("Data");
+        data.mergeCells(0, 0, 0, 2, "Quarterly report", TITLE);
+        data.printAcross(1, 0, HEADER, "Region", "Sales", "Growth");
+        data.setColWidth(0, 5000);
+        data.setStyle(2, 20, 1, 2, CENTER_ONE_DECIMAL);
+        SpreadsheetTab notes = skeleton.createTab("Notes");
+        notes.setValue(0, 0, "Prepared by finance");
+    }
+
+    @Test
+    public void newWorkbook_HasTheTabsOfThePrototype() throws IOException {
+        WorkbookPrototype prototype = WorkbookPrototype.freeze(skeleton);
+
+        for (WriteOptions options : new WriteOptions[]{WriteOptions.DEFAULT, WriteOptions.SPREADSHEETML}) {
+            SpreadsheetWorkbook report = prototype.newWorkbook();
+            report.getTab("Data").setValue(2, 0, "North");
+            report.getTab("Data").setValue(2, 1, 12.25);
+
+            XSSFWorkbook actual = writeAndRead(report, options);
+            XSSFSheet data = actual.getSheet("Data");
+            assertThat(actual.getSheetName(1))
+                    .isEqualTo("Notes");
+            assertThat(data.getRow(0).getCell(0).getStringCellValue())
+                    .isEqualTo("Quarterly report");
+            assertThat(data.getRow(0).getCell(0).getCellStyle().getFont().getFontHeightInPoints())
+                    .isEqualTo((short) 14);
+            assertThat(data.getRow(1).getCell(2).getStringCellValue())
+                    .isEqualTo("Growth");
+            assertThat(data.getRow(1).getCell(2).getCellStyle().getWrapText())
+                    .isTrue();
+            assertThat(data.getRow(2).getCell(0).getStringCellValue())
+                    .isEqualTo("North");
+            assertThat(data.getRow(2).getCell(1).getNumericCellValue())
+                    .isEqualTo(12.25);
+            assertThat(data.getRow(2).getCell(1).getCellStyle().getDataFormatString())
+                    .isEqualTo("0.0");
+            assertThat(data.getMergedRegions())
+                    .containsExactly(new CellRangeAddress(0, 0, 0, 2));
+            assertThat(data.getColumnWidth(0))
+                    .isEqualTo(5000);
+            assertThat(actual.getSheet("Notes").getRow(0).getCell(0).getStringCellValue())
+                    .isEqualTo("Prepared by finance");
+        }
+    }
+
+    @Test
+    public void newWorkbook_SharesTheRowsUntilTheyAreModified() {
+        WorkbookPrototype prototype = WorkbookPrototype.freeze(skeleton);
+        CellBuffer first = prototype.newWorkbook().getTab("Data").getBuffer();
+        SpreadsheetTab second = prototype.newWorkbook().getTab("Data");
+
+        assertThat(second.getBuffer().getRow(1))
+                .isSameAs(first.getRow(1));
+
+        second.setValue(1, 1, "Revenue");
+
+        assertThat(second.getBuffer().getRow(1))
+                .isNotSameAs(first.getRow(1));
+        assertThat(second.getBuffer().getRow(0))
+                .isSameAs(first.getRow(0));
+        assertThat(second.getCell(1, 1).getValue())
+                .isEqualTo("Revenue");
+        assertThat(first.getString(1, 1))
+                .isEqualTo("Sales");
+    }
+
+    @Test
+    public void newWorkbook_IsNotChangedByTheOtherWorkbooks() throws IOException {
+        WorkbookPrototype prototype = WorkbookPrototype.freeze(skeleton);
+        SpreadsheetWorkbook first = prototype.newWorkbook();
+        SpreadsheetTab data = first.getTab("Data");
+        data.setValue(1, 0, "Country", HEADER.withItalic(true));
+        data.setStyle(1, 1, 0, 2, TITLE);
+        data.setRowHeight(0, 600);
+        data.setColWidth(0, 9000);
+        skeleton.getTab("Data").setValue(1, 1, "Changed");
+        skeleton.getTab("Notes").setValue(3, 0, "Changed");
+
+        XSSFWorkbook actual = writeAndRead(prototype.newWorkbook(), WriteOptions.SPREADSHEETML);
+
+        XSSFSheet actualData = actual.getSheet("Data");
+        assertThat(actualData.getRow(1).getCell(0).getStringCellValue())
+                .isEqualTo("Region");
+        assertThat(actualData.getRow(1).getCell(0).getCellStyle().getFont().getItalic())
+                .isFalse();
+        assertThat(actualData.getRow(1).getCell(1).getStringCellValue())
+                .isEqualTo("Sales");
+        assertThat(actualData.getRow(1).getCell(1).getCellStyle().getWrapText())
+                .isTrue();
+        assertThat(actualData.getRow(0).getCTRow().getCustomHeight())
+                .isFalse();
+        assertThat(actualData.getColumnWidth(0))
+                .isEqualTo(5000);
+        assertThat(actual.getSheet("Notes").getLastRowNum())
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void newWorkbook_KeepsTheStyleIdsOfThePrototype() throws IOException {
+        WorkbookPrototype prototype = WorkbookPrototype.freeze(skeleton);
+        SpreadsheetWorkbook report = prototype.newWorkbook();
+
+        report.getTab("Data").setValue(3, 1, 4.5, CENTER_ONE_DECIMAL);
+        report.getTab("Data").setValue(3, 2, 0.5, CENTER_ONE_DECIMAL.withItalic(true));
+
+        assertThat(report.getRegisteredStyles().subList(0, skeleton.getRegisteredStyles().size()))
+                .isEqualTo(skeleton.getRegisteredStyles());
+        XSSFSheet data = writeAndRead(report, WriteOptions.DEFAULT).getSheet("Data");
+        XSSFCellStyle italic = data.getRow(3).getCell(2).getCellStyle();
+        assertThat(italic.getFont().getItalic())
+                .isTrue();
+        assertThat(data.getRow(3).getCell(1).getCellStyle().getFont().getItalic())
+                .isFalse();
+    }
+
+    @Test
+    public void newWorkbook_AddsThePicturesOfThePrototype() throws IOException {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        skeleton.getTab("Notes").addPicture(2, 1, png.toByteArray(), Workbook.PICTURE_TYPE_PNG);
+
+        SpreadsheetWorkbook report = WorkbookPrototype.freeze(skeleton).newWorkbook();
+
+        XSSFWorkbook actual = writeAndRead(report, WriteOptions.DEFAULT);
+        assertThat(actual.getAllPictures())
+                .hasSize(1);
+        assertThat(actual.getAllPictures().get(0).getData())
+                .isEqualTo(png.toByteArray());
+    }
+
+    @Test
+    public void freeze_FailsForWorkbooksThatAreNotDeferred() {
+        SpreadsheetWorkbook workbook = new SpreadsheetWorkbook();
+        workbook.createTab("regular").setValue("A1", "value");
+        try {
+            WorkbookPrototype.freeze(workbook);
+            fail("Expected a TaroSpreadsheetException but not thrown.");
+        } catch (TaroSpreadsheetException ex) { /* expected */ }
+    }
+
+    private static XSSFWorkbook writeAndRead(SpreadsheetWorkbook workbook, WriteOptions options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out, options);
+        return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+}